@@ -350,6 +350,64 @@ class Env:
 
         return obs, reward, self.done, info
 
+    def step_n(self, actions, all_frames=False):
+        """Take a batch of steps in one round trip, e.g. for frame skip or macro actions.
+            actions - the list of actions to take, one per step.
+            all_frames - if True return the list of frames (one per step taken) rather than just the last frame.
+            Stepping stops early if the mission ends. Returns obs, summed reward, done and the latest info.
+        """
+        obs = []
+        reward = 0.0
+        info = None
+        steps = 0
+        withturnkey = self.step_options < 2
+        withinfo = self.step_options == 0 or self.step_options == 2
+
+        while not self.done and steps == 0:
+            step_message = "<StepN" + str(self.step_options) + ">" + \
+                           str(len(actions)) + " " + ("1" if all_frames else "0") + \
+                           "</StepN" + str(self.step_options) + " >"
+            comms.send_message(self.client_socket, step_message.encode())
+            for action in actions:
+                comms.send_message(self.client_socket, self.action_space[action].encode())
+            if withturnkey:
+                comms.send_message(self.client_socket, self.turn_key.encode())
+
+            frame_count, = struct.unpack('!I', comms.recv_message(self.client_socket))
+            frames = [comms.recv_message(self.client_socket) for _ in range(frame_count)]
+            if frame_count > 0:
+                obs = frames
+
+            reply = comms.recv_message(self.client_socket)
+            step_reward, done, sent, steps = struct.unpack('!dbbi', reply)
+            reward += step_reward
+            self.done = done == 1
+            if withinfo:
+                info = comms.recv_message(self.client_socket).decode('utf-8')
+
+            turn_key = comms.recv_message(self.client_socket).decode('utf-8') if withturnkey else ""
+            if turn_key != "":
+                self.turn_key = turn_key
+
+            if steps == 0 and not self.done:
+                time.sleep(0.1)
+
+        obs = [self._frame_to_obs(frame) for frame in obs]
+        if len(obs) == 0:
+            obs = [self._frame_to_obs(b'')]
+        self.last_obs = obs[-1]
+
+        return (obs if all_frames else obs[-1]), reward, self.done, info
+
+    def _frame_to_obs(self, frame):
+        obs = np.frombuffer(frame, dtype=np.uint8)
+        if self.reshape:
+            if obs.size == 0:
+                obs = np.zeros((self.height, self.width, self.depth), dtype=np.uint8)
+            else:
+                obs = obs.reshape((self.height, self.width, self.depth)).astype(np.uint8)
+        return obs
+
     def close(self):
         """gym api close"""
         try:
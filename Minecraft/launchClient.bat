@@ -28,7 +28,7 @@ setlocal enableDelayedExpansion
 ::
 :: The order of the definitions is not important.
 ::
-set "options=-port:0 -replaceable: -scorepolicy:0 -env:"
+set "options=-port:0 -replaceable: -scorepolicy:0 -env: -envselectors:0"
 
 :: Set the default option values
 for %%O in (%options%) do for /f "tokens=1,* delims=:" %%A in ("%%O") do set "%%A=%%~B"
@@ -81,6 +81,7 @@ echo }
 if "!-env!"=="true" (
     echo envtype {
     echo B:env=!-env!
+    echo I:selectorThreads=!-envselectors!
     echo }
     )
 if "!-replaceable!"=="true" (
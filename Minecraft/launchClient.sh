@@ -7,6 +7,7 @@ replaceable=0
 port=0
 scorepolicy=0
 env=0
+envselectors=0
 
 while [ $# -gt 0 ]
 do
@@ -15,8 +16,9 @@ do
         -port) port="$2"; shift;;
         -scorepolicy) scorepolicy="$2"; shift;;
         -env) env=1;;
+        -envselectors) envselectors="$2"; shift;;
         *) echo >&2 \
-            "usage: $0 [-replaceable] [-port 10000] [-scorepolicy 0123] [-env]"
+            "usage: $0 [-replaceable] [-port 10000] [-scorepolicy 0123] [-env] [-envselectors 0]"
             exit 1;;
     esac
     shift
@@ -37,6 +39,11 @@ if ! [[ $scorepolicy =~ ^-?[0-9]+$ ]]; then
     exit 1
 fi
 
+if ! [[ $envselectors =~ ^[0-9]+$ ]]; then
+    echo "Env selector thread count should be numeric"
+    exit 1
+fi
+
 # Now write the configuration file
 if [ ! -d "run/config" ]; then
   mkdir run/config
@@ -62,6 +69,7 @@ fi
 if [ $env -gt 0 ]; then
     echo "envtype {
   B:env=true
+  I:selectorThreads=$envselectors
 }
 " >> run/config/malmomodCLIENT.cfg
 fi
@@ -26,10 +26,12 @@ import java.math.BigDecimal;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 import java.util.logging.Level;
 
 import javax.xml.bind.JAXBException;
@@ -77,8 +79,10 @@ import com.microsoft.Malmo.StateMachine;
 import com.microsoft.Malmo.Client.MalmoModClient.InputType;
 import com.microsoft.Malmo.MissionHandlerInterfaces.IVideoProducer;
 import com.microsoft.Malmo.MissionHandlerInterfaces.IWantToQuit;
+import com.microsoft.Malmo.MissionHandlers.CommandBase;
 import com.microsoft.Malmo.MissionHandlers.MissionBehaviour;
 import com.microsoft.Malmo.MissionHandlers.MultidimensionalReward;
+import com.microsoft.Malmo.Schemas.AgentHandlers;
 import com.microsoft.Malmo.Schemas.AgentSection;
 import com.microsoft.Malmo.Schemas.AgentStart;
 import com.microsoft.Malmo.Schemas.ClientAgentConnection;
@@ -798,6 +802,7 @@ public class ClientStateMachine extends StateMachine implements IMalmoMessageLis
             if (ev.getConfigID().equals(MalmoMod.SOCKET_CONFIGS))
             {
                 AddressHelper.update(MalmoMod.instance.getModSessionConfigFile());
+                TCPInputPoller.update(MalmoMod.instance.getModSessionConfigFile());
                 try
                 {
                     ClientStateMachine.this.initialiseComms();
@@ -966,6 +971,7 @@ public class ClientStateMachine extends StateMachine implements IMalmoMessageLis
                     ClientStateMachine.this.controlInputPoller = new TCPInputPoller(requestedPort, "com");
                 ClientStateMachine.this.controlInputPoller.start();
             }
+            ClientStateMachine.this.controlInputPoller.setMaxQueuedCommands(TCPInputPoller.getConfiguredMaxQueuedCommands());
             // Make sure the cac is up-to-date:
             cac.setClientCommandsPort(ClientStateMachine.this.controlInputPoller.getPortBlocking());
             ls.close();
@@ -1774,6 +1780,11 @@ public class ClientStateMachine extends StateMachine implements IMalmoMessageLis
         private String quitCode = "";
         private TCPSocketChannel observationSocket = null;
         private TCPSocketChannel rewardSocket = null;
+        private ObservationDeltaEncoder observationEncoder = null; // Only used if the agent asked for delta observations.
+        private List<String> pendingCommands = new ArrayList<String>();   // Reused each tick by checkForControlCommand().
+        private boolean batchCommands = false;  // Apply each tick's commands as a batch - see coalesceCommands().
+        private Set<String> coalescableVerbs = new HashSet<String>();
+        private long droppedCommandsAtStart = 0;    // So we can report any commands lost to a full queue during the mission.
         private long lastPingSent = 0;
         private long pingFrequencyMs = 1000;
 
@@ -1790,6 +1801,9 @@ public class ClientStateMachine extends StateMachine implements IMalmoMessageLis
             // Open our communication channels:
             openSockets();
 
+            AgentHandlers handlers = currentMissionInit().getMission().getAgentSection().get(currentMissionInit().getClientRole()).getAgentHandlers();
+            this.observationEncoder = handlers.isDeltaObservations() ? new ObservationDeltaEncoder(handlers.getObservationKeyframeInterval()) : null;
+
             // Tell the server we have started:
             HashMap<String, String> map = new HashMap<String, String>();
             map.put("username", Minecraft.getMinecraft().player.getName());
@@ -1801,6 +1815,12 @@ public class ClientStateMachine extends StateMachine implements IMalmoMessageLis
                 currentMissionBehaviour().commandHandler.install(currentMissionInit());
                 currentMissionBehaviour().commandHandler.setOverriding(true);
             }
+            this.batchCommands = handlers.isBatchCommands();
+            this.coalescableVerbs.clear();
+            if (this.batchCommands && currentMissionBehaviour().commandHandler instanceof CommandBase)
+                this.coalescableVerbs.addAll(((CommandBase)currentMissionBehaviour().commandHandler).getCoalescableVerbs());
+            if (ClientStateMachine.this.controlInputPoller != null)
+                this.droppedCommandsAtStart = ClientStateMachine.this.controlInputPoller.getDroppedCommandCount();
 
             if (currentMissionBehaviour().observationProducer != null)
                 currentMissionBehaviour().observationProducer.prepare(currentMissionInit());
@@ -1852,6 +1872,13 @@ public class ClientStateMachine extends StateMachine implements IMalmoMessageLis
             // Close our communication channels:
             closeSockets();
 
+            if (ClientStateMachine.this.controlInputPoller != null)
+            {
+                long dropped = ClientStateMachine.this.controlInputPoller.getDroppedCommandCount() - this.droppedCommandsAtStart;
+                if (dropped > 0)
+                    TCPUtils.Log(Level.WARNING, dropped + " command(s) were dropped during the mission because the command queue was full.");
+            }
+
             for (VideoHook hook : this.videoHooks)
                 hook.stop(ClientStateMachine.this.missionEndedData);
 
@@ -2004,31 +2031,45 @@ public class ClientStateMachine extends StateMachine implements IMalmoMessageLis
             TCPUtils.LogSection ls = new TCPUtils.LogSection("Sending data");
             Minecraft.getMinecraft().mcProfiler.endStartSection("malmoSendData");
             // Create the observation data:
-            String data = "";
+            JsonObject json = null;
             Minecraft.getMinecraft().mcProfiler.startSection("malmoGatherObservationJSON");
             if (currentMissionBehaviour() != null && currentMissionBehaviour().observationProducer != null)
             {
-                JsonObject json = new JsonObject();
+                json = new JsonObject();
                 currentMissionBehaviour().observationProducer.writeObservationsToJSON(json, currentMissionInit());
-                data = json.toString();
             }
             Minecraft.getMinecraft().mcProfiler.endStartSection("malmoSendTCPObservations");
 
             ClientAgentConnection cac = currentMissionInit().getClientAgentConnection();
 
-            if (data != null && data.length() > 2 && cac != null) // An empty json string will be "{}" (length 2) - don't send these.
+            if (json != null && json.entrySet().size() > 0 && cac != null) // Don't send empty observations.
             {
                 if (AddressHelper.getMissionControlPort() == 0) {
                     if (envServer != null) {
-                        envServer.observation(data);
+                        // For delta observations the env server does its own encoding, as the agent only sees the observations it steps for.
+                        if (this.observationEncoder != null)
+                            envServer.observation(json, this.observationEncoder.getKeyframeInterval());
+                        else
+                            envServer.observation(json.toString());
                     }
                 } else {
+                    String data;
+                    if (this.observationEncoder != null) {
+                        JsonObject delta = this.observationEncoder.encode(json);
+                        data = this.observationEncoder.hasChanges() ? delta.toString() : null;
+                    } else {
+                        data = json.toString();
+                    }
                     // Bung the whole shebang off via TCP:
-                    if (this.observationSocket.sendTCPString(data)) {
+                    if (data == null) {
+                        // Nothing has changed since the last observation.
+                    } else if (this.observationSocket.sendTCPString(data)) {
                         this.failedTCPObservationSendCount = 0;
                     } else {
                         // Failed to send observation message.
                         this.failedTCPObservationSendCount++;
+                        if (this.observationEncoder != null)
+                            this.observationEncoder.forceKeyframe(); // The agent won't have seen this delta.
                         TCPUtils.Log(Level.WARNING, "Observation signal delivery failure count at " + this.failedTCPObservationSendCount);
                         ClientStateMachine.this.getScreenHelper().addFragment("ERROR: Agent missed observation signal", TextCategory.TXT_CLIENT_WARNING, 5000);
                     }
@@ -2096,34 +2137,73 @@ public class ClientStateMachine extends StateMachine implements IMalmoMessageLis
         private void checkForControlCommand()
         {
             Minecraft.getMinecraft().mcProfiler.endStartSection("malmoCommandHandling");
-            String command;
             boolean quitHandlerFired = false;
             IWantToQuit quitHandler = (currentMissionBehaviour() != null) ? currentMissionBehaviour().quitProducer : null;
 
+            // Take everything that has arrived since the last tick in one go:
+            List<String> commands = this.pendingCommands;
+            commands.clear();
             if (envServer != null) {
-                command = envServer.getCommand();
+                envServer.drainCommands(commands);
             } else {
-                command = ClientStateMachine.this.controlInputPoller.getCommand();
+                ClientStateMachine.this.controlInputPoller.drainCommands(commands);
             }
-            while (command != null && command.length() > 0 && !quitHandlerFired)
+            if (this.batchCommands && !commands.isEmpty())
             {
+                // Check the quit producer once for the whole batch, then apply it without stopping:
+                if (quitHandler != null && quitHandler.doIWantToQuit(currentMissionInit()))
+                {
+                    commands.clear();
+                    return;
+                }
+                coalesceCommands(commands);
+                for (String command : commands)
+                {
+                    if (command != null && command.length() != 0)
+                        handleCommand(command);
+                }
+                commands.clear();
+                return;
+            }
+            for (int i = 0; i < commands.size() && !quitHandlerFired; i++)
+            {
+                String command = commands.get(i);
+                if (command == null || command.length() == 0)
+                    continue;
                 // TCPUtils.Log(Level.INFO, "Act on " + command);
                 // Pass the command to our various control overrides:
                 Minecraft.getMinecraft().mcProfiler.startSection("malmoCommandAct");
                 boolean handled = handleCommand(command);
-                // Get the next command:
-                if (envServer != null) {
-                    command = envServer.getCommand();
-                } else {
-                    command = ClientStateMachine.this.controlInputPoller.getCommand();
-                }
                 // If there *is* another command (commands came in faster than one per client tick),
                 // then we should check our quit producer before deciding whether to execute it.
                 Minecraft.getMinecraft().mcProfiler.endStartSection("malmoCommandRecheckQuitHandlers");
-                if (command != null && command.length() > 0 && handled)
+                if (i + 1 < commands.size() && handled)
                     quitHandlerFired = (quitHandler != null && quitHandler.doIWantToQuit(currentMissionInit()));
                 Minecraft.getMinecraft().mcProfiler.endSection();
             }
+            commands.clear();
+        }
+
+        /**
+         * Remove any commands that are superseded by a later command in the same batch - eg "move 0.5" followed by
+         * "move 1" leaves just "move 1". Only the verbs the command handlers say can be coalesced are affected; the
+         * commands that remain keep their order.
+         */
+        private void coalesceCommands(List<String> commands)
+        {
+            if (this.coalescableVerbs.isEmpty() || commands.size() < 2)
+                return;
+            Set<String> seen = new HashSet<String>();
+            for (int i = commands.size() - 1; i >= 0; i--)
+            {
+                String command = commands.get(i);
+                if (command == null)
+                    continue;
+                int space = command.indexOf(' ');
+                String verb = ((space == -1) ? command : command.substring(0, space)).toLowerCase();
+                if (this.coalescableVerbs.contains(verb) && !seen.add(verb))
+                    commands.set(i, null);  // A later command sets the same thing.
+            }
         }
 
         /**
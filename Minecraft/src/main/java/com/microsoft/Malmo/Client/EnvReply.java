@@ -0,0 +1,146 @@
+// --------------------------------------------------------------------------------------------------
+//  Copyright (c) 2016 Microsoft Corporation
+//
+//  Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+//  associated documentation files (the "Software"), to deal in the Software without restriction,
+//  including without limitation the rights to use, copy, modify, merge, publish, distribute,
+//  sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+//  furnished to do so, subject to the following conditions:
+//
+//  The above copyright notice and this permission notice shall be included in all copies or
+//  substantial portions of the Software.
+//
+//  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+//  NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+//  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+//  DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+//  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+// --------------------------------------------------------------------------------------------------
+
+package com.microsoft.Malmo.Client;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+
+/**
+ * A reply to a MalmoEnv request, built up in a reusable per-connection buffer.<br>
+ * Video frames are not copied into the buffer - they are spliced in between slices of it, so that the whole reply
+ * can go out in one gathering write. The reply holds a reference to each frame until release() is called.
+ */
+class EnvReply
+{
+    private static final int INITIAL_CAPACITY = 4096;
+
+    private ByteBuffer buffer = ByteBuffer.allocate(INITIAL_CAPACITY); // Big endian, as for DataOutputStream.
+    private int segmentStart = 0;
+    private final ArrayList<ByteBuffer> segments = new ArrayList<ByteBuffer>();
+    private final ArrayList<FrameBufferPool.PooledFrame> frames = new ArrayList<FrameBufferPool.PooledFrame>();
+    private ByteBuffer[] pending = null;
+
+    /** Start a new reply. Any frames still held from the previous reply are released.*/
+    void reset()
+    {
+        release();
+        this.buffer.clear();
+        this.segmentStart = 0;
+        this.segments.clear();
+        this.pending = null;
+    }
+
+    void putInt(int value)
+    {
+        ensureCapacity(4);
+        this.buffer.putInt(value);
+    }
+
+    void putDouble(double value)
+    {
+        ensureCapacity(8);
+        this.buffer.putDouble(value);
+    }
+
+    void putByte(int value)
+    {
+        ensureCapacity(1);
+        this.buffer.put((byte) value);
+    }
+
+    /** Write the length of the data followed by the data itself.*/
+    void putMessage(byte[] data)
+    {
+        ensureCapacity(4 + data.length);
+        this.buffer.putInt(data.length);
+        this.buffer.put(data);
+    }
+
+    /** Write the length of the frame (zero if null) followed by the frame data.
+     * Takes over the caller's reference to the frame.
+     */
+    void putFrame(FrameBufferPool.PooledFrame frame)
+    {
+        putInt(frame == null ? 0 : frame.size());
+        if (frame != null)
+        {
+            closeSegment();
+            this.segments.add(frame.view());
+            this.frames.add(frame);
+        }
+    }
+
+    /** Write as much of the reply as the channel will take.
+     * @return true if the whole reply has now been written.
+     */
+    boolean write(SocketChannel channel) throws IOException
+    {
+        if (this.pending == null)
+        {
+            closeSegment();
+            this.pending = this.segments.toArray(new ByteBuffer[this.segments.size()]);
+        }
+        if (this.pending.length == 0)
+            return true;
+        channel.write(this.pending);
+        return !this.pending[this.pending.length - 1].hasRemaining();
+    }
+
+    /** Give back any frames held by the reply.*/
+    void release()
+    {
+        for (FrameBufferPool.PooledFrame frame : this.frames)
+            frame.release();
+        this.frames.clear();
+    }
+
+    private void closeSegment()
+    {
+        if (this.buffer.position() > this.segmentStart)
+        {
+            ByteBuffer segment = this.buffer.duplicate();
+            segment.position(this.segmentStart);
+            segment.limit(this.buffer.position());
+            this.segments.add(segment.slice());
+            this.segmentStart = this.buffer.position();
+        }
+    }
+
+    private void ensureCapacity(int bytes)
+    {
+        if (this.buffer.remaining() >= bytes)
+            return;
+        // Grow the buffer. Segments already closed off keep referring to the old one, so we only need to carry over
+        // the segment currently being built.
+        int openSegment = this.buffer.position() - this.segmentStart;
+        int capacity = this.buffer.capacity();
+        while (capacity - openSegment < bytes)
+            capacity *= 2;
+        ByteBuffer grown = ByteBuffer.allocate(capacity);
+        ByteBuffer current = this.buffer.duplicate();
+        current.position(this.segmentStart);
+        current.limit(this.buffer.position());
+        grown.put(current);
+        this.buffer = grown;
+        this.segmentStart = 0;
+    }
+}
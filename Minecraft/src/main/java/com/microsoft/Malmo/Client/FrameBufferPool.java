@@ -0,0 +1,113 @@
+// --------------------------------------------------------------------------------------------------
+//  Copyright (c) 2016 Microsoft Corporation
+//
+//  Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+//  associated documentation files (the "Software"), to deal in the Software without restriction,
+//  including without limitation the rights to use, copy, modify, merge, publish, distribute,
+//  sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+//  furnished to do so, subject to the following conditions:
+//
+//  The above copyright notice and this permission notice shall be included in all copies or
+//  substantial portions of the Software.
+//
+//  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+//  NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+//  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+//  DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+//  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+// --------------------------------------------------------------------------------------------------
+
+package com.microsoft.Malmo.Client;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Recycles the direct buffers that video frames are handed over in, so that the env service doesn't have to allocate
+ * (and the garbage collector doesn't have to reclaim) a new array for every frame.<br>
+ * A frame is reference counted - the producer acquires it with one reference, and hands that reference over to whoever
+ * it gives the frame to. Anyone else who wants to hold on to the frame (eg while writing it to a socket) must retain()
+ * it, and release() it when done. When the count drops to zero the buffer goes back into the pool.
+ */
+public class FrameBufferPool
+{
+    /** Maximum number of idle buffers to keep hold of. */
+    private static final int MAX_FREE_FRAMES = 8;
+
+    public class PooledFrame
+    {
+        private final ByteBuffer data;
+        private final AtomicInteger refs = new AtomicInteger(1);
+
+        private PooledFrame(int size)
+        {
+            this.data = ByteBuffer.allocateDirect(size).order(ByteOrder.nativeOrder());
+        }
+
+        /** The frame data, from position zero to the frame size.*/
+        public ByteBuffer getData()
+        {
+            return this.data;
+        }
+
+        /** Get a read-only view of the frame data, suitable for writing to a channel without disturbing anyone else.*/
+        public ByteBuffer view()
+        {
+            ByteBuffer view = this.data.asReadOnlyBuffer();
+            view.position(0);
+            return view;
+        }
+
+        public int size()
+        {
+            return this.data.limit();
+        }
+
+        public void retain()
+        {
+            this.refs.incrementAndGet();
+        }
+
+        public void release()
+        {
+            if (this.refs.decrementAndGet() == 0)
+                recycle(this);
+        }
+    }
+
+    private final ConcurrentLinkedQueue<PooledFrame> freeFrames = new ConcurrentLinkedQueue<PooledFrame>();
+    private final AtomicInteger freeCount = new AtomicInteger(0);
+
+    /** Get a frame with room for size bytes, owned by the caller (reference count one).
+     * The data buffer is cleared and its limit set to size.
+     */
+    public PooledFrame acquire(int size)
+    {
+        PooledFrame frame;
+        while ((frame = this.freeFrames.poll()) != null)
+        {
+            this.freeCount.decrementAndGet();
+            if (frame.data.capacity() == size)
+                break;
+            // Wrong size (frame dimensions have changed) - drop it.
+        }
+        if (frame == null)
+            frame = new PooledFrame(size);
+        frame.refs.set(1);
+        frame.data.clear();
+        frame.data.limit(size);
+        return frame;
+    }
+
+    private void recycle(PooledFrame frame)
+    {
+        if (this.freeCount.incrementAndGet() > MAX_FREE_FRAMES)
+        {
+            this.freeCount.decrementAndGet();
+            return;
+        }
+        this.freeFrames.offer(frame);
+    }
+}
@@ -19,16 +19,31 @@
 
 package com.microsoft.Malmo.Client;
 
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
 import com.microsoft.Malmo.MalmoMod;
 import com.microsoft.Malmo.MissionHandlerInterfaces.IWantToQuit;
 import com.microsoft.Malmo.Schemas.MissionInit;
 import com.microsoft.Malmo.Utils.TCPUtils;
 import net.minecraftforge.common.config.Configuration;
 import java.io.*;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
@@ -38,6 +53,7 @@ import com.microsoft.Malmo.Utils.TCPInputPoller;
 import java.util.logging.Level;
 
 import java.util.LinkedList;
+import java.util.List;
 
 
 /**
@@ -60,8 +76,12 @@ public class MalmoEnvServer implements IWantToQuit {
         // OpenAI gym state:
         boolean done = false;
         double reward = 0.0;
-        byte[] obs = null;
+        FrameBufferPool.PooledFrame obs = null;
+        long obsSeq = 0; // Frame sequence number of the latest frame.
         String info = "";
+        JsonObject pendingInfo = null; // Latest observation not yet taken by the agent, when using delta observations.
+        ObservationDeltaEncoder infoEncoder = null;
+        long infoFrameSeq = 0; // Frame sequence number of the latest frame when the info arrived.
 
         // Actions (with optional turn key)
         String turnKey = "";
@@ -70,19 +90,28 @@ public class MalmoEnvServer implements IWantToQuit {
     }
 
     private static boolean envPolicy = false; // Are we configured by config policy?
+    private static int selectorThreads = 0; // Zero for a thread per connection, else the number of selector event loops.
 
     // Synchronize on EnvState
 
     private Lock lock = new ReentrantLock();
-    private Condition cond = lock.newCondition();
+    // Separate conditions so that waiters are only woken by the events they are waiting for (or the mission ending):
+    private Condition frameCond = lock.newCondition();  // New video frame.
+    private Condition infoCond = lock.newCondition();   // New observation (env info).
+    private Condition tokenCond = lock.newCondition();  // Mission init tokens added or consumed.
+    private long frameSeq = 0;
 
     private EnvState envState = new EnvState();
 
+    private FrameBufferPool framePool = new FrameBufferPool();
+
     private Hashtable<String, Integer> initTokens = new Hashtable<String, Integer>();
 
     static final long COND_WAIT_SECONDS = 3; // Max wait in seconds before timing out (and replying to RPC).
     static final int BYTES_INT = 4;
     static final int BYTES_DOUBLE = 8;
+    static final int INPUT_BUFFER_BYTES = 64 * 1024; // Initial per-connection read buffer size in selector mode.
+    static final int MAX_MESSAGE_BYTES = 256 * 1024 * 1024;
     private static final Charset utf8 = Charset.forName("UTF-8");
 
     // Service uses a single per-environment client connection - initiated by the remote environment.
@@ -91,6 +120,21 @@ public class MalmoEnvServer implements IWantToQuit {
     private TCPInputPoller missionPoller; // Used for command parsing and not actual communication.
     private String version;
 
+    // Dispatch table from message tag (eg "Step" for "<Step0>") to handler.
+    private final Map<String, EnvCommand> commandTable = new HashMap<String, EnvCommand>();
+
+    // Selector mode - requests are carried out here, as handlers can block waiting for frames, observations or tokens.
+    // Each connection has at most one request in flight, so this never needs more threads than there are connections;
+    // a fixed size pool could leave role 0's <MissionInit> waiting on tokens that a queued <Find> is due to consume.
+    private static final ExecutorService requestWorkers = Executors.newCachedThreadPool(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "EnvServerRequestWorker");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
     /***
      * Malmo "Env" service.
      * @param port the port the service listens on.
@@ -100,11 +144,13 @@ public class MalmoEnvServer implements IWantToQuit {
         this.version = version;
         this.missionPoller = missionPoller;
         this.port = port;
+        buildCommandTable();
     }
 
     /** Initialize malmo env configuration. For now either on or "legacy" AgentHost protocol.*/
     static public void update(Configuration configs) {
         envPolicy = configs.get(MalmoMod.ENV_CONFIGS, "env", "false").getBoolean();
+        selectorThreads = configs.get(MalmoMod.ENV_CONFIGS, "selectorThreads", 0).getInt();
     }
 
     public static boolean isEnv() {
@@ -117,116 +163,451 @@ public class MalmoEnvServer implements IWantToQuit {
      */
     public void serve() throws IOException {
 
-        ServerSocket serverSocket = new ServerSocket(port);
+        // Sockets are opened as channels so that replies can be written with gathering writes.
+        ServerSocketChannel serverChannel = ServerSocketChannel.open();
+        serverChannel.socket().bind(new InetSocketAddress(port));
+
+        EnvEventLoop[] eventLoops = null;
+        if (selectorThreads > 0) {
+            TCPUtils.Log(Level.INFO, "MalmoEnv service using " + selectorThreads + " selector thread(s)");
+            eventLoops = new EnvEventLoop[selectorThreads];
+            for (int i = 0; i < selectorThreads; i++) {
+                eventLoops[i] = new EnvEventLoop();
+                Thread thread = new Thread(eventLoops[i], "EnvServerEventLoop" + i);
+                thread.setDaemon(true);
+                thread.start();
+            }
+        }
+
+        int nextLoop = 0;
         while (true) {
             try {
-                final Socket socket = serverSocket.accept();
+                final SocketChannel channel = serverChannel.accept();
+
+                if (eventLoops != null) {
+                    eventLoops[nextLoop].register(channel);
+                    nextLoop = (nextLoop + 1) % eventLoops.length;
+                    continue;
+                }
 
                 Thread thread = new Thread("EnvServerSocketHandler") {
                     public void run() {
-                        boolean running = false;
-                        try {
-                            checkHello(socket);
+                        serveBlocking(channel);
+                    }
+                };
+                thread.start();
+            } catch (IOException ioe) {
+                TCPUtils.Log(Level.SEVERE, "MalmoEnv service exits on " + ioe);
+            }
+        }
+    }
 
-                            while (true) {
-                                DataInputStream din = new DataInputStream(socket.getInputStream());
-                                int hdr = din.readInt();
-                                byte[] data = new byte[hdr];
-                                din.readFully(data);
+    // Thread per connection mode - blocking reads and writes on the connection's own thread.
+    private void serveBlocking(SocketChannel channel) {
+        EnvConnection connection = new EnvConnection(channel);
+        try {
+            DataInputStream din = new DataInputStream(channel.socket().getInputStream());
+
+            int hdr = din.readInt();
+            checkHelloLength(hdr);
+            checkHello(readPart(din, hdr));
+
+            while (true) {
+                String command = new String(readPart(din, din.readInt()), utf8);
+                EnvCommand handler = lookupCommand(command);
+                byte[][] parts = new byte[handler.extraParts(command)][];
+                for (int i = 0; i < parts.length; i++) {
+                    parts[i] = readPart(din, din.readInt());
+                }
 
-                                String command = new String(data, utf8);
+                connection.execute(handler, command, parts);
+                while (!connection.reply.write(channel)) {
+                }
+                connection.reply.release();
+                if (connection.exitAfterReply)
+                    exitService();
+            }
+        } catch (IOException ioe) {
+            connection.disconnected(ioe);
+        }
+    }
 
-                                if (command.startsWith("<Step")) {
+    private static byte[] readPart(DataInputStream din, int hdr) throws IOException {
+        if (hdr < 0 || hdr > MAX_MESSAGE_BYTES)
+            throw new IOException("Invalid MalmoEnv message length " + hdr);
+        byte[] data = new byte[hdr];
+        din.readFully(data);
+        return data;
+    }
 
-                                    step(command, socket, din);
+    private static void checkHelloLength(int hdr) throws IOException {
+        if (hdr <= 0 || hdr > hello.length() + 8) // Version number may be somewhat longer in future.
+            throw new IOException("Invalid MalmoEnv hello header length");
+    }
 
-                                } else if (command.startsWith("<Peek")) {
+    private void checkHello(byte[] data) throws IOException {
+        if (!new String(data).startsWith(hello + version))
+            throw new IOException("MalmoEnv invalid protocol or version - expected " + hello + version);
+    }
 
-                                    peek(command, socket, din);
+    // Find the handler for a command from its message tag - the letters following the opening '<'.
+    private EnvCommand lookupCommand(String command) throws IOException {
+        int end = 1;
+        while (end < command.length() && Character.isLetter(command.charAt(end)))
+            end++;
+        EnvCommand handler = command.startsWith("<") ? commandTable.get(command.substring(1, end)) : null;
+        if (handler == null)
+            throw new IOException("Unknown env service command");
+        return handler;
+    }
 
-                                } else if (command.startsWith("<Init")) {
+    /** A MalmoEnv request handler, keyed in the dispatch table by its message tag. */
+    private interface EnvCommand {
+        /** The number of further length prefixed parts which follow the command itself. */
+        int extraParts(String command) throws IOException;
 
-                                    init(command, socket);
+        /** Carry out the command and build the reply in connection.reply. */
+        void execute(String command, byte[][] parts, EnvConnection connection) throws IOException;
+    }
 
-                                } else if (command.startsWith("<Find")) {
+    private void buildCommandTable() {
+        commandTable.put("Step", new EnvCommand() {
+            public int extraParts(String command) {
+                return stepOptions(command) < 2 ? 1 : 0; // Turn key follows.
+            }
+            public void execute(String command, byte[][] parts, EnvConnection connection) throws IOException {
+                step(command, parts.length > 0 ? parts[0] : new byte[0], connection.reply);
+            }
+        });
+        commandTable.put("StepN", new EnvCommand() {
+            public int extraParts(String command) throws IOException {
+                int options = Character.getNumericValue(command.charAt(stepNTagLength - 2));
+                return stepNCount(command) + (options < 2 ? 1 : 0); // Actions then turn key.
+            }
+            public void execute(String command, byte[][] parts, EnvConnection connection) throws IOException {
+                stepN(command, parts, connection.reply);
+            }
+        });
+        commandTable.put("Peek", new EnvCommand() {
+            public int extraParts(String command) {
+                return 0;
+            }
+            public void execute(String command, byte[][] parts, EnvConnection connection) throws IOException {
+                peek(command, connection.reply);
+            }
+        });
+        commandTable.put("Init", new EnvCommand() {
+            public int extraParts(String command) {
+                return 0;
+            }
+            public void execute(String command, byte[][] parts, EnvConnection connection) throws IOException {
+                init(command, connection.reply);
+            }
+        });
+        commandTable.put("Find", new EnvCommand() {
+            public int extraParts(String command) {
+                return 0;
+            }
+            public void execute(String command, byte[][] parts, EnvConnection connection) throws IOException {
+                find(command, connection.reply);
+            }
+        });
+        commandTable.put("MissionInit", new EnvCommand() {
+            public int extraParts(String command) {
+                return 1; // Experiment id, role, reset and agent count.
+            }
+            public void execute(String command, byte[][] parts, EnvConnection connection) throws IOException {
+                if (missionInit(command, parts[0], connection.getIpOriginator(), connection.reply))
+                    connection.running = true;
+            }
+        });
+        commandTable.put("Quit", new EnvCommand() {
+            public int extraParts(String command) {
+                return 0;
+            }
+            public void execute(String command, byte[][] parts, EnvConnection connection) throws IOException {
+                quit(command, connection.reply);
+            }
+        });
+        commandTable.put("Exit", new EnvCommand() {
+            public int extraParts(String command) {
+                return 0;
+            }
+            public void execute(String command, byte[][] parts, EnvConnection connection) throws IOException {
+                exit(command, connection);
+            }
+        });
+        commandTable.put("Close", new EnvCommand() {
+            public int extraParts(String command) {
+                return 0;
+            }
+            public void execute(String command, byte[][] parts, EnvConnection connection) throws IOException {
+                close(command, connection.reply);
+            }
+        });
+        commandTable.put("Status", new EnvCommand() {
+            public int extraParts(String command) {
+                return 0;
+            }
+            public void execute(String command, byte[][] parts, EnvConnection connection) throws IOException {
+                status(command, connection.reply);
+            }
+        });
+        commandTable.put("Echo", new EnvCommand() {
+            public int extraParts(String command) {
+                return 0;
+            }
+            public void execute(String command, byte[][] parts, EnvConnection connection) throws IOException {
+                connection.reply.putMessage(("<Echo>" + command + "</Echo>").getBytes(utf8));
+            }
+        });
+    }
 
-                                    find(command, socket);
+    /** Per-connection state, shared by the thread per connection and selector modes. */
+    private class EnvConnection {
+        final SocketChannel channel;
+        final EnvReply reply = new EnvReply();
+        boolean running = false;
+        boolean exitAfterReply = false; // Set by <Exit> - the service exits once the reply has gone.
+        private String ipOriginator = null;
+
+        // Selector mode request assembly:
+        EnvEventLoop loop = null;
+        SelectionKey key = null;
+        ByteBuffer input = null;
+        boolean helloReceived = false;
+        boolean busy = false; // A request is with the request workers, or its reply is still being written.
+        IOException failure = null; // Set by the request worker if the request failed.
+        String command = null;
+        EnvCommand handler = null;
+        byte[][] parts = null;
+        int partsRead = 0;
+
+        EnvConnection(SocketChannel channel) {
+            this.channel = channel;
+        }
 
-                                } else if (command.startsWith("<MissionInit")) {
+        String getIpOriginator() {
+            if (ipOriginator == null)
+                ipOriginator = TCPUtils.getHostName(channel.socket().getInetAddress());
+            return ipOriginator;
+        }
 
-                                    if (missionInit(din, command, socket))
-                                        running = true;
+        void execute(EnvCommand handler, String command, byte[][] parts) throws IOException {
+            reply.reset();
+            handler.execute(command, parts, this);
+        }
 
-                                } else if (command.startsWith("<Quit")) {
+        void disconnected(IOException ioe) {
+            TCPUtils.Log(Level.SEVERE, "MalmoEnv socket error: " + ioe + " (can be on disconnect)");
+            reply.release();
+            try {
+                if (running) {
+                    TCPUtils.Log(Level.INFO,"Want to quit on disconnect.");
+                    setWantToQuit();
+                }
+                channel.close();
+            } catch (IOException ioe2) {
+            }
+        }
 
-                                    quit(command, socket);
+        // Selector mode - read what is available and act on any complete requests.
+        void onReadable() throws IOException {
+            if (channel.read(input) < 0)
+                throw new EOFException("MalmoEnv connection closed");
+            processInput();
+        }
 
-                                } else if (command.startsWith("<Exit")) {
+        // Selector mode - carry on writing a reply which didn't fit in the socket buffer.
+        void onWritable() throws IOException {
+            if (reply.write(channel))
+                onReplySent();
+        }
 
-                                    exit(command, socket);
+        // Selector mode - a request worker has finished with the current request.
+        void onReplyReady() throws IOException {
+            if (failure != null) {
+                IOException ioe = failure;
+                failure = null;
+                throw ioe;
+            }
+            if (reply.write(channel))
+                onReplySent();
+            else
+                key.interestOps(SelectionKey.OP_WRITE);
+        }
 
-                                } else if (command.startsWith("<Close")) {
+        private void onReplySent() throws IOException {
+            reply.release();
+            if (exitAfterReply) {
+                // Stay busy so that nothing more is read from the connection while the service goes down.
+                key.interestOps(0);
+                requestWorkers.execute(new Runnable() {
+                    public void run() {
+                        exitService();
+                    }
+                });
+                return;
+            }
+            busy = false;
+            key.interestOps(SelectionKey.OP_READ);
+            processInput(); // Requests may have been queued up behind the reply.
+        }
 
-                                    close(command, socket);
+        private void processInput() throws IOException {
+            int required = 0;
+            input.flip();
+            try {
+                while (!busy && input.remaining() >= BYTES_INT) {
+                    int hdr = input.getInt(input.position());
+                    if (helloReceived) {
+                        if (hdr < 0 || hdr > MAX_MESSAGE_BYTES)
+                            throw new IOException("Invalid MalmoEnv message length " + hdr);
+                    } else {
+                        checkHelloLength(hdr);
+                    }
+                    if (input.remaining() < BYTES_INT + hdr) {
+                        required = BYTES_INT + hdr;
+                        break;
+                    }
+                    input.getInt();
+                    byte[] data = new byte[hdr];
+                    input.get(data);
+                    onPart(data);
+                }
+            } finally {
+                input.compact();
+            }
+            if (required > input.capacity()) {
+                // Grow the read buffer to fit this (large) message - eg a big MissionInit.
+                ByteBuffer grown = ByteBuffer.allocate(required);
+                input.flip();
+                grown.put(input);
+                input = grown;
+            }
+        }
 
-                                }  else if (command.startsWith("<Status")) {
+        private void onPart(byte[] data) throws IOException {
+            if (!helloReceived) {
+                checkHello(data);
+                helloReceived = true;
+                return;
+            }
+            if (command == null) {
+                command = new String(data, utf8);
+                handler = lookupCommand(command);
+                parts = new byte[handler.extraParts(command)][];
+                partsRead = 0;
+            } else {
+                parts[partsRead++] = data;
+            }
+            if (partsRead < parts.length)
+                return;
+
+            // Hand the request over to a worker, and stop reading until its reply has been written.
+            final EnvCommand thisHandler = handler;
+            final String thisCommand = command;
+            final byte[][] thisParts = parts;
+            command = null;
+            busy = true;
+            key.interestOps(0);
+            requestWorkers.execute(new Runnable() {
+                public void run() {
+                    try {
+                        execute(thisHandler, thisCommand, thisParts);
+                    } catch (IOException ioe) {
+                        failure = ioe;
+                    } catch (RuntimeException e) {
+                        failure = new IOException("MalmoEnv request failed: " + e);
+                    }
+                    loop.replyReady(EnvConnection.this);
+                }
+            });
+        }
+    }
+
+    /**
+     * Selector mode event loop. Each loop services its share of the connections, reading requests into per-connection
+     * buffers, passing them to the request workers and writing the replies without blocking.
+     */
+    private class EnvEventLoop implements Runnable {
+        private final Selector selector;
+        private final ConcurrentLinkedQueue<SocketChannel> newChannels = new ConcurrentLinkedQueue<SocketChannel>();
+        private final ConcurrentLinkedQueue<EnvConnection> readyReplies = new ConcurrentLinkedQueue<EnvConnection>();
 
-                                    status(command, socket);
+        EnvEventLoop() throws IOException {
+            selector = Selector.open();
+        }
 
-                                } else if (command.startsWith("<Echo")) {
-                                    command = "<Echo>" + command + "</Echo>";
-                                    data = command.getBytes(utf8);
-                                    hdr = data.length;
+        void register(SocketChannel channel) {
+            newChannels.add(channel);
+            selector.wakeup();
+        }
 
-                                    DataOutputStream dout = new DataOutputStream(socket.getOutputStream());
-                                    dout.writeInt(hdr);
-                                    dout.write(data, 0, hdr);
-                                    dout.flush();
-                                } else {
-                                    throw new IOException("Unknown env service command");
-                                }
-                            }
-                        } catch (IOException ioe) {
-                            TCPUtils.Log(Level.SEVERE, "MalmoEnv socket error: " + ioe + " (can be on disconnect)");
-                            try {
-                                if (running) {
-                                    TCPUtils.Log(Level.INFO,"Want to quit on disconnect.");
-                                    setWantToQuit();
-                                }
-                                socket.close();
-                            } catch (IOException ioe2) {
-                            }
-                        }
+        // Called by a request worker once the connection's reply has been built.
+        void replyReady(EnvConnection connection) {
+            readyReplies.add(connection);
+            selector.wakeup();
+        }
+
+        public void run() {
+            while (true) {
+                try {
+                    selector.select();
+                } catch (IOException ioe) {
+                    TCPUtils.Log(Level.SEVERE, "MalmoEnv selector error: " + ioe);
+                    continue;
+                }
+
+                SocketChannel channel;
+                while ((channel = newChannels.poll()) != null) {
+                    EnvConnection connection = new EnvConnection(channel);
+                    try {
+                        channel.configureBlocking(false);
+                        connection.loop = this;
+                        connection.input = ByteBuffer.allocate(INPUT_BUFFER_BYTES);
+                        connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+                    } catch (IOException ioe) {
+                        connection.disconnected(ioe);
                     }
-                };
-                thread.start();
-            } catch (IOException ioe) {
-                TCPUtils.Log(Level.SEVERE, "MalmoEnv service exits on " + ioe);
+                }
+
+                EnvConnection ready;
+                while ((ready = readyReplies.poll()) != null) {
+                    try {
+                        ready.onReplyReady();
+                    } catch (IOException ioe) {
+                        ready.key.cancel();
+                        ready.disconnected(ioe);
+                    } catch (CancelledKeyException cke) {
+                        ready.disconnected(new IOException(cke.toString()));
+                    }
+                }
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    EnvConnection connection = (EnvConnection) key.attachment();
+                    try {
+                        if (key.isValid() && key.isWritable())
+                            connection.onWritable();
+                        if (key.isValid() && key.isReadable())
+                            connection.onReadable();
+                    } catch (IOException ioe) {
+                        key.cancel();
+                        connection.disconnected(ioe);
+                    } catch (CancelledKeyException cke) {
+                        connection.disconnected(new IOException(cke.toString()));
+                    }
+                }
             }
         }
     }
 
-    private void checkHello(Socket socket) throws IOException {
-        DataInputStream din = new DataInputStream(socket.getInputStream());
-        int hdr = din.readInt();
-        if (hdr <= 0 || hdr > hello.length() + 8) // Version number may be somewhat longer in future.
-            throw new IOException("Invalid MalmoEnv hello header length");
-        byte[] data = new byte[hdr];
-        din.readFully(data);
-        if (!new String(data).startsWith(hello + version))
-            throw new IOException("MalmoEnv invalid protocol or version - expected " + hello + version);
-    }
-
     // Handler for <MissionInit> messages.
-    private boolean missionInit(DataInputStream din, String command, Socket socket) throws IOException {
-
-        String ipOriginator = socket.getInetAddress().getHostName();
+    private boolean missionInit(String command, byte[] data, String ipOriginator, EnvReply reply) throws IOException {
 
-        int hdr;
-        byte[] data;
-        hdr = din.readInt();
-        data = new byte[hdr];
-        din.readFully(data);
         String id = new String(data, utf8);
 
         TCPUtils.Log(Level.INFO,"Mission Init" + id);
@@ -262,11 +643,8 @@ public class MalmoEnvServer implements IWantToQuit {
                 // Check that all previous tokens have been consumed. If not don't proceed to mission.
 
                 allTokensConsumed = areAllTokensConsumed(experimentId, reset, agentCount);
-                if (!allTokensConsumed) {
-                    try {
-                        cond.await(COND_WAIT_SECONDS, TimeUnit.SECONDS);
-                    } catch (InterruptedException ie) {
-                    }
+                long deadline = waitDeadline();
+                while (!allTokensConsumed && awaitUntil(tokenCond, deadline)) {
                     allTokensConsumed = areAllTokensConsumed(experimentId, reset, agentCount);
                 }
             } else {
@@ -278,15 +656,11 @@ public class MalmoEnvServer implements IWantToQuit {
             lock.unlock();
         }
 
-        DataOutputStream dout = new DataOutputStream(socket.getOutputStream());
-        dout.writeInt(BYTES_INT);
-        dout.writeInt(allTokensConsumed && started ? 1 : 0);
-        dout.flush();
+        reply.putInt(BYTES_INT);
+        reply.putInt(allTokensConsumed && started ? 1 : 0);
 
         byte[] turnKey = "".getBytes();
-        dout.writeInt(turnKey.length);
-        dout.write(turnKey);
-        dout.flush();
+        reply.putMessage(turnKey);
 
         return allTokensConsumed && started;
     }
@@ -308,8 +682,13 @@ public class MalmoEnvServer implements IWantToQuit {
         // Clear out mission state
         envState.reward = 0.0;
         envState.commands.clear();
-        envState.obs = null;
+        if (envState.obs != null) {
+            envState.obs.release();
+            envState.obs = null;
+        }
         envState.info = "";
+        envState.pendingInfo = null;
+        envState.infoEncoder = null;
 
         envState.missionInit = command;
         envState.done = false;
@@ -355,29 +734,131 @@ public class MalmoEnvServer implements IWantToQuit {
 
     private static final int stepTagLength = "<Step_>".length(); // Step with option code.
 
+    private static int stepOptions(String command) {
+        return Character.getNumericValue(command.charAt(stepTagLength - 2));
+    }
+
     // Handler for <Step_> messages. Single digit option code after _ specifies if turnkey and info are included in message.
-    private void step(String command, Socket socket, DataInputStream din) throws IOException {
+    private void step(String command, byte[] stepTurnKey, EnvReply reply) throws IOException {
 
         String actions = command.substring(stepTagLength, command.length() - (stepTagLength + 2));
-        int options =  Character.getNumericValue(command.charAt(stepTagLength - 2));
+        int options = stepOptions(command);
         boolean withTurnkey = options < 2;
         boolean withInfo = options == 0 || options == 2;
         // TCPUtils.Log(Level.FINE,"Command (step action): " + actionCommand + " options " + options);
 
-        byte[] stepTurnKey;
+        StepResult result = stepOnce(actions, stepTurnKey, withInfo);
+
+        reply.putFrame(result.obs);
+
+        reply.putInt(BYTES_DOUBLE + 2);
+        reply.putDouble(result.reward);
+        reply.putByte(result.done ? 1 : 0);
+        reply.putByte(result.sent ? 1 : 0);
+
+        if (withInfo) {
+            reply.putMessage(result.info.getBytes(utf8));
+        }
+
         if (withTurnkey) {
-            int hdr;
-            hdr = din.readInt();
-            stepTurnKey = new byte[hdr];
-            din.readFully(stepTurnKey);
-        } else {
-            stepTurnKey = new byte[0];
+            reply.putMessage(result.nextTurnKey);
+        }
+    }
+
+    private static final int stepNTagLength = "<StepN_>".length(); // Batched step with option code.
+    static final int MAX_STEPN_ACTIONS = 1024;
+
+    // The action count from a <StepN_>count frames</StepN_ > message.
+    private static int stepNCount(String command) throws IOException {
+        String[] args = command.substring(stepNTagLength, command.length() - (stepNTagLength + 2)).trim().split(" ");
+        int count;
+        try {
+            count = Integer.parseInt(args[0]);
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid StepN action count");
         }
+        if (count < 1 || count > MAX_STEPN_ACTIONS)
+            throw new IOException("Invalid StepN action count " + count);
+        return count;
+    }
+
+    // Whether a <StepN_> message asks for every frame (1) or only the last (0).
+    private static boolean stepNAllFrames(String command) {
+        String[] args = command.substring(stepNTagLength, command.length() - (stepNTagLength + 2)).trim().split(" ");
+        return args.length > 1 && args[1].equals("1");
+    }
+
+    // Handler for <StepN_> messages - a batch of steps (eg for frame skip or macro actions) in one round trip.
+    // The option code is as for <Step_>. The actions follow as separate parts, then the turn key if required.
+    // Each action is stepped in turn as if sent by its own <Step_> message, stopping early if the mission is done
+    // or an action could not be sent. The reply is the number of frames, the frames (all or just the last),
+    // the summed reward, done, sent and the number of actions sent, then the latest info and turn key as for <Step_>.
+    private void stepN(String command, byte[][] parts, EnvReply reply) throws IOException {
 
-        DataOutputStream dout = new DataOutputStream(socket.getOutputStream());
+        int options = Character.getNumericValue(command.charAt(stepNTagLength - 2));
+        boolean withTurnkey = options < 2;
+        boolean withInfo = options == 0 || options == 2;
+        int count = stepNCount(command);
+        boolean allFrames = stepNAllFrames(command);
+        byte[] stepTurnKey = withTurnkey ? parts[count] : new byte[0];
+
+        ArrayList<FrameBufferPool.PooledFrame> frames = new ArrayList<FrameBufferPool.PooledFrame>();
         double reward = 0.0;
+        int stepsSent = 0;
+        StepResult result = null;
+        for (int i = 0; i < count; i++) {
+            result = stepOnce(new String(parts[i], utf8), stepTurnKey, withInfo);
+            reward += result.reward;
+            if (result.obs != null) {
+                if (!allFrames) {
+                    for (FrameBufferPool.PooledFrame frame : frames)
+                        frame.release();
+                    frames.clear();
+                }
+                frames.add(result.obs);
+            }
+            if (result.sent)
+                stepsSent++;
+            if (result.done || !result.sent)
+                break;
+        }
+
+        reply.putInt(BYTES_INT);
+        reply.putInt(frames.size());
+        for (FrameBufferPool.PooledFrame frame : frames)
+            reply.putFrame(frame);
+
+        reply.putInt(BYTES_DOUBLE + 2 + BYTES_INT);
+        reply.putDouble(reward);
+        reply.putByte(result.done ? 1 : 0);
+        reply.putByte(stepsSent > 0 ? 1 : 0);
+        reply.putInt(stepsSent);
+
+        if (withInfo) {
+            reply.putMessage(result.info.getBytes(utf8));
+        }
+
+        if (withTurnkey) {
+            reply.putMessage(result.nextTurnKey);
+        }
+    }
+
+    /** The outcome of a single step. The caller owns the reference to obs (if any). */
+    private static class StepResult {
+        FrameBufferPool.PooledFrame obs;
+        double reward;
         boolean done;
-        byte[] obs;
+        boolean sent;
+        String info;
+        byte[] nextTurnKey;
+    }
+
+    // Submit the actions if it's our turn and there is an observation, and pick up the results.
+    private StepResult stepOnce(String actions, byte[] stepTurnKey, boolean withInfo) {
+
+        double reward = 0.0;
+        boolean done;
+        FrameBufferPool.PooledFrame obs;
         String info = "";
         byte[] currentTurnKey;
         byte[] nextTurnKey;
@@ -396,7 +877,7 @@ public class MalmoEnvServer implements IWantToQuit {
             boolean outOfTurn = true;
             nextTurnKey = currentTurnKey;
 
-            if (!done && obs.length > 0 && actions != "") {
+            if (!done && obs != null && actions != "") {
                 // CurrentKey   StepKey     Action (WithKey)    nextTurnKey     outOfTurn
                 // ""           ""          Y                   Current         N
                 // ""           X           N                   Step            Y
@@ -435,58 +916,54 @@ public class MalmoEnvServer implements IWantToQuit {
                 }
             }
 
-            if (done || (obs.length > 0 && !outOfTurn)) {
+            if (done || (obs != null && !outOfTurn)) {
                 // Pick up rewards.
                 reward = envState.reward;
                 envState.reward = 0.0;
                 if (withInfo) {
-                    info = envState.info;
-                    envState.info = "";
+                    info = takeInfo();
                     if (info.isEmpty() && !done) {
-                        try {
-                            cond.await(COND_WAIT_SECONDS, TimeUnit.SECONDS);
-                        } catch (InterruptedException ie) {
+                        // Wait for the observation from the tick our action was applied in...
+                        long deadline = waitDeadline();
+                        while (!hasInfo() && !envState.done && awaitUntil(infoCond, deadline)) {
+                        }
+                        info = takeInfo();
+                        // ...and then for the frame rendered after that tick, so that the frame matches the observation.
+                        long infoFrameSeq = envState.infoFrameSeq;
+                        while (!info.isEmpty() && envState.obsSeq <= infoFrameSeq && !envState.done && awaitUntil(frameCond, deadline)) {
                         }
-                        info = envState.info;
-                        envState.info = "";
                         if (envState.obs != null && envState.obs != obs) {
                             // Later observation.
+                            if (obs != null)
+                                obs.release();
                             obs = envState.obs;
+                            obs.retain();
                         }
                     }
                 }
-                envState.obs = null;
+                if (envState.obs != null) {
+                    envState.obs.release();
+                    envState.obs = null;
+                }
             }
         } finally {
             lock.unlock();
         }
 
-        dout.writeInt(obs.length);
-        dout.write(obs);
-
-        dout.writeInt(BYTES_DOUBLE + 2);
-        dout.writeDouble(reward);
-        dout.writeByte(done ? 1 : 0);
-        dout.writeByte(sent ? 1 : 0);
-
-        if (withInfo) {
-            byte[] infoBytes = info.getBytes(utf8);
-            dout.writeInt(infoBytes.length);
-            dout.write(infoBytes);
-        }
-
-        if (withTurnkey) {
-            dout.writeInt(nextTurnKey.length);
-            dout.write(nextTurnKey);
-        }
-        dout.flush();
+        StepResult result = new StepResult();
+        result.obs = obs;
+        result.reward = reward;
+        result.done = done;
+        result.sent = sent;
+        result.info = info;
+        result.nextTurnKey = nextTurnKey;
+        return result;
     }
 
     // Handler for <Peek> messages.
-    private void peek(String command, Socket socket, DataInputStream din) throws IOException {
+    private void peek(String command, EnvReply reply) throws IOException {
 
-        DataOutputStream dout = new DataOutputStream(socket.getOutputStream());
-        byte[] obs;
+        FrameBufferPool.PooledFrame obs;
         boolean done;
 
         lock.lock();
@@ -497,36 +974,51 @@ public class MalmoEnvServer implements IWantToQuit {
             lock.unlock();
         }
 
-        dout.writeInt(obs.length);
-        dout.write(obs);
-
-        dout.writeInt(1);
-        dout.writeByte(done ? 1 : 0);
+        reply.putFrame(obs);
 
-        dout.flush();
+        reply.putInt(1);
+        reply.putByte(done ? 1 : 0);
     }
 
     // Get the current observation. If none and not done wait for a short time.
-    private byte[] getObservation(boolean done) {
-        byte[] obs = envState.obs;
+    // The frame returned (if any) has been retained for the caller, who must release it.
+    private FrameBufferPool.PooledFrame getObservation(boolean done) {
+        FrameBufferPool.PooledFrame obs = envState.obs;
         if (obs == null && !done) {
-            try {
-                cond.await(COND_WAIT_SECONDS, TimeUnit.SECONDS);
-            } catch (InterruptedException ie) {
+            long deadline = waitDeadline();
+            while (envState.obs == null && !envState.done && awaitUntil(frameCond, deadline)) {
             }
             obs = envState.obs;
         }
-        if (obs == null) {
-            obs = new byte[0];
+        if (obs != null) {
+            obs.retain();
         }
         return obs;
     }
 
+    private static long waitDeadline() {
+        return System.nanoTime() + TimeUnit.SECONDS.toNanos(COND_WAIT_SECONDS);
+    }
+
+    // Wait on the condition until signalled or the deadline passes. Returns false if the deadline has passed,
+    // otherwise the caller should re-check what it is waiting for (and wait again if need be).
+    private static boolean awaitUntil(Condition condition, long deadline) {
+        long remaining = deadline - System.nanoTime();
+        if (remaining <= 0)
+            return false;
+        try {
+            condition.awaitNanos(remaining);
+        } catch (InterruptedException ie) {
+            return false;
+        }
+        return true;
+    }
+
     // Handler for <Find> messages - used by non-zero roles to discover integrated server port from primary (role 0) service.
 
     private final static int findTagLength = "<Find>".length();
 
-    private void find(String command, Socket socket) throws IOException {
+    private void find(String command, EnvReply reply) throws IOException {
 
         Integer port;
         lock.lock();
@@ -542,16 +1034,15 @@ public class MalmoEnvServer implements IWantToQuit {
 
             String previousToken = experimentId + ":" + role + ":" + (reset - 1);
             initTokens.remove(previousToken);
-            cond.signalAll();
+            tokenCond.signalAll();
 
             // Check for next token. Wait for a short time if not already produced.
             port = initTokens.get(token);
             if (port == null) {
-                try {
-                    cond.await(COND_WAIT_SECONDS, TimeUnit.SECONDS);
-                } catch (InterruptedException ie) {
+                long deadline = waitDeadline();
+                while (port == null && awaitUntil(tokenCond, deadline)) {
+                    port = initTokens.get(token);
                 }
-                port = initTokens.get(token);
                 if (port == null) {
                     port = 0;
                     TCPUtils.Log(Level.INFO,"Role " + role + " reset " + reset + " waiting for token.");
@@ -561,37 +1052,31 @@ public class MalmoEnvServer implements IWantToQuit {
             lock.unlock();
         }
 
-        DataOutputStream dout = new DataOutputStream(socket.getOutputStream());
-        dout.writeInt(BYTES_INT);
-        dout.writeInt(port);
-        dout.flush();
+        reply.putInt(BYTES_INT);
+        reply.putInt(port);
     }
 
     // Handler for <Init> messages. These reset the service so use with care!
-    private void init(String command, Socket socket) throws IOException {
+    private void init(String command, EnvReply reply) throws IOException {
         lock.lock();
         try {
             initTokens = new Hashtable<String, Integer>();
 
-            DataOutputStream dout = new DataOutputStream(socket.getOutputStream());
-            dout.writeInt(BYTES_INT);
-            dout.writeInt(1);
-            dout.flush();
+            reply.putInt(BYTES_INT);
+            reply.putInt(1);
         } finally {
             lock.unlock();
         }
     }
 
     // Handler for <Quit> (quit mission) messages.
-    private void quit(String command, Socket socket) throws IOException {
+    private void quit(String command, EnvReply reply) throws IOException {
         lock.lock();
         try {
             if (!envState.done)
                 envState.quit = true;
-            DataOutputStream dout = new DataOutputStream(socket.getOutputStream());
-            dout.writeInt(BYTES_INT);
-            dout.writeInt(envState.done ? 1 : 0);
-            dout.flush();
+            reply.putInt(BYTES_INT);
+            reply.putInt(envState.done ? 1 : 0);
         } finally {
             lock.unlock();
         }
@@ -600,52 +1085,44 @@ public class MalmoEnvServer implements IWantToQuit {
     private final static int closeTagLength = "<Close>".length();
 
     // Handler for <Close> messages.
-    private void close(String command, Socket socket) throws IOException {
+    private void close(String command, EnvReply reply) throws IOException {
         lock.lock();
         try {
             String token = command.substring(closeTagLength, command.length() - (closeTagLength + 1));
 
             initTokens.remove(token);
 
-            DataOutputStream dout = new DataOutputStream(socket.getOutputStream());
-            dout.writeInt(BYTES_INT);
-            dout.writeInt(1);
-            dout.flush();
+            reply.putInt(BYTES_INT);
+            reply.putInt(1);
         } finally {
             lock.unlock();
         }
     }
 
     // Handler for <Status> messages.
-    private void status(String command, Socket socket) throws IOException {
+    private void status(String command, EnvReply reply) throws IOException {
         lock.lock();
         try {
             String status = "{}"; // TODO Possibly have something more interesting to report.
-            DataOutputStream dout = new DataOutputStream(socket.getOutputStream());
 
-            byte[] statusBytes = status.getBytes(utf8);
-            dout.writeInt(statusBytes.length);
-            dout.write(statusBytes);
-
-            dout.flush();
+            reply.putMessage(status.getBytes(utf8));
         } finally {
             lock.unlock();
         }
     }
 
     // Handler for <Exit> messages. These "kill the service" temporarily so use with care!
-    private void exit(String command, Socket socket) throws IOException {
+    // The service exits (see exitService) once the reply has been written.
+    private void exit(String command, EnvConnection connection) throws IOException {
+        connection.reply.putInt(BYTES_INT);
+        connection.reply.putInt(1);
+        connection.exitAfterReply = true;
+    }
+
+    private void exitService() {
         lock.lock();
         try {
-             // We may exit before we get a chance to reply.
-
-            DataOutputStream dout = new DataOutputStream(socket.getOutputStream());
-            dout.writeInt(BYTES_INT);
-            dout.writeInt(1);
-            dout.flush();
-
             ClientStateMachine.exitJava();
-
         } finally {
             lock.unlock();
         }
@@ -666,6 +1143,19 @@ public class MalmoEnvServer implements IWantToQuit {
         }
     }
 
+    // Take all the pending commands, oldest first. Returns the number of commands added to the list.
+    public int drainCommands(List<String> commands) {
+        lock.lock();
+        try {
+            int count = envState.commands.size();
+            commands.addAll(envState.commands);
+            envState.commands.clear();
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
     public void endMission() {
         lock.lock();
         try {
@@ -682,8 +1172,10 @@ public class MalmoEnvServer implements IWantToQuit {
                 envState.agentCount = 0;
                 envState.reset = 0;
 
-                cond.signalAll();
+                tokenCond.signalAll();
             }
+            frameCond.signalAll();
+            infoCond.signalAll();
         } finally {
             lock.unlock();
         }
@@ -702,19 +1194,59 @@ public class MalmoEnvServer implements IWantToQuit {
         }
         lock.lock();
         try {
-            if (!envState.turnKey.equals(turnKey)) {
-                // TCPUtils.Log(Level.FINE,"Update TK: [" + turnKey + "][" + turnKey + "]");
-            }
-            if (!envState.lastTurnKey.equals(turnKey)) {
-                envState.turnKey = turnKey;
-            }
             envState.info = info;
-            cond.signalAll();
+            envState.pendingInfo = null;
+            infoReceived(turnKey);
         } finally {
             lock.unlock();
         }
     }
 
+    // Record a Malmo "observation" for an agent using delta observations. The observation is only delta encoded when the
+    // agent takes it, so that nothing is lost from observations that are replaced before the agent steps.
+    public void observation(JsonObject info, int keyframeInterval) {
+        JsonElement turnKeyElement = info.get("turn_key");
+        String turnKey = turnKeyElement != null && turnKeyElement.isJsonPrimitive() ? turnKeyElement.getAsString() : "";
+        lock.lock();
+        try {
+            if (envState.infoEncoder == null || envState.infoEncoder.getKeyframeInterval() != keyframeInterval)
+                envState.infoEncoder = new ObservationDeltaEncoder(keyframeInterval);
+            envState.info = "";
+            envState.pendingInfo = info;
+            infoReceived(turnKey);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Must hold the lock.
+    private void infoReceived(String turnKey) {
+        if (!envState.turnKey.equals(turnKey)) {
+            // TCPUtils.Log(Level.FINE,"Update TK: [" + turnKey + "][" + turnKey + "]");
+        }
+        if (!envState.lastTurnKey.equals(turnKey)) {
+            envState.turnKey = turnKey;
+        }
+        envState.infoFrameSeq = frameSeq;
+        infoCond.signalAll();
+    }
+
+    // Must hold the lock.
+    private boolean hasInfo() {
+        return !envState.info.isEmpty() || envState.pendingInfo != null;
+    }
+
+    // Take the latest info (if any), delta encoding it if the agent asked for delta observations. Must hold the lock.
+    private String takeInfo() {
+        String info = envState.info;
+        if (envState.pendingInfo != null) {
+            info = envState.infoEncoder.encode(envState.pendingInfo).toString();
+            envState.pendingInfo = null;
+        }
+        envState.info = "";
+        return info;
+    }
+
     public void addRewards(double rewards) {
         lock.lock();
         try {
@@ -724,14 +1256,25 @@ public class MalmoEnvServer implements IWantToQuit {
         }
     }
 
-    public void addFrame(byte[] frame) {
+    // Get an empty frame for the video hook to fill in and pass to addFrame().
+    public FrameBufferPool.PooledFrame acquireFrame(int size) {
+        return framePool.acquire(size);
+    }
+
+    // Takes ownership of the frame.
+    public void addFrame(FrameBufferPool.PooledFrame frame) {
+        FrameBufferPool.PooledFrame previous;
         lock.lock();
         try {
+            previous = envState.obs;
             envState.obs = frame; // Replaces current.
-            cond.signalAll();
+            envState.obsSeq = ++frameSeq;
+            frameCond.signalAll();
         } finally {
             lock.unlock();
         }
+        if (previous != null)
+            previous.release();
     }
 
     public void notifyIntegrationServerStarted(int integrationServerPort) {
@@ -740,7 +1283,7 @@ public class MalmoEnvServer implements IWantToQuit {
             if (envState.token != null) {
                 TCPUtils.Log(Level.INFO,"Integration server start up - token: " + envState.token);
                 addTokens(integrationServerPort, envState.token, envState.experimentId, envState.agentCount, envState.reset);
-                cond.signalAll();
+                tokenCond.signalAll();
             } else {
                 TCPUtils.Log(Level.WARNING,"No mission token on integration server start up!");
             }
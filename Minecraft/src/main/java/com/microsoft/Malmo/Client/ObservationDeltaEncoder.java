@@ -0,0 +1,106 @@
+// --------------------------------------------------------------------------------------------------
+//  Copyright (c) 2016 Microsoft Corporation
+//
+//  Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+//  associated documentation files (the "Software"), to deal in the Software without restriction,
+//  including without limitation the rights to use, copy, modify, merge, publish, distribute,
+//  sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+//  furnished to do so, subject to the following conditions:
+//
+//  The above copyright notice and this permission notice shall be included in all copies or
+//  substantial portions of the Software.
+//
+//  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+//  NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+//  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+//  DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+//  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+// --------------------------------------------------------------------------------------------------
+
+package com.microsoft.Malmo.Client;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+
+/**
+ * Turns a stream of complete JSON observations into deltas - only the top-level entries that have changed since the
+ * last observation sent - with a complete "keyframe" observation every so often.<br>
+ * Entries that have gone away are sent as null. Every observation sent has a "Keyframe" entry saying which kind it is.
+ * The observations passed in must not be modified afterwards, since their elements are kept for comparison.
+ */
+class ObservationDeltaEncoder
+{
+    static final String KEYFRAME_KEY = "Keyframe";
+
+    private final int keyframeInterval;
+    private final Map<String, JsonElement> lastSent = new HashMap<String, JsonElement>();
+    private int sinceKeyframe = 0;
+    private boolean changed = false;
+
+    /**
+     * @param keyframeInterval number of observations to send between keyframes.
+     */
+    ObservationDeltaEncoder(int keyframeInterval)
+    {
+        this.keyframeInterval = Math.max(1, keyframeInterval);
+    }
+
+    int getKeyframeInterval()
+    {
+        return this.keyframeInterval;
+    }
+
+    /** Make the next observation a keyframe (eg if the agent may have missed the previous ones).*/
+    void forceKeyframe()
+    {
+        this.sinceKeyframe = 0;
+    }
+
+    /** Whether the last observation encoded has anything in it for the agent (a keyframe always does).*/
+    boolean hasChanges()
+    {
+        return this.changed;
+    }
+
+    /** Encode the next observation, and remember it as the one last sent.
+     * @param observation the complete observation.
+     * @return the observation to send - either a keyframe or a delta.
+     */
+    JsonObject encode(JsonObject observation)
+    {
+        JsonObject result = new JsonObject();
+        boolean keyframe = (this.sinceKeyframe == 0 || this.sinceKeyframe >= this.keyframeInterval);
+        this.changed = keyframe;
+        for (Map.Entry<String, JsonElement> entry : observation.entrySet())
+        {
+            JsonElement previous = this.lastSent.put(entry.getKey(), entry.getValue());
+            if (keyframe || previous == null || !previous.equals(entry.getValue()))
+            {
+                result.add(entry.getKey(), entry.getValue());
+                this.changed = true;
+            }
+        }
+        Iterator<Map.Entry<String, JsonElement>> it = this.lastSent.entrySet().iterator();
+        while (it.hasNext())
+        {
+            String key = it.next().getKey();
+            if (!observation.has(key))
+            {
+                it.remove();
+                if (!keyframe)
+                {
+                    result.add(key, JsonNull.INSTANCE);
+                    this.changed = true;
+                }
+            }
+        }
+        result.addProperty(KEYFRAME_KEY, keyframe);
+        this.sinceKeyframe = keyframe ? 1 : this.sinceKeyframe + 1;
+        return result;
+    }
+}
@@ -130,6 +130,8 @@ public class VideoHook {
         this.renderHeight = videoProducer.getHeight();
         resizeIfNeeded();
         Display.setResizable(false); // prevent the user from resizing using the window borders
+        if (videoProducer.getFrameLatency() > 0)
+            System.out.println("Asynchronous readback for " + videoProducer.getVideoType() + " frames - latency is " + videoProducer.getFrameLatency() + " frame(s)");
 
         ClientAgentConnection cac = missionInit.getClientAgentConnection();
         if (cac == null)
@@ -200,8 +202,12 @@ public class VideoHook {
         {
             return;
         }
+        int frameLatency = 0;
         if (this.videoProducer != null)
+        {
+            frameLatency = this.videoProducer.getFrameLatency();
             this.videoProducer.cleanup();
+        }
 
         // stop sending video frames
         try
@@ -229,6 +235,7 @@ public class VideoHook {
                 vd.setAverageFpsSent(new BigDecimal(0));
             else
                 vd.setAverageFpsSent(new BigDecimal(1000.0 * this.framesSent / (this.timeOfLastFrame - this.timeOfFirstFrame)));
+            vd.setReadbackLatency(frameLatency);
             diags.getVideoData().add(vd);
         }
     }
@@ -292,14 +299,12 @@ public class VideoHook {
                 success = true;
 
                 if (envServer != null) {
-                    // Write the obs data into a newly allocated buffer:
-                    byte[] data = new byte[size];
-                    this.buffer.clear();
-                    this.videoProducer.getFrame(this.missionInit, this.buffer);
-                    this.buffer.get(data); // Avoiding copy not simple as data is kept & written to a stream later.
+                    // Write the obs data straight into a recycled buffer, and hand ownership of it to the env server:
+                    FrameBufferPool.PooledFrame frame = envServer.acquireFrame(size);
+                    this.videoProducer.getFrame(this.missionInit, frame.getData());
                     time_after_render_ns = System.nanoTime();
 
-                    envServer.addFrame(data);
+                    envServer.addFrame(frame);
                 } else {
                     time_after_render_ns = System.nanoTime();
                 }
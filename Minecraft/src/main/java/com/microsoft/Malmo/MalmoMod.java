@@ -26,18 +26,21 @@ import io.netty.buffer.ByteBufOutputStream;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.ArrayList;
+import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.Hashtable;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import net.minecraft.client.Minecraft;
 import net.minecraft.entity.player.EntityPlayerMP;
 import net.minecraft.server.MinecraftServer;
-import net.minecraft.util.IThreadListener;
-import net.minecraft.world.WorldServer;
+import net.minecraftforge.common.ForgeChunkManager;
+import net.minecraftforge.common.MinecraftForge;
 import net.minecraftforge.common.config.Configuration;
 import net.minecraftforge.fml.common.FMLCommonHandler;
 import net.minecraftforge.fml.common.Loader;
@@ -61,9 +64,13 @@ import com.microsoft.Malmo.Client.MalmoModClient;
 import com.microsoft.Malmo.Schemas.MissionInit;
 import com.microsoft.Malmo.Server.MalmoModServer;
 import com.microsoft.Malmo.Utils.AddressHelper;
+import com.microsoft.Malmo.Utils.ChunkPreloadHelper;
+import com.microsoft.Malmo.Utils.MessageDispatcher;
+import com.microsoft.Malmo.Utils.MinecraftTypeHelper;
 import com.microsoft.Malmo.Utils.ScoreHelper;
 import com.microsoft.Malmo.Utils.SchemaHelper;
 import com.microsoft.Malmo.Utils.ScreenHelper;
+import com.microsoft.Malmo.Utils.TCPInputPoller;
 import com.microsoft.Malmo.Utils.TCPUtils;
 import com.microsoft.Malmo.Client.MalmoEnvServer;
 
@@ -117,12 +124,14 @@ public class MalmoMod
         this.permanentConfig.load();
 
         AddressHelper.update(this.sessionConfig);
+        TCPInputPoller.update(this.sessionConfig);
         ScoreHelper.update(this.sessionConfig);
         ScreenHelper.update(this.permanentConfig);
         TCPUtils.update(this.permanentConfig);
         MalmoEnvServer.update(this.sessionConfig);
 
         network = NetworkRegistry.INSTANCE.newSimpleChannel("Malmo");
+        MinecraftForge.EVENT_BUS.register(new MessageDispatcher());
         network.registerMessage(ObservationFromFullStatsImplementation.FullStatsRequestMessageHandler.class, ObservationFromFullStatsImplementation.FullStatsRequestMessage.class, 1, Side.SERVER);
         network.registerMessage(ObservationFromGridImplementation.GridRequestMessageHandler.class, ObservationFromGridImplementation.GridRequestMessage.class, 2, Side.SERVER);
         network.registerMessage(MalmoMessageHandler.class, MalmoMessage.class, 3, Side.CLIENT);	// Malmo messages from server to client
@@ -137,6 +146,11 @@ public class MalmoMod
         network.registerMessage(ObservationFromFullInventoryImplementation.InventoryRequestMessageHandler.class, ObservationFromFullInventoryImplementation.InventoryRequestMessage.class, 10, Side.SERVER);
         network.registerMessage(InventoryCommandsImplementation.InventoryChangeMessageHandler.class, InventoryCommandsImplementation.InventoryChangeMessage.class, 11, Side.CLIENT);
         network.registerMessage(ObservationFromSystemImplementation.SystemRequestMessageHandler.class, ObservationFromSystemImplementation.SystemRequestMessage.class, 12, Side.SERVER);
+        network.registerMessage(ObservationFromServer.ObservationsReadyMessageHandler.class, ObservationFromServer.ObservationsReadyMessage.class, 15, Side.CLIENT);	// Observation data from server to client
+        network.registerMessage(MalmoTypedMessageHandler.class, MalmoTypedMessage.class, 16, Side.CLIENT);	// Typed Malmo messages from server to client
+        network.registerMessage(MalmoTypedMessageHandler.class, MalmoTypedMessage.class, 17, Side.SERVER);	// Typed Malmo messages from client to server
+        network.registerMessage(ObservationFromServer.ObservationsPushMessageHandler.class, ObservationFromServer.ObservationsPushMessage.class, 18, Side.CLIENT);	// Subscribed observation data from server to client
+        MinecraftForge.EVENT_BUS.register(new ObservationFromServer.ObservationPusher());
     }
 
     @EventHandler
@@ -170,6 +184,9 @@ public class MalmoMod
     @EventHandler
     public void init(FMLInitializationEvent event)
     {
+        ForgeChunkManager.setForcedChunkLoadingCallback(this, new ChunkPreloadHelper.TicketCallback());
+        MinecraftForge.EVENT_BUS.register(new ChunkPreloadHelper.WorldUnloadListener());
+        MinecraftTypeHelper.buildTranslationTables();
         if (event.getSide().isClient())
         {
             this.client = new MalmoModClient();
@@ -234,7 +251,7 @@ public class MalmoMod
     /** General purpose messaging class<br>
      * Used to pass messages from the server to the client.
      */
-    static public class MalmoMessage implements IMessage
+    static public class MalmoMessage implements IMessage, MessageDispatcher.IQueuedMessage
     {
         private MalmoMessageType messageType = MalmoMessageType.SERVER_NULLMESSASGE;
         private int uid = 0;
@@ -267,6 +284,23 @@ public class MalmoMod
             this.data = data;
         }
 
+        public MalmoMessageType getMessageType()
+        {
+            return this.messageType;
+        }
+
+        @Override
+        public void deliver()
+        {
+            MalmoMessageHandler.deliver(this);
+        }
+
+        /** @return the message content as a map of strings, as passed to IMalmoMessageListener.onMessage().*/
+        public Map<String, String> getData()
+        {
+            return this.data;
+        }
+
         /** Read a UTF8 string that could potentially be larger than 64k<br>
          * The ByteBufInputStream.readUTF() and writeUTF() calls use the first two bytes of the message
          * to encode the length of the string, which limits the string length to 64k.
@@ -378,71 +412,313 @@ public class MalmoMod
         }
     }
 
+    /** Typed alternative to MalmoMessage, for the messages which get sent frequently during a mission (shared rewards,
+     * turn scheduling and build battle rewards).<br>
+     * Rather than a map of strings, each message type has a fixed layout of varints, floats and strings, written straight
+     * into the packet buffer, so nothing has to be stringified by the sender and parsed again by the receiver.
+     * Listeners which implement IMalmoTypedMessageListener get the message as it is; other listeners are given the same
+     * map as the equivalent MalmoMessage would have carried.<br>
+     * Message types without a fixed layout must still be sent as a MalmoMessage.
+     */
+    static public class MalmoTypedMessage extends MalmoMessage
+    {
+        private int dimension = 0;
+        private float reward = 0;
+        private Map<String, Float> shares = new LinkedHashMap<String, Float>();
+        private String agentName = "";
+        private boolean completed = false;
+        private Map<String, String> dataAsStrings = null;
+
+        public MalmoTypedMessage()
+        {
+        }
+
+        /** Copy constructor - each client must be sent its own message object.*/
+        public MalmoTypedMessage(MalmoTypedMessage other)
+        {
+            super(other.getMessageType(), 0, null);
+            this.dimension = other.dimension;
+            this.reward = other.reward;
+            this.shares = new LinkedHashMap<String, Float>(other.shares);
+            this.agentName = other.agentName;
+            this.completed = other.completed;
+        }
+
+        private MalmoTypedMessage(MalmoMessageType messageType)
+        {
+            super(messageType, 0, null);
+            if (!hasLayout(messageType))
+                throw new IllegalArgumentException("No typed layout for " + messageType);
+        }
+
+        /** @return true if messages of this type can be sent as a MalmoTypedMessage.*/
+        public static boolean hasLayout(MalmoMessageType messageType)
+        {
+            switch (messageType)
+            {
+            case CLIENT_SHARE_REWARD:
+            case SERVER_SHARE_REWARD:
+            case CLIENT_TURN_TAKEN:
+            case SERVER_YOUR_TURN:
+            case SERVER_BUILDBATTLEREWARD:
+                return true;
+            default:
+                return false;
+            }
+        }
+
+        /** A reward to be shared between agents.
+         * @param messageType CLIENT_SHARE_REWARD or SERVER_SHARE_REWARD
+         * @param dimension the reward dimension
+         * @param reward the reward before scaling
+         * @param shares map from agent name to that agent's scale factor
+         */
+        public static MalmoTypedMessage shareReward(MalmoMessageType messageType, int dimension, float reward, Map<String, Float> shares)
+        {
+            MalmoTypedMessage message = new MalmoTypedMessage(messageType);
+            message.dimension = dimension;
+            message.reward = reward;
+            message.shares.putAll(shares);
+            return message;
+        }
+
+        /** A client telling the server turn scheduler that the named agent has taken its turn.*/
+        public static MalmoTypedMessage turnTaken(String agentName)
+        {
+            MalmoTypedMessage message = new MalmoTypedMessage(MalmoMessageType.CLIENT_TURN_TAKEN);
+            message.agentName = agentName;
+            return message;
+        }
+
+        /** The server turn scheduler telling a client that it's their go.*/
+        public static MalmoTypedMessage yourTurn()
+        {
+            return new MalmoTypedMessage(MalmoMessageType.SERVER_YOUR_TURN);
+        }
+
+        /** The build battle decorator reporting a reward.*/
+        public static MalmoTypedMessage buildBattleReward(int reward, boolean completed)
+        {
+            MalmoTypedMessage message = new MalmoTypedMessage(MalmoMessageType.SERVER_BUILDBATTLEREWARD);
+            message.reward = reward;
+            message.completed = completed;
+            return message;
+        }
+
+        public int getDimension() { return this.dimension; }
+        public float getReward() { return this.reward; }
+        public Map<String, Float> getShares() { return this.shares; }
+        public String getAgentName() { return this.agentName; }
+        public boolean isCompleted() { return this.completed; }
+
+        @Override
+        public Map<String, String> getData()
+        {
+            // Only built if there's a listener which wants strings:
+            if (this.dataAsStrings == null)
+            {
+                Map<String, String> map = new HashMap<String, String>();
+                switch (getMessageType())
+                {
+                case CLIENT_SHARE_REWARD:
+                case SERVER_SHARE_REWARD:
+                    for (Entry<String, Float> e : this.shares.entrySet())
+                        map.put(e.getKey(), e.getValue().toString());
+                    map.put("original_reward", Float.toString(this.reward));
+                    map.put("dimension", Integer.toString(this.dimension));
+                    break;
+                case CLIENT_TURN_TAKEN:
+                    map.put("agentname", this.agentName);
+                    break;
+                case SERVER_BUILDBATTLEREWARD:
+                    map.put("reward", Integer.toString((int)this.reward));
+                    map.put("completed", Boolean.toString(this.completed));
+                    break;
+                default:
+                    break;
+                }
+                this.dataAsStrings = map;
+            }
+            return this.dataAsStrings;
+        }
+
+        @Override
+        public void fromBytes(ByteBuf buf)
+        {
+            int i = ByteBufUtils.readVarInt(buf, 1);	// Read message type from first byte.
+            MalmoMessageType messageType = (i >= 0 && i < MalmoMessageType.values().length) ? MalmoMessageType.values()[i] : MalmoMessageType.SERVER_NULLMESSASGE;
+            super.messageType = messageType;
+            switch (messageType)
+            {
+            case CLIENT_SHARE_REWARD:
+            case SERVER_SHARE_REWARD:
+                this.dimension = ByteBufUtils.readVarInt(buf, 5);
+                this.reward = buf.readFloat();
+                int count = ByteBufUtils.readVarInt(buf, 5);
+                for (i = 0; i < count; i++)
+                {
+                    String name = ByteBufUtils.readUTF8String(buf);
+                    this.shares.put(name, buf.readFloat());
+                }
+                break;
+            case CLIENT_TURN_TAKEN:
+                this.agentName = ByteBufUtils.readUTF8String(buf);
+                break;
+            case SERVER_BUILDBATTLEREWARD:
+                this.reward = ByteBufUtils.readVarInt(buf, 5);
+                this.completed = buf.readBoolean();
+                break;
+            default:
+                break;  // No content.
+            }
+        }
+
+        @Override
+        public void toBytes(ByteBuf buf)
+        {
+            ByteBufUtils.writeVarInt(buf, getMessageType().ordinal(), 1);	// First byte is the message type.
+            switch (getMessageType())
+            {
+            case CLIENT_SHARE_REWARD:
+            case SERVER_SHARE_REWARD:
+                ByteBufUtils.writeVarInt(buf, this.dimension, 5);
+                buf.writeFloat(this.reward);
+                ByteBufUtils.writeVarInt(buf, this.shares.size(), 5);
+                for (Entry<String, Float> e : this.shares.entrySet())
+                {
+                    ByteBufUtils.writeUTF8String(buf, e.getKey());
+                    buf.writeFloat(e.getValue());
+                }
+                break;
+            case CLIENT_TURN_TAKEN:
+                ByteBufUtils.writeUTF8String(buf, this.agentName);
+                break;
+            case SERVER_BUILDBATTLEREWARD:
+                ByteBufUtils.writeVarInt(buf, (int)this.reward, 5);
+                buf.writeBoolean(this.completed);
+                break;
+            default:
+                break;  // No content.
+            }
+        }
+    }
+
     public interface IMalmoMessageListener
     {
         void onMessage(MalmoMessageType messageType, Map<String, String> data);
     }
 
+    /** Listeners which implement this will be given MalmoTypedMessages as they are, rather than as a map of strings.
+     * Messages which arrive as a plain MalmoMessage still go to onMessage().
+     */
+    public interface IMalmoTypedMessageListener extends IMalmoMessageListener
+    {
+        void onTypedMessage(MalmoTypedMessage message);
+    }
+
     /** Handler for messages from the server to the clients. Register with this to receive specific messages.
     */
     public static class MalmoMessageHandler implements IMessageHandler<MalmoMessage, IMessage>
     {
-        static private Map<MalmoMessageType, List<IMalmoMessageListener>> listeners = new HashMap<MalmoMessageType, List<IMalmoMessageListener>>();
+        /** The listeners for one message type, along with an index of them by uid (see MalmoMessage).*/
+        private static class Registrations
+        {
+            final List<IMalmoMessageListener> all = new CopyOnWriteArrayList<IMalmoMessageListener>();
+            final Map<Integer, IMalmoMessageListener> byUid = new ConcurrentHashMap<Integer, IMalmoMessageListener>();
+        }
+
+        // Filled in once, here, so only the Registrations themselves change after this - and they are safe to use from any thread.
+        static private final Map<MalmoMessageType, Registrations> listeners = new EnumMap<MalmoMessageType, Registrations>(MalmoMessageType.class);
+        static
+        {
+            for (MalmoMessageType messageType : MalmoMessageType.values())
+                listeners.put(messageType, new Registrations());
+        }
+
         public MalmoMessageHandler()
         {
         }
 
         public static boolean registerForMessage(IMalmoMessageListener listener, MalmoMessageType messageType)
         {
-            if (!listeners.containsKey(messageType))
-                listeners.put(messageType,  new ArrayList<IMalmoMessageListener>());
-
-            if (listeners.get(messageType).contains(listener))
+            Registrations registrations = listeners.get(messageType);
+            if (!registrations.all.addIfAbsent(listener))
                 return false;	// Already registered.
 
-            listeners.get(messageType).add(listener);
+            registrations.byUid.put(System.identityHashCode(listener), listener);
             return true;
         }
 
         public static boolean deregisterForMessage(IMalmoMessageListener listener, MalmoMessageType messageType)
         {
-            if (!listeners.containsKey(messageType))
+            Registrations registrations = listeners.get(messageType);
+            if (!registrations.all.remove(listener))
                 return false;	// Not registered.
 
-            return listeners.get(messageType).remove(listener);	// Will return false if not present.
+            registrations.byUid.remove(System.identityHashCode(listener), listener);
+            return true;
         }
 
         @Override
         public IMessage onMessage(final MalmoMessage message, final MessageContext ctx)
         {
-            final List<IMalmoMessageListener> interestedParties = listeners.get(message.messageType);
-            if (interestedParties != null && interestedParties.size() > 0)
+            dispatch(message, ctx);
+            return null; // no response in this case
+        }
+
+        static void dispatch(MalmoMessage message, MessageContext ctx)
+        {
+            // Hand over to the main thread, unless no-one is listening:
+            if (!listeners.get(message.messageType).all.isEmpty())
+                MessageDispatcher.enqueue(ctx.side, message);
+        }
+
+        /** Called on the main thread, via the MessageDispatcher.*/
+        static void deliver(MalmoMessage message)
+        {
+            Registrations registrations = listeners.get(message.messageType);
+            if (message.uid != 0)
             {
-                IThreadListener mainThread = null;
-                if (ctx.side == Side.CLIENT)
-                    mainThread = Minecraft.getMinecraft();
-                else
-                    mainThread = (WorldServer)ctx.getServerHandler().playerEntity.world;
-                mainThread.addScheduledTask(new Runnable()
-                {
-                    @Override
-                    public void run()
-                    {
-                        for (IMalmoMessageListener l : interestedParties)
-                        {
-                            // If the message's uid is set (ie non-zero), then use it to ensure that only the matching listener receives this message.
-                            // Otherwise, let all listeners who are interested get a look.
-                            if (message.uid == 0 || System.identityHashCode(l) == message.uid)
-                                l.onMessage(message.messageType,  message.data);
-                        }
-                    }
-                });
+                // If the message's uid is set (ie non-zero), then use it to ensure that only the matching listener receives this message.
+                IMalmoMessageListener l = registrations.byUid.get(message.uid);
+                if (l != null)
+                    deliver(l, message);
             }
+            else
+            {
+                // Otherwise, let all listeners who are interested get a look.
+                for (IMalmoMessageListener l : registrations.all)
+                    deliver(l, message);
+            }
+        }
+
+        private static void deliver(IMalmoMessageListener l, MalmoMessage message)
+        {
+            if (message instanceof MalmoTypedMessage && l instanceof IMalmoTypedMessageListener)
+                ((IMalmoTypedMessageListener)l).onTypedMessage((MalmoTypedMessage)message);
+            else
+                l.onMessage(message.messageType,  message.getData());
+        }
+    }
+
+    /** Handler for MalmoTypedMessages - these go to the same listeners as the equivalent MalmoMessages.*/
+    public static class MalmoTypedMessageHandler implements IMessageHandler<MalmoTypedMessage, IMessage>
+    {
+        @Override
+        public IMessage onMessage(MalmoTypedMessage message, MessageContext ctx)
+        {
+            MalmoMessageHandler.dispatch(message, ctx);
             return null; // no response in this case
         }
     }
 
-    public static void safeSendToAll(MalmoMessageType malmoMessage)
+    /** Makes a fresh message for each client that safeSendToAll sends to.*/
+    private interface PerPlayerMessageFactory
+    {
+        IMessage createMessage();
+    }
+
+    private static void safeSendToAll(PerPlayerMessageFactory factory)
     {
         // network.sendToAll() is buggy - race conditions result in the message getting trashed if there is more than one client.
         MinecraftServer server = FMLCommonHandler.instance().getMinecraftServerInstance();
@@ -451,29 +727,51 @@ public class MalmoMod
             if (player != null && player instanceof EntityPlayerMP)
             {
                 // Must construct a new message for each client:
-                network.sendTo(new MalmoMod.MalmoMessage(malmoMessage, ""), (EntityPlayerMP)player);
+                network.sendTo(factory.createMessage(), (EntityPlayerMP)player);
             }
         }
     }
 
-    public static void safeSendToAll(MalmoMessageType malmoMessage, Map<String, String> data)
+    public static void safeSendToAll(final MalmoMessageType malmoMessage)
+    {
+        safeSendToAll(new PerPlayerMessageFactory()
+        {
+            @Override
+            public IMessage createMessage()
+            {
+                return new MalmoMod.MalmoMessage(malmoMessage, "");
+            }
+        });
+    }
+
+    public static void safeSendToAll(final MalmoMessageType malmoMessage, final Map<String, String> data)
     {
-        // network.sendToAll() is buggy - race conditions result in the message getting trashed if there is more than one client.
         if (data == null)
         {
             safeSendToAll(malmoMessage);
             return;
         }
-        MinecraftServer server = FMLCommonHandler.instance().getMinecraftServerInstance();
-        for (Object player : server.getPlayerList().getPlayers())
+        safeSendToAll(new PerPlayerMessageFactory()
         {
-            if (player != null && player instanceof EntityPlayerMP)
+            @Override
+            public IMessage createMessage()
             {
-                // Must construct a new message for each client:
                 Map<String, String> dataCopy = new HashMap<String, String>();
                 dataCopy.putAll(data);
-                network.sendTo(new MalmoMod.MalmoMessage(malmoMessage, 0, dataCopy), (EntityPlayerMP)player);
+                return new MalmoMod.MalmoMessage(malmoMessage, 0, dataCopy);
             }
-        }
+        });
+    }
+
+    public static void safeSendToAll(final MalmoTypedMessage message)
+    {
+        safeSendToAll(new PerPlayerMessageFactory()
+        {
+            @Override
+            public IMessage createMessage()
+            {
+                return new MalmoMod.MalmoTypedMessage(message);
+            }
+        });
     }
 }
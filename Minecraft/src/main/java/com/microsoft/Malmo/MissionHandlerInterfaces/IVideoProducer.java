@@ -53,6 +53,11 @@ public interface IVideoProducer
     
     /** Get the number of bytes required to store a frame.*/
     public int getRequiredBufferSize();
+
+    /** Get the number of frames by which the frames returned from getFrame() lag behind the frame just rendered.<br>
+     * This is zero unless the producer has been asked to read frames back asynchronously.
+     */
+    public int getFrameLatency();
     
     /** Called once before the mission starts - use for any necessary initialisation.*/
     public void prepare(MissionInit missionInit);
@@ -21,7 +21,10 @@ package com.microsoft.Malmo.MissionHandlers;
 
 import io.netty.buffer.ByteBuf;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.EnumSet;
+import java.util.List;
 
 import net.minecraft.client.Minecraft;
 import net.minecraft.client.entity.EntityPlayerSP;
@@ -199,6 +202,15 @@ public class AbsoluteMovementCommandsImplementation extends CommandBase
         }
     }
 
+    @Override
+    public Collection<String> getHandledVerbs()
+    {
+        List<String> verbs = new ArrayList<String>();
+        for (AbsoluteMovementCommand command : AbsoluteMovementCommand.values())
+            verbs.add(command.value());
+        return verbs;
+    }
+
     @Override
     public boolean onExecute(String verb, String parameter, MissionInit missionInit)
     {
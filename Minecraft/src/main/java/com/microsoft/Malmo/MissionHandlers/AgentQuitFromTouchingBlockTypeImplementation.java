@@ -20,14 +20,17 @@
 package com.microsoft.Malmo.MissionHandlers;
 
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import net.minecraft.block.Block;
 import net.minecraft.block.properties.IProperty;
 import net.minecraft.block.state.IBlockState;
 import net.minecraft.client.Minecraft;
 import net.minecraft.client.entity.EntityPlayerSP;
-import net.minecraft.util.math.BlockPos;
 import net.minecraftforge.common.MinecraftForge;
 import net.minecraftforge.fml.common.eventhandler.SubscribeEvent;
 
@@ -35,17 +38,19 @@ import com.microsoft.Malmo.MissionHandlerInterfaces.IWantToQuit;
 import com.microsoft.Malmo.MissionHandlers.RewardForCollectingItemImplementation.GainItemEvent;
 import com.microsoft.Malmo.Schemas.AgentQuitFromTouchingBlockType;
 import com.microsoft.Malmo.Schemas.BlockSpec;
-import com.microsoft.Malmo.Schemas.BlockSpecWithDescription;
 import com.microsoft.Malmo.Schemas.BlockType;
 import com.microsoft.Malmo.Schemas.Variation;
 import com.microsoft.Malmo.Schemas.Colour;
 import com.microsoft.Malmo.Schemas.MissionInit;
-import com.microsoft.Malmo.Utils.PositionHelper;
+import com.microsoft.Malmo.Utils.MinecraftTypeHelper;
+import com.microsoft.Malmo.Utils.TouchingBlocks;
 
 public class AgentQuitFromTouchingBlockTypeImplementation extends HandlerBase implements IWantToQuit
 {
 	AgentQuitFromTouchingBlockType params;
-	List<String> blockTypeNames;
+	Set<Block> blockTypes;
+	List<Set<Block>> blockTypesPerSpec;
+	Map<IBlockState, Integer> matchingSpecs = new IdentityHashMap<IBlockState, Integer>();	// Index of the first matching spec, or -1; filled in as states are seen.
 	String quitCode = "";
 	boolean wantToQuit = false;
 
@@ -56,15 +61,16 @@ public class AgentQuitFromTouchingBlockTypeImplementation extends HandlerBase im
 			return false;
 		
 		this.params = (AgentQuitFromTouchingBlockType)params;
-		// Flatten all the possible block type names for ease of matching later:
-		this.blockTypeNames = new ArrayList<String>();
+		// Flatten all the possible block types for ease of matching later:
+		this.blockTypes = new HashSet<Block>();
+		this.blockTypesPerSpec = new ArrayList<Set<Block>>();
 		for (BlockSpec bs : this.params.getBlock())
 		{
+			Set<Block> specTypes = new HashSet<Block>();
 			for (BlockType bt : bs.getType())
-			{
-				Block b = Block.getBlockFromName(bt.value());
-				this.blockTypeNames.add(b.getUnlocalizedName().toLowerCase());
-			}
+				specTypes.addAll(MinecraftTypeHelper.getBlocksSharingName(bt));
+			this.blockTypesPerSpec.add(specTypes);
+			this.blockTypes.addAll(specTypes);
 		}
 		return true;
 	}
@@ -82,39 +88,39 @@ public class AgentQuitFromTouchingBlockTypeImplementation extends HandlerBase im
 	        return true;
 	    
 		EntityPlayerSP player = Minecraft.getMinecraft().player;
-        List<BlockPos> touchingBlocks = PositionHelper.getTouchingBlocks(player);
-        for (BlockPos pos : touchingBlocks)
+        TouchingBlocks touchingBlocks = TouchingBlocks.get(player);
+        for (int i = 0; i < touchingBlocks.size(); i++)
         {
-        	IBlockState bs = player.world.getBlockState(pos);
+        	IBlockState bs = touchingBlocks.getState(i);
         	// Does this block match our trigger specs?
-        	String blockname = bs.getBlock().getUnlocalizedName().toLowerCase();
-        	if (!this.blockTypeNames.contains(blockname))
+        	if (!this.blockTypes.contains(bs.getBlock()))
         		continue;
         	
     		// The type matches one of our block types, so now we need to perform additional checks.
-        	for (BlockSpecWithDescription blockspec : this.params.getBlock())
+        	// The answer never changes for a given state, so only work it out once:
+        	Integer match = this.matchingSpecs.get(bs);
+        	if (match == null)
         	{
-        		if (findMatch(blockspec, bs))
+        		match = -1;
+        		for (int spec = 0; spec < this.params.getBlock().size(); spec++)
         		{
-        			this.quitCode = blockspec.getDescription();
-        			return true;	// Yes, we want to quit!
+        			if (findMatch(spec, bs))
+        			{
+        				match = spec;
+        				break;
+        			}
         		}
+        		this.matchingSpecs.put(bs, match);
+        	}
+        	if (match != -1)
+        	{
+        		this.quitCode = this.params.getBlock().get(match).getDescription();
+        		return true;	// Yes, we want to quit!
         	}
         }
         return false;	// Nothing matched, we can quit happily.
 	}
 	
-	private boolean findNameMatch(BlockSpec blockspec, String blockName)
-	{
-		for (BlockType bt : blockspec.getType())
-		{
-			Block b = Block.getBlockFromName(bt.value());
-			if (b.getUnlocalizedName().equalsIgnoreCase(blockName))
-				return true;
-		}
-		return false;
-	}
-	
 	private boolean findColourMatch(BlockSpec blockspec, String blockColour)
 	{
 		if (blockspec.getColour() == null || blockspec.getColour().isEmpty())
@@ -139,12 +145,12 @@ public class AgentQuitFromTouchingBlockTypeImplementation extends HandlerBase im
 		return false;
 	}
 	
-	private boolean findMatch(BlockSpec blockspec, IBlockState blockstate)
+	private boolean findMatch(int specIndex, IBlockState blockstate)
 	{
 		// Firstly, do the block types match at all?
-    	String blockname = blockstate.getBlock().getUnlocalizedName().toLowerCase();
-    	if (!findNameMatch(blockspec, blockname))
-    		return false;	// Block name wasn't found in this block type.
+		BlockSpec blockspec = this.params.getBlock().get(specIndex);
+    	if (!this.blockTypesPerSpec.get(specIndex).contains(blockstate.getBlock()))
+    		return false;	// Block wasn't found in this block type.
 
     	// Next, check for a colour match:
 		net.minecraft.item.EnumDyeColor blockColour = null;
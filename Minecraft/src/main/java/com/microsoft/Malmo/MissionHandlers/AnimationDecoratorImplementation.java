@@ -49,6 +49,9 @@ public class AnimationDecoratorImplementation extends HandlerBase implements IWo
     int frameCount = 0;
     int tickCounter = 0;
     Random rng;
+    EvaluationHelper.Expression xExpression;
+    EvaluationHelper.Expression yExpression;
+    EvaluationHelper.Expression zExpression;
 
     @Override
     public boolean parseParameters(Object params)
@@ -79,9 +82,13 @@ public class AnimationDecoratorImplementation extends HandlerBase implements IWo
             this.rng = new Random(seed);
             try
             {
-                double x = EvaluationHelper.eval(this.params.getParametric().getX(), 0, this.rng);
-                double y = EvaluationHelper.eval(this.params.getParametric().getY(), 0, this.rng);
-                double z = EvaluationHelper.eval(this.params.getParametric().getZ(), 0, this.rng);
+                // Compile the equations once, rather than parsing them again every frame:
+                this.xExpression = EvaluationHelper.compile(this.params.getParametric().getX());
+                this.yExpression = EvaluationHelper.compile(this.params.getParametric().getY());
+                this.zExpression = EvaluationHelper.compile(this.params.getParametric().getZ());
+                double x = this.xExpression.evaluate(0, this.rng);
+                double y = this.yExpression.evaluate(0, this.rng);
+                double z = this.zExpression.evaluate(0, this.rng);
                 this.origin = new Vec3d(x, y, z);
             }
             catch (Exception e)
@@ -143,9 +150,9 @@ public class AnimationDecoratorImplementation extends HandlerBase implements IWo
         {
             try
             {
-                double x = EvaluationHelper.eval(this.params.getParametric().getX(), this.frameCount, this.rng);
-                double y = EvaluationHelper.eval(this.params.getParametric().getY(), this.frameCount, this.rng);
-                double z = EvaluationHelper.eval(this.params.getParametric().getZ(), this.frameCount, this.rng);
+                double x = this.xExpression.evaluate(this.frameCount, this.rng);
+                double y = this.yExpression.evaluate(this.frameCount, this.rng);
+                double z = this.zExpression.evaluate(this.frameCount, this.rng);
                 this.origin = new Vec3d(x, y, z);
             }
             catch (Exception e)
@@ -21,7 +21,6 @@ package com.microsoft.Malmo.MissionHandlers;
 
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -40,7 +39,6 @@ import net.minecraftforge.event.world.BlockEvent.PlaceEvent;
 import net.minecraftforge.fml.common.eventhandler.SubscribeEvent;
 
 import com.microsoft.Malmo.MalmoMod;
-import com.microsoft.Malmo.MalmoMod.MalmoMessageType;
 import com.microsoft.Malmo.MissionHandlerInterfaces.IWorldDecorator;
 import com.microsoft.Malmo.Schemas.BuildBattleDecorator;
 import com.microsoft.Malmo.Schemas.DrawBlockBasedObjectType;
@@ -267,10 +265,7 @@ public class BuildBattleDecoratorImplementation extends HandlerBase implements I
 
         if (sendData)
         {
-            HashMap<String,String> data = new HashMap<String, String>();
-            data.put("reward", Integer.toString(reward));
-            data.put("completed", Boolean.toString(sendCompletionBonus));
-            MalmoMod.safeSendToAll(MalmoMessageType.SERVER_BUILDBATTLEREWARD, data);
+            MalmoMod.safeSendToAll(MalmoMod.MalmoTypedMessage.buildBattleReward(reward, sendCompletionBonus));
         }
     }
 
@@ -19,6 +19,9 @@
 
 package com.microsoft.Malmo.MissionHandlers;
 
+import java.util.Collection;
+import java.util.Collections;
+
 import net.minecraft.client.Minecraft;
 import net.minecraft.client.entity.EntityPlayerSP;
 
@@ -32,6 +35,12 @@ public class ChatCommandsImplementation extends CommandBase implements ICommandH
 {
     private boolean isOverriding;
 
+    @Override
+    public Collection<String> getHandledVerbs()
+    {
+        return Collections.singletonList(ChatCommand.CHAT.value());
+    }
+
     @Override
     protected boolean onExecute(String verb, String parameter, MissionInit missionInit)
     {
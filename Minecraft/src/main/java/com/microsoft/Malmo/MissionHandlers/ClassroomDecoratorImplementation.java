@@ -24,6 +24,8 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
 
 import net.minecraft.block.BlockDoor;
 import net.minecraft.block.state.IBlockState;
@@ -43,6 +45,7 @@ import com.microsoft.Malmo.Schemas.PosAndDirection;
 import com.microsoft.Malmo.Schemas.Variation;
 import com.microsoft.Malmo.Utils.BlockDrawingHelper;
 import com.microsoft.Malmo.Utils.BlockDrawingHelper.XMLBlockState;
+import com.microsoft.Malmo.Utils.DecoratorLayoutPool;
 import com.microsoft.Malmo.Utils.Discrete;
 
 /**
@@ -70,7 +73,7 @@ import com.microsoft.Malmo.Utils.Discrete;
  * of the obstacles which will meet the agent, from simple gaps and staircases to bridges over lava,
  * puzzle doors and parkour elements.
  */
-public class ClassroomDecoratorImplementation extends HandlerBase implements IWorldDecorator {
+public class ClassroomDecoratorImplementation extends HandlerBase implements IWorldDecorator, DecoratorLayoutPool.ILayoutDecorator {
     private static int MIN_ROOM_SIZE = 7;
     private static int MAX_ROOMS = 3;
     private static int MAX_BUILDING_SIZE = MAX_ROOMS*(MIN_ROOM_SIZE + 1);
@@ -97,10 +100,21 @@ public class ClassroomDecoratorImplementation extends HandlerBase implements IWo
     
     private Palette palette;
     private BlockDrawingHelper drawContext;
+    private Future<Layout> layout;
 
-    @Override
-    public void buildOnWorld(MissionInit missionInit, World world) throws DecoratorException {
-        this.drawContext = new BlockDrawingHelper();
+    // The building plan, as worked out by createLayout()
+    private class Layout {
+        public ArrayList<Room> rooms;
+        public Room startRoom;
+        public Room goalRoom;
+    }
+    
+    /**
+     * Works out the rooms, the path through them and the obstacles on it. This doesn't touch the world, so can be run
+     * on a DecoratorLayoutPool thread; the random number generator carries on from where it leaves off when the
+     * building is drawn, so a fixed seed will always produce the same building.
+     */
+    private Layout createLayout() throws DecoratorException {
         if(this.buildingWidth == 0){
             // We are using complexity so these need to be sampled from the Gaussian
             this.buildingWidth = Math.max((int)(rand.nextGaussian()*2 + this.buildingComplexity*MAX_BUILDING_SIZE + MIN_ROOM_SIZE), MIN_ROOM_SIZE);
@@ -181,8 +195,25 @@ public class ClassroomDecoratorImplementation extends HandlerBase implements IWo
                 throw new DecoratorException("Unable to join orphan room to goal path");
             }
         }
+        
+        Layout layout = new Layout();
+        layout.rooms = rooms;
+        layout.startRoom = startRoom;
+        layout.goalRoom = goalRoom;
+        return layout;
+    }
 
+    @Override
+    public void buildOnWorld(MissionInit missionInit, World world) throws DecoratorException {
+        // collect the layout started by startLayout() - or, if it wasn't started or has already been used, work it out now
+        Layout layout = (this.layout != null) ? DecoratorLayoutPool.get(this.layout) : createLayout();
+        this.layout = null;
+        ArrayList<Room> rooms = layout.rooms;
+        Room startRoom = layout.startRoom;
+        Room goalRoom = layout.goalRoom;
+        
         // carve out the building
+        this.drawContext = new BlockDrawingHelper();
         this.drawContext.beginDrawing(world);
         for(int x=START_X; x<START_X + this.buildingWidth; x++){
             for(int y=START_Y; y<START_Y + this.buildingHeight; y++){
@@ -284,10 +315,21 @@ public class ClassroomDecoratorImplementation extends HandlerBase implements IWo
             
             this.hintLikelihood = spec.getHintLikelihood();
         }
-            
+        
         return true;
     }
 
+    @Override
+    public void startLayout() {
+        // start working out the building now, so that it's (hopefully) ready by the time we're asked to draw it
+        this.layout = DecoratorLayoutPool.submit(new Callable<Layout>() {
+            @Override
+            public Layout call() throws DecoratorException {
+                return createLayout();
+            }
+        });
+    }
+
     @Override
     public void update(World world) {
     }
@@ -21,7 +21,6 @@ package com.microsoft.Malmo.MissionHandlers;
 
 import static org.lwjgl.opengl.GL11.GL_RGB;
 import static org.lwjgl.opengl.GL11.GL_UNSIGNED_BYTE;
-import static org.lwjgl.opengl.GL11.glReadPixels;
 
 import java.nio.ByteBuffer;
 import java.util.HashMap;
@@ -36,12 +35,14 @@ import com.microsoft.Malmo.Schemas.ColourMapProducer;
 import com.microsoft.Malmo.Schemas.EntityTypes;
 import com.microsoft.Malmo.Schemas.MissionInit;
 import com.microsoft.Malmo.Schemas.MobWithColour;
+import com.microsoft.Malmo.Utils.PixelBufferReader;
 import com.microsoft.Malmo.Utils.TextureHelper;
 
 public class ColourMapProducerImplementation extends HandlerBase implements IVideoProducer
 {
     private ColourMapProducer cmParams;
     private Framebuffer fbo;
+    private PixelBufferReader reader;
     private Map<String, Integer> mobColours = new HashMap<String, Integer>();
     private Map<String, Integer> miscColours = new HashMap<String, Integer>();
 
@@ -102,14 +103,21 @@ public class ColourMapProducerImplementation extends HandlerBase implements IVid
         // Render the Minecraft frame into our own FBO, at the desired size:
         this.fbo.bindFramebuffer(true);
         Minecraft.getMinecraft().getFramebuffer().framebufferRenderExt(width, height, true);
-        glReadPixels(0, 0, width, height, GL_RGB, GL_UNSIGNED_BYTE, buffer);
+        this.reader.readPixels(width, height, GL_RGB, GL_UNSIGNED_BYTE, buffer);
         this.fbo.unbindFramebuffer();
     }
 
+    @Override
+    public int getFrameLatency()
+    {
+        return this.reader != null ? this.reader.getLatencyInFrames() : 0;
+    }
+
     @Override
     public void prepare(MissionInit missionInit)
     {
         this.fbo = new Framebuffer(this.getWidth(), this.getHeight(), true);
+        this.reader = new PixelBufferReader(this.cmParams.getReadbackBuffers(), getRequiredBufferSize());
         TextureHelper.setIsProducingColourMap(true);
         TextureHelper.setMobColours(this.mobColours);
         TextureHelper.setMiscTextureColours(this.miscColours);
@@ -121,5 +129,6 @@ public class ColourMapProducerImplementation extends HandlerBase implements IVid
     {
         TextureHelper.setIsProducingColourMap(false);
         this.fbo.deleteFramebuffer(); // Must do this or we leak resources.
+        this.reader.cleanup();
     }
 }
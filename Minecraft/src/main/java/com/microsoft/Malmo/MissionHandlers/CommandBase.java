@@ -19,8 +19,10 @@
 
 package com.microsoft.Malmo.MissionHandlers;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
 
 import com.microsoft.Malmo.MissionHandlerInterfaces.ICommandHandler;
 import com.microsoft.Malmo.Schemas.CommandListModifier;
@@ -31,9 +33,23 @@ import com.microsoft.Malmo.Schemas.MissionInit;
  */
 public abstract class CommandBase extends HandlerBase implements ICommandHandler
 {
-    private List<String> commandsAllowList = null;
-    private List<String> commandsDenyList = null;
-    
+    private Set<String> commandsAllowList = null;
+    private Set<String> commandsDenyList = null;
+
+    /** @return the verbs this handler can act on, in lower case - used by CommandGroup to offer each command only to
+     * the handlers that might want it. Asked once the handler has been installed.<br>
+     * Return null if the handler can't say in advance, in which case it will be offered every command.
+     */
+    public abstract Collection<String> getHandledVerbs();
+
+    /** @return the verbs (in lower case) whose commands just set a value, so that when several arrive in the same
+     * tick only the last one matters - eg "move". Empty by default.
+     */
+    public Collection<String> getCoalescableVerbs()
+    {
+        return Collections.emptyList();
+    }
+
     protected boolean isCommandAllowed(String verb)
     {
         if (this.commandsDenyList == null && this.commandsAllowList == null)
@@ -46,8 +62,6 @@ public abstract class CommandBase extends HandlerBase implements ICommandHandler
         
         if (this.commandsAllowList != null && !this.commandsAllowList.contains(verb.toLowerCase())) {
             System.out.println("command verb not on the allow-list: "+verb);
-            for(String v : this.commandsAllowList )
-                System.out.println("("+v+" is allowed)");
             return false;   // If the command isn't on the allow list, disallow it
         }
 
@@ -66,8 +80,16 @@ public abstract class CommandBase extends HandlerBase implements ICommandHandler
         String[] parms = command.split(" ", 2);
         String verb = parms[0].toLowerCase();
         String parameter = (parms.length > 1) ? parms[1] : "";
+        return execute(verb, parameter, missionInit);
+    }
 
-        // Also chuck out any commands which aren't on our allow list / are on our deny list:
+    /** As for execute(String, MissionInit), but for a command that has already been split into its verb and parameter.
+     * @param verb the command verb, in lower case.
+     * @param parameter the rest of the command - empty if there are no parameters.
+     */
+    public boolean execute(String verb, String parameter, MissionInit missionInit)
+    {
+        // Chuck out any commands which aren't on our allow list / are on our deny list:
         if (!isCommandAllowed(verb))
         {
             return false;
@@ -83,7 +105,7 @@ public abstract class CommandBase extends HandlerBase implements ICommandHandler
         this.commandsAllowList = null;
         if (list != null && list.getCommand() != null)
         {
-        	ArrayList<String> listcopy = new ArrayList<String>();
+        	HashSet<String> listcopy = new HashSet<String>();
         	listcopy.addAll(list.getCommand());
             if (list.getType().equalsIgnoreCase("deny-list"))
             	this.commandsDenyList = listcopy;
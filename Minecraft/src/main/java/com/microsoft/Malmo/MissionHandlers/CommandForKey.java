@@ -20,6 +20,8 @@
 package com.microsoft.Malmo.MissionHandlers;
 
 import java.lang.reflect.Field;
+import java.util.Collection;
+import java.util.Collections;
 
 import net.minecraft.client.Minecraft;
 import net.minecraft.client.settings.GameSettings;
@@ -376,6 +378,13 @@ public class CommandForKey extends CommandBase
         // will behave normally anyway.
     }
 
+    @Override
+    public Collection<String> getHandledVerbs()
+    {
+        // The key's command string isn't known until we've hooked into the key binding:
+        return (this.keyHook != null) ? Collections.singletonList(this.keyHook.getCommandString().toLowerCase()) : null;
+    }
+
     @Override
     public boolean onExecute(String verb, String parameter, MissionInit missionInit)
     {
@@ -19,6 +19,11 @@
 
 package com.microsoft.Malmo.MissionHandlers;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
 import net.minecraft.client.Minecraft;
 import net.minecraft.client.entity.EntityPlayerSP;
 import net.minecraft.client.settings.GameSettings;
@@ -217,6 +222,23 @@ public class CommandForWheeledRobotNavigationImplementation extends CommandBase
         overrideKeyboardInput = b;
     }
 
+    @Override
+    public Collection<String> getHandledVerbs()
+    {
+        List<String> verbs = new ArrayList<String>();
+        for (ContinuousMovementCommand command : ContinuousMovementCommand.values())
+            verbs.add(command.value());
+        return verbs;
+    }
+
+    @Override
+    public Collection<String> getCoalescableVerbs()
+    {
+        // These set the current speed / rate of turn, so only the latest value matters:
+        return Arrays.asList(ContinuousMovementCommand.MOVE.value(), ContinuousMovementCommand.STRAFE.value(),
+                ContinuousMovementCommand.PITCH.value(), ContinuousMovementCommand.TURN.value());
+    }
+
     @Override
     public boolean onExecute(String verb, String parameter, MissionInit missionInit)
     {
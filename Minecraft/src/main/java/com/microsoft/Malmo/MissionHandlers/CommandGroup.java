@@ -20,18 +20,28 @@
 package com.microsoft.Malmo.MissionHandlers;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import com.microsoft.Malmo.MissionHandlerInterfaces.ICommandHandler;
 import com.microsoft.Malmo.Schemas.MissionInit;
 
 /** Composite class that manages a set of ICommandHandler objects.<br>
+ * Once installed, the group indexes its children by the verbs they handle, so that each command is only offered to the
+ * children that might want it - in the order they were added, as before.
  */
 public class CommandGroup extends CommandBase
 {
     private ArrayList<ICommandHandler> handlers;
     private boolean isOverriding = false;
     private boolean shareParametersWithChildren = false;
+    private Map<String, ICommandHandler[]> handlersByVerb = null;
+    private ICommandHandler[] unindexedHandlers = null;
 
     public CommandGroup()
     {
@@ -56,22 +66,129 @@ public class CommandGroup extends CommandBase
         {
             this.handlers.add(handler);
             handler.setOverriding(this.isOverriding);
+            this.handlersByVerb = null;     // Needs rebuilding.
         }
     }
 
+    /** @return the verbs the group handles itself, in onExecute(), rather than passing on to its children.*/
+    protected Collection<String> getGroupVerbs()
+    {
+        return Collections.emptyList();
+    }
+
     @Override
-    protected boolean onExecute(String verb, String parameter, MissionInit missionInit)
+    public Collection<String> getHandledVerbs()
+    {
+        Collection<String> groupVerbs = getGroupVerbs();
+        if (groupVerbs == null)
+            return null;
+        Set<String> verbs = new HashSet<String>(groupVerbs);
+        for (ICommandHandler han : this.handlers)
+        {
+            Collection<String> childVerbs = (han instanceof CommandBase) ? ((CommandBase)han).getHandledVerbs() : null;
+            if (childVerbs == null)
+                return null;    // Can't tell what this child will want, so can't tell what we want either.
+            verbs.addAll(childVerbs);
+        }
+        return verbs;
+    }
+
+    @Override
+    public Collection<String> getCoalescableVerbs()
     {
+        // A verb can only be coalesced if nothing else that might get the command would mind:
+        Collection<String> groupVerbs = getGroupVerbs();
+        if (groupVerbs == null)
+            return Collections.emptyList();
+        Set<String> coalescable = new HashSet<String>();
+        Set<String> notCoalescable = new HashSet<String>(groupVerbs);
         for (ICommandHandler han : this.handlers)
         {
-            if (han.execute(verb + " " + parameter, missionInit))
+            if (!(han instanceof CommandBase) || ((CommandBase)han).getHandledVerbs() == null)
+                return Collections.emptyList();
+            CommandBase cb = (CommandBase)han;
+            Collection<String> childCoalescable = cb.getCoalescableVerbs();
+            coalescable.addAll(childCoalescable);
+            for (String verb : cb.getHandledVerbs())
             {
-                return true;
+                if (!childCoalescable.contains(verb))
+                    notCoalescable.add(verb);
+            }
+        }
+        coalescable.removeAll(notCoalescable);
+        return coalescable;
+    }
+
+    @Override
+    protected boolean onExecute(String verb, String parameter, MissionInit missionInit)
+    {
+        if (this.handlersByVerb == null)
+        {
+            for (ICommandHandler han : this.handlers)
+            {
+                if (dispatch(han, verb, parameter, missionInit))
+                    return true;
             }
+            return false;
+        }
+        ICommandHandler[] candidates = this.handlersByVerb.get(verb);
+        if (candidates == null)
+            candidates = this.unindexedHandlers;
+        for (ICommandHandler han : candidates)
+        {
+            if (dispatch(han, verb, parameter, missionInit))
+                return true;
         }
         return false;
     }
 
+    private static boolean dispatch(ICommandHandler han, String verb, String parameter, MissionInit missionInit)
+    {
+        if (han instanceof CommandBase)
+            return ((CommandBase)han).execute(verb, parameter, missionInit);   // Already split - no need to do it again.
+        return han.execute(verb + " " + parameter, missionInit);
+    }
+
+    /** Work out which children to offer each verb to. Children that can't say which verbs they handle are offered
+     * everything.
+     */
+    private void buildVerbIndex()
+    {
+        List<Collection<String>> childVerbs = new ArrayList<Collection<String>>();
+        Set<String> allVerbs = new HashSet<String>();
+        List<ICommandHandler> unindexed = new ArrayList<ICommandHandler>();
+        for (ICommandHandler han : this.handlers)
+        {
+            Collection<String> verbs = (han instanceof CommandBase) ? ((CommandBase)han).getHandledVerbs() : null;
+            if (verbs == null)
+            {
+                unindexed.add(han);
+            }
+            else
+            {
+                Set<String> lowerVerbs = new HashSet<String>();
+                for (String verb : verbs)
+                    lowerVerbs.add(verb.toLowerCase());
+                verbs = lowerVerbs;
+                allVerbs.addAll(verbs);
+            }
+            childVerbs.add(verbs);
+        }
+        Map<String, ICommandHandler[]> index = new HashMap<String, ICommandHandler[]>();
+        for (String verb : allVerbs)
+        {
+            List<ICommandHandler> candidates = new ArrayList<ICommandHandler>();
+            for (int i = 0; i < this.handlers.size(); i++)
+            {
+                if (childVerbs.get(i) == null || childVerbs.get(i).contains(verb))
+                    candidates.add(this.handlers.get(i));
+            }
+            index.put(verb, candidates.toArray(new ICommandHandler[candidates.size()]));
+        }
+        this.unindexedHandlers = unindexed.toArray(new ICommandHandler[unindexed.size()]);
+        this.handlersByVerb = index;
+    }
+
     @Override
     public void install(MissionInit missionInit)
     {
@@ -79,6 +196,7 @@ public class CommandGroup extends CommandBase
         {
             han.install(missionInit);
         }
+        buildVerbIndex();
     }
 
     @Override
@@ -88,6 +206,7 @@ public class CommandGroup extends CommandBase
         {
             han.deinstall(missionInit);
         }
+        this.handlersByVerb = null;
     }
 
     @Override
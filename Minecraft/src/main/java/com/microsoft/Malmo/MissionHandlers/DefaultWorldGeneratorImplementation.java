@@ -32,6 +32,7 @@ import com.microsoft.Malmo.MissionHandlerInterfaces.IWorldGenerator;
 import com.microsoft.Malmo.Schemas.DefaultWorldGenerator;
 import com.microsoft.Malmo.Schemas.MissionInit;
 import com.microsoft.Malmo.Utils.MapFileHelper;
+import com.microsoft.Malmo.Utils.WorldSnapshotCache;
 
 public class DefaultWorldGeneratorImplementation extends HandlerBase implements IWorldGenerator
 {
@@ -83,7 +84,7 @@ public class DefaultWorldGeneratorImplementation extends HandlerBase implements
     public boolean shouldCreateWorld(MissionInit missionInit, World world)
     {
         if (this.dwparams != null && this.dwparams.isForceReset())
-            return true;
+            return !(this.dwparams.isResetFromSnapshot() && WorldSnapshotCache.canRestore(missionInit, world));
         
     	if (Minecraft.getMinecraft().world == null || world == null)
             return true;    // Definitely need to create a world if there isn't one in existence!
@@ -2,7 +2,6 @@ package com.microsoft.Malmo.MissionHandlers;
 
 import static org.lwjgl.opengl.GL11.GL_DEPTH_COMPONENT;
 import static org.lwjgl.opengl.GL11.GL_FLOAT;
-import static org.lwjgl.opengl.GL11.glReadPixels;
 
 import java.nio.ByteBuffer;
 import java.nio.FloatBuffer;
@@ -20,11 +19,13 @@ import com.microsoft.Malmo.MissionHandlerInterfaces.IVideoProducer;
 import com.microsoft.Malmo.Schemas.DepthProducer;
 import com.microsoft.Malmo.Schemas.MissionInit;
 import com.microsoft.Malmo.Schemas.VideoProducer;
+import com.microsoft.Malmo.Utils.PixelBufferReader;
 
 public class DepthProducerImplementation extends HandlerBase implements IVideoProducer
 {
     private DepthProducer videoParams;
     private Framebuffer fbo;
+    private PixelBufferReader reader;
 
     @Override
     public boolean parseParameters(Object params)
@@ -57,7 +58,7 @@ public class DepthProducerImplementation extends HandlerBase implements IVideoPr
                 GL11.GL_COLOR_BUFFER_BIT | GL11.GL_DEPTH_BUFFER_BIT, GL11.GL_NEAREST );
 
         this.fbo.bindFramebuffer(true);
-        glReadPixels(0, 0, width, height, GL_DEPTH_COMPONENT, GL_FLOAT, buffer.asFloatBuffer());
+        this.reader.readPixels(width, height, GL_DEPTH_COMPONENT, GL_FLOAT, buffer);
         // Depth map is in 32bpp floats in the range [0-1].
         // We want to convert to give real distances in terms of block size.
         // To do this, we need to know the near and far z-planes.
@@ -103,10 +104,17 @@ public class DepthProducerImplementation extends HandlerBase implements IVideoPr
         return this.videoParams.getWidth() * this.videoParams.getHeight() * 4;
     }
 
+    @Override
+    public int getFrameLatency()
+    {
+        return this.reader != null ? this.reader.getLatencyInFrames() : 0;
+    }
+
     @Override
     public void prepare(MissionInit missionInit)
     {
         this.fbo = new Framebuffer(this.videoParams.getWidth(), this.videoParams.getHeight(), true);
+        this.reader = new PixelBufferReader(this.videoParams.getReadbackBuffers(), getRequiredBufferSize());
         // Set the requested camera position
         // Minecraft.getMinecraft().gameSettings.thirdPersonView = this.videoParams.getViewpoint();
     }
@@ -115,5 +123,6 @@ public class DepthProducerImplementation extends HandlerBase implements IVideoPr
     public void cleanup()
     {
         this.fbo.deleteFramebuffer();   // Must do this or we leak resources.
+        this.reader.cleanup();
     }
 }
\ No newline at end of file
@@ -20,6 +20,11 @@
 package com.microsoft.Malmo.MissionHandlers;
 
 import io.netty.buffer.ByteBuf;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
 import net.minecraft.block.Block;
 import net.minecraft.block.material.Material;
 import net.minecraft.block.state.IBlockState;
@@ -288,6 +293,15 @@ public class DiscreteMovementCommandsImplementation extends CommandBase implemen
         return null;
     }
 
+    @Override
+    public Collection<String> getHandledVerbs()
+    {
+        List<String> verbs = new ArrayList<String>();
+        for (DiscreteMovementCommand command : DiscreteMovementCommand.values())
+            verbs.add(command.value());
+        return verbs;
+    }
+
     @Override
     protected boolean onExecute(String verb, String parameter, MissionInit missionInit)
     {
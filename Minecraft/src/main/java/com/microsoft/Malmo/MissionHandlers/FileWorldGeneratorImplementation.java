@@ -33,6 +33,7 @@ import com.microsoft.Malmo.MissionHandlerInterfaces.IWorldGenerator;
 import com.microsoft.Malmo.Schemas.FileWorldGenerator;
 import com.microsoft.Malmo.Schemas.MissionInit;
 import com.microsoft.Malmo.Utils.MapFileHelper;
+import com.microsoft.Malmo.Utils.WorldSnapshotCache;
 
 public class FileWorldGeneratorImplementation extends HandlerBase implements IWorldGenerator
 {
@@ -70,7 +71,7 @@ public class FileWorldGeneratorImplementation extends HandlerBase implements IWo
             this.errorDetails = "Basemap location " + this.mapFilename + " needs to be a folder. Check the path in your Mission XML.";
             return false;
         }
-        File mapCopy = MapFileHelper.copyMapFiles(mapSource, this.fwparams.isDestroyAfterUse());
+        File mapCopy = MapFileHelper.copyMapFiles(mapSource, this.fwparams.isDestroyAfterUse(), this.fwparams.isLinkRegionFiles());
         if (mapCopy == null)
         {
             this.errorDetails = "Unable to copy " + this.mapFilename + " - is the hard drive full?";
@@ -122,7 +123,7 @@ public class FileWorldGeneratorImplementation extends HandlerBase implements IWo
     public boolean shouldCreateWorld(MissionInit missionInit, World world)
     {
         if (this.fwparams != null && this.fwparams.isForceReset())
-            return true;
+            return !(this.fwparams.isResetFromSnapshot() && WorldSnapshotCache.canRestore(missionInit, world));
 
         if (world == null)
             return true;   // There is no world, so we definitely need to create one.
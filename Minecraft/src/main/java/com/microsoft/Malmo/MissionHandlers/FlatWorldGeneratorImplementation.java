@@ -31,6 +31,7 @@ import com.microsoft.Malmo.MissionHandlerInterfaces.IWorldGenerator;
 import com.microsoft.Malmo.Schemas.FlatWorldGenerator;
 import com.microsoft.Malmo.Schemas.MissionInit;
 import com.microsoft.Malmo.Utils.MapFileHelper;
+import com.microsoft.Malmo.Utils.WorldSnapshotCache;
 
 public class FlatWorldGeneratorImplementation extends HandlerBase implements IWorldGenerator
 {
@@ -64,7 +65,7 @@ public class FlatWorldGeneratorImplementation extends HandlerBase implements IWo
     public boolean shouldCreateWorld(MissionInit missionInit, World world)
     {
     	if (this.fwparams != null && this.fwparams.isForceReset())
-    	    return true;
+    	    return !(this.fwparams.isResetFromSnapshot() && WorldSnapshotCache.canRestore(missionInit, world));
     	
         if (Minecraft.getMinecraft().world == null || world == null)
             return true;    // Definitely need to create a world if there isn't one in existence!
@@ -1,6 +1,7 @@
 package com.microsoft.Malmo.MissionHandlers;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 
 import com.microsoft.Malmo.Schemas.HumanLevelCommand;
@@ -72,6 +73,15 @@ public class HumanLevelCommandsImplementation extends CommandGroup
         return true;
     }
 
+    @Override
+    protected Collection<String> getGroupVerbs()
+    {
+        List<String> verbs = new ArrayList<String>();
+        for (HumanLevelCommand command : HumanLevelCommand.values())
+            verbs.add(command.value());
+        return verbs;
+    }
+
     @Override
     protected boolean onExecute(String verb, String parameter, MissionInit missionInit)
     {
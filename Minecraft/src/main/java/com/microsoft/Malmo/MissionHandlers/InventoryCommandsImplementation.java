@@ -22,6 +22,7 @@ package com.microsoft.Malmo.MissionHandlers;
 import io.netty.buffer.ByteBuf;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 
 import net.minecraft.client.Minecraft;
@@ -345,6 +346,15 @@ public class InventoryCommandsImplementation extends CommandGroup
         return null;
     }
 
+    @Override
+    protected Collection<String> getGroupVerbs()
+    {
+        List<String> verbs = new ArrayList<String>();
+        for (InventoryCommand command : InventoryCommand.values())
+            verbs.add(command.value());
+        return verbs;
+    }
+
     @Override
     protected boolean onExecute(String verb, String parameter, MissionInit missionInit)
     {
@@ -30,17 +30,18 @@ import net.minecraft.client.renderer.OpenGlHelper;
 import net.minecraft.client.shader.Framebuffer;
 import net.minecraftforge.common.MinecraftForge;
 
-import org.lwjgl.opengl.GL11;
 
 import com.microsoft.Malmo.MissionHandlerInterfaces.IVideoProducer;
 import com.microsoft.Malmo.Schemas.LuminanceProducer;
 import com.microsoft.Malmo.Schemas.MissionInit;
+import com.microsoft.Malmo.Utils.PixelBufferReader;
 import com.microsoft.Malmo.Utils.TextureHelper;
 
 public class LuminanceProducerImplementation extends HandlerBase implements IVideoProducer
 {
     private LuminanceProducer lumParams;
     private Framebuffer fbo;
+    private PixelBufferReader reader;
     static private int shaderID = -1;
 
     @Override
@@ -91,20 +92,28 @@ public class LuminanceProducerImplementation extends HandlerBase implements IVid
         this.fbo.bindFramebuffer(true);
         Minecraft.getMinecraft().getFramebuffer().framebufferRenderExt(width, height, true);
         GlStateManager.bindTexture(this.fbo.framebufferTexture);
-        GL11.glGetTexImage(GL11.GL_TEXTURE_2D, 0, GL_RED, GL_UNSIGNED_BYTE, buffer);
+        this.reader.getTexImage(GL_RED, GL_UNSIGNED_BYTE, buffer);
         this.fbo.unbindFramebuffer();
         OpenGlHelper.glUseProgram(0);
     }
 
+    @Override
+    public int getFrameLatency()
+    {
+        return this.reader != null ? this.reader.getLatencyInFrames() : 0;
+    }
+
     @Override
     public void prepare(MissionInit missionInit)
     {
         this.fbo = new Framebuffer(this.getWidth(), this.getHeight(), true);
+        this.reader = new PixelBufferReader(this.lumParams.getReadbackBuffers(), getRequiredBufferSize());
     }
 
     @Override
     public void cleanup()
     {
         this.fbo.deleteFramebuffer(); // Must do this or we leak resources.
+        this.reader.cleanup();
     }
 }
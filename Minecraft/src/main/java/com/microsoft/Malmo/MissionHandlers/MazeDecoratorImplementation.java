@@ -24,6 +24,8 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
 
 import net.minecraft.init.Blocks;
 import net.minecraft.item.ItemStack;
@@ -47,9 +49,10 @@ import com.microsoft.Malmo.Schemas.PosAndDirection;
 import com.microsoft.Malmo.Schemas.Variation;
 import com.microsoft.Malmo.Utils.BlockDrawingHelper;
 import com.microsoft.Malmo.Utils.BlockDrawingHelper.XMLBlockState;
+import com.microsoft.Malmo.Utils.DecoratorLayoutPool;
 import com.microsoft.Malmo.Utils.MinecraftTypeHelper;
 
-public class MazeDecoratorImplementation extends HandlerBase implements IWorldDecorator
+public class MazeDecoratorImplementation extends HandlerBase implements IWorldDecorator, DecoratorLayoutPool.ILayoutDecorator
 {
     private MazeDecorator mazeParams = null;
     
@@ -76,6 +79,7 @@ public class MazeDecoratorImplementation extends HandlerBase implements IWorldDe
     private PosAndDirection startPosition = null;
     private AgentQuitFromReachingPosition quitter = null;
     private ObservationFromSubgoalPositionList navigator = null;
+    private Future<Layout> layout = null;
 
     int width;
     int length;
@@ -91,11 +95,9 @@ public class MazeDecoratorImplementation extends HandlerBase implements IWorldDe
         public int x;
         public int z;
         // Used for tracking path:
-        public int dist = MazeDecoratorImplementation.this.width * MazeDecoratorImplementation.this.length;
         public boolean isOnOptimalPath = false;
         public boolean isSubgoal = false;
         public boolean isWaypoint = false;
-        public boolean isVisited = false;
         public Cell predecessor = null;
 
         Cell()
@@ -111,6 +113,14 @@ public class MazeDecoratorImplementation extends HandlerBase implements IWorldDe
         }
     }
 
+    // The maze plan, as worked out by createLayout():
+    private class Layout
+    {
+        public Cell[] grid;
+        public Cell start;
+        public Cell end;
+    }
+
     @Override
     public boolean parseParameters(Object params)
     {
@@ -120,6 +130,20 @@ public class MazeDecoratorImplementation extends HandlerBase implements IWorldDe
         return true;
     }
 
+    @Override
+    public void startLayout()
+    {
+        // Start working out the maze now, so that it's (hopefully) ready by the time we're asked to build it:
+        this.layout = DecoratorLayoutPool.submit(new Callable<Layout>()
+        {
+            @Override
+            public Layout call()
+            {
+                return createLayout();
+            }
+        });
+    }
+
     private void initRNGs()
     {
         // Initialise a RNG for this scene:
@@ -277,36 +301,38 @@ public class MazeDecoratorImplementation extends HandlerBase implements IWorldDe
         // it's much simpler to do it separately now, and it's unlikely to be a performance problem.
 
         // Initialise graph grid with neutral settings:
-        for (int i = 0; i < this.width * this.length; i++)
+        int cells = this.width * this.length;
+        boolean[] visited = new boolean[cells];
+        for (int i = 0; i < cells; i++)
         {
             if (grid[i] != null)
-            {
-                grid[i].isVisited = false;
                 grid[i].isWaypoint = false;
-            }
         }
 
         // Initialise a vector to enable us to choose random cells:
         ArrayList<Cell> candidates = new ArrayList<Cell>();
 
-        // Now find all cells that are reachable from start:
-        ArrayList<Cell> queue = new ArrayList<Cell>();
-        queue.add(start);
-        while (!queue.isEmpty())
+        // Now find all cells that are reachable from start.
+        // Each cell is queued at most once (bar the start cell, which isn't marked as visited and so can be queued
+        // twice), so a flat array makes a FIFO queue with O(1) removal:
+        int endIndex = end.x + end.z * this.width;
+        int[] queue = new int[cells + 1];
+        int[] neighbours = new int[8];
+        int head = 0;
+        int tail = 0;
+        queue[tail++] = start.x + start.z * this.width;
+        while (head < tail)
         {
-            Cell home = queue.remove(0);
-            Cell[] neighbours = new Cell[8];
-            int x = home.x;
-            int z = home.z;
-            populateNeighbours(grid, neighbours, x, z, allowDiags);
-            
-            for (int n = 0; n < 8; n++)
+            int home = queue[head++];
+            int count = populateNeighbours(grid, neighbours, home, allowDiags);
+            for (int n = 0; n < count; n++)
             {
-                if (neighbours[n] != null && !neighbours[n].isVisited && neighbours[n] != end)
+                int next = neighbours[n];
+                if (!visited[next] && next != endIndex)
                 {
-                    neighbours[n].isVisited = true;
-                    candidates.add(neighbours[n]);
-                    queue.add(neighbours[n]);
+                    visited[next] = true;
+                    candidates.add(grid[next]);
+                    queue[tail++] = next;
                 }
             }
         }
@@ -327,11 +353,22 @@ public class MazeDecoratorImplementation extends HandlerBase implements IWorldDe
 
     private void buildPath(Cell[] grid, Cell start, Cell end, boolean allowDiags)
     {
+        int cells = this.width * this.length;
+
         // Initialise a vector to enable us to choose random cells:
-        int[] order = new int[this.width * this.length];
-        for (int i = 0; i < this.width * this.length; i++)
+        int[] order = new int[cells];
+        for (int i = 0; i < cells; i++)
             order[i] = i;
         int nextRandomSlot = 0;
+
+        // Scratch space for the path searches - allocated once, rather than for every search.
+        // Each cell is queued at most once per search, so a flat array makes a FIFO queue with O(1) removal:
+        int[] dist = new int[cells];
+        int[] predecessor = new int[cells];
+        int[] queue = new int[cells];
+        int[] neighbours = new int[8];
+        int startIndex = start.x + start.z * this.width;
+        int endIndex = end.x + end.z * this.width;
         
         boolean refreshPath = true; // Make sure we create the optimal path, even if we don't need to remove any blocks.
 
@@ -346,7 +383,7 @@ public class MazeDecoratorImplementation extends HandlerBase implements IWorldDe
                 do
                 {
                     // Get next untried cell (in random order).
-                    int targetSlot = nextRandomSlot + this.pathrand.nextInt((this.width * this.length) - nextRandomSlot);
+                    int targetSlot = nextRandomSlot + this.pathrand.nextInt(cells - nextRandomSlot);
                     target = order[targetSlot];
                     order[targetSlot] = order[nextRandomSlot];
                     order[nextRandomSlot] = target;
@@ -364,51 +401,48 @@ public class MazeDecoratorImplementation extends HandlerBase implements IWorldDe
                 // Now, if this cell is removed, can we still construct a valid path?
                 // Perform a simple graph search to find out.
                 // Initialise graph grid with neutral settings:
-                for (int i = 0; i < this.width * this.length; i++)
+                for (int i = 0; i < cells; i++)
                 {
+                    dist[i] = cells;
+                    predecessor[i] = -1;
                     if (grid[i] != null)
-                    {
-                        grid[i].dist = this.width * this.length;
                         grid[i].isOnOptimalPath = false;
-                        grid[i].predecessor = null;
-                    }
                 }
-                start.dist = 0;
+                dist[startIndex] = 0;
                 start.isOnOptimalPath = true;
                 end.isOnOptimalPath = true;
     
                 // Find optimal path from start to end:
-                ArrayList<Cell> queue = new ArrayList<Cell>();
-                queue.add(start);
-                while (!queue.isEmpty() && queue.get(0) != end)
+                int head = 0;
+                int tail = 0;
+                queue[tail++] = startIndex;
+                while (head < tail && queue[head] != endIndex)
                 {
-                    Cell home = queue.remove(0);
-                    Cell[] neighbours = new Cell[8];
-                    int x = home.x;
-                    int z = home.z;
-                    populateNeighbours(grid, neighbours, x, z, allowDiags);
-                    
-                    for (int n = 0; n < 8; n++)
+                    int home = queue[head++];
+                    int count = populateNeighbours(grid, neighbours, home, allowDiags);
+                    for (int n = 0; n < count; n++)
                     {
-                        if (neighbours[n] != null && neighbours[n].dist > home.dist + 1)
+                        int next = neighbours[n];
+                        if (dist[next] > dist[home] + 1)
                         {
-                            queue.add(neighbours[n]);
-                            neighbours[n].dist = home.dist + 1;
-                            neighbours[n].predecessor = home;
+                            queue[tail++] = next;
+                            dist[next] = dist[home] + 1;
+                            predecessor[next] = home;
                         }
                     }
                 }
-                int pathLength = end.dist + 1;  // +1 for the start block.
+                int pathLength = dist[endIndex] + 1;  // +1 for the start block.
     
                 if (pathLength <= this.maxPathLength)
                 {
                     // We have a valid path.
                     // Walk backwards to build it.
-                    Cell c = end;
-                    while (c != start)
+                    int c = endIndex;
+                    while (c != startIndex)
                     {
-                        c.isOnOptimalPath = true;
-                        c = c.predecessor;
+                        grid[c].isOnOptimalPath = true;
+                        grid[c].predecessor = grid[predecessor[c]];
+                        c = predecessor[c];
                     }
                     // All good, so mark as successful and keep going.
                     this.gaps--;
@@ -429,16 +463,30 @@ public class MazeDecoratorImplementation extends HandlerBase implements IWorldDe
         }
     }
 
-    private void populateNeighbours(Cell[] grid, Cell[] neighbours, int x, int z, boolean allowDiags)
+    /** Fill neighbours with the grid indices of the cells next to index which are still in the grid.
+     * @return the number of neighbours found.
+     */
+    private int populateNeighbours(Cell[] grid, int[] neighbours, int index, boolean allowDiags)
+    {
+        int x = index % this.width;
+        int z = index / this.width;
+        int count = 0;
+        count = addNeighbour(grid, neighbours, count, x > 0, index - 1);
+        count = addNeighbour(grid, neighbours, count, x < this.width-1, index + 1);
+        count = addNeighbour(grid, neighbours, count, z > 0, index - this.width);
+        count = addNeighbour(grid, neighbours, count, z < this.length-1, index + this.width);
+        count = addNeighbour(grid, neighbours, count, allowDiags && x > 0 && z < this.length-1, index - 1 + this.width);
+        count = addNeighbour(grid, neighbours, count, allowDiags && x > 0 && z > 0, index - 1 - this.width);
+        count = addNeighbour(grid, neighbours, count, allowDiags && x < this.width-1 && z < this.length-1, index + 1 + this.width);
+        count = addNeighbour(grid, neighbours, count, allowDiags && x < this.width-1 && z > 0, index + 1 - this.width);
+        return count;
+    }
+
+    private int addNeighbour(Cell[] grid, int[] neighbours, int count, boolean inRange, int index)
     {
-        neighbours[0] = (x > 0) ? grid[(x-1) + z*this.width] : null;
-        neighbours[1] = (x < this.width-1) ? grid[(x+1) + z*this.width] : null;
-        neighbours[2] = (z > 0) ? grid[x + (z-1)*this.width] : null;
-        neighbours[3] = (z < this.length-1) ? grid[x + (z+1)*this.width] : null;
-        neighbours[4] = (allowDiags && x > 0 && z < this.length-1) ? grid[(x-1) + (z+1)*this.width] : null;
-        neighbours[5] = (allowDiags && x > 0 && z > 0) ? grid[(x-1) + (z-1)*this.width] : null;
-        neighbours[6] = (allowDiags && x < this.width-1 && z < this.length-1) ? grid[(x+1) + (z+1)*this.width] : null;
-        neighbours[7] = (allowDiags && x < this.width-1 && z > 0) ? grid[(x+1) + (z-1)*this.width] : null;
+        if (inRange && grid[index] != null)
+            neighbours[count++] = index;
+        return count;
     }
 
     private void findSubgoals(Cell[] grid, Cell start, Cell end)
@@ -561,8 +609,11 @@ public class MazeDecoratorImplementation extends HandlerBase implements IWorldDe
 
     private void placeBlocks(World world, Cell[] grid, Cell start, Cell end)
     {
+        boolean bulk = this.mazeParams.isBulkDraw();
         BlockDrawingHelper drawContext = new BlockDrawingHelper();
+        drawContext.setBulkMode(bulk);
         drawContext.beginDrawing(world);
+        XMLBlockState air = new XMLBlockState(Blocks.AIR.getDefaultState());
 
         int scale = this.mazeParams.getSizeAndPosition().getScale();
         // First remove any entities lying around in our area:
@@ -575,7 +626,10 @@ public class MazeDecoratorImplementation extends HandlerBase implements IWorldDe
             {
                 for (int y = 0; y < this.mazeParams.getSizeAndPosition().getHeight(); y++)
                 {
-                    world.setBlockToAir(new BlockPos(x + this.xOrg, y + this.yOrg, z + this.zOrg));
+                    if (bulk)
+                        drawContext.setBlockState(world, new BlockPos(x + this.xOrg, y + this.yOrg, z + this.zOrg), air);
+                    else
+                        world.setBlockToAir(new BlockPos(x + this.xOrg, y + this.yOrg, z + this.zOrg));
                 }
                 BlockPos bp = new BlockPos(x + this.xOrg, this.yOrg, z + this.zOrg);
                 drawContext.setBlockState(world, bp, this.floorBlock);
@@ -619,6 +673,7 @@ public class MazeDecoratorImplementation extends HandlerBase implements IWorldDe
                 }
             }
         }
+        drawContext.endDrawing(world);
     }
 
     private void recordStartAndEndPoints(Cell start, Cell end, MissionInit missionInit)
@@ -658,8 +713,10 @@ public class MazeDecoratorImplementation extends HandlerBase implements IWorldDe
         }
     }
 
-    @Override
-    public void buildOnWorld(MissionInit missionInit, World world)
+    /** Work out the maze - the cells, the blocks to use, and the path through it. This doesn't touch the world, so can
+     * be run on a DecoratorLayoutPool thread; given a fixed seed, the result will always be the same.
+     */
+    private Layout createLayout()
     {
         // Set up various parameters according to the XML specs:
         initRNGs();
@@ -695,11 +752,25 @@ public class MazeDecoratorImplementation extends HandlerBase implements IWorldDe
         // Now split into subgoals:
         findSubgoals(grid, start, end);
 
+        Layout result = new Layout();
+        result.grid = grid;
+        result.start = start;
+        result.end = end;
+        return result;
+    }
+
+    @Override
+    public void buildOnWorld(MissionInit missionInit, World world) throws DecoratorException
+    {
+        // Collect the layout started by startLayout() - or, if it wasn't started or has already been used, work it out now:
+        Layout plan = (this.layout != null) ? DecoratorLayoutPool.get(this.layout) : createLayout();
+        this.layout = null;
+
         // Now build the actual Minecraft world:
-        placeBlocks(world, grid, start, end);
+        placeBlocks(world, plan.grid, plan.start, plan.end);
 
         // Finally, write the start and goal points into the MissionInit data structure for the other MissionHandlers to use:
-        recordStartAndEndPoints(start, end, missionInit);
+        recordStartAndEndPoints(plan.start, plan.end, missionInit);
     }
 
     private int getHeight(MazeBlock mblock, Random rand)
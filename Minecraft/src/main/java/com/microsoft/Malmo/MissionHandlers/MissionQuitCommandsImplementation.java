@@ -19,6 +19,9 @@
 
 package com.microsoft.Malmo.MissionHandlers;
 
+import java.util.Collection;
+import java.util.Collections;
+
 import net.minecraft.client.Minecraft;
 import net.minecraft.client.entity.EntityPlayerSP;
 
@@ -35,6 +38,12 @@ public class MissionQuitCommandsImplementation extends CommandBase implements IC
     private boolean iWantToQuit;
     protected MissionQuitCommands quitcomParams;
 
+    @Override
+    public Collection<String> getHandledVerbs()
+    {
+        return Collections.singletonList(MissionQuitCommand.QUIT.value());
+    }
+
     @Override
     protected boolean onExecute(String verb, String parameter, MissionInit missionInit)
     {
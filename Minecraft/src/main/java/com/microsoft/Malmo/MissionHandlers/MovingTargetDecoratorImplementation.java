@@ -2,7 +2,6 @@ package com.microsoft.Malmo.MissionHandlers;
 
 import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
@@ -18,7 +17,6 @@ import net.minecraft.util.math.BlockPos;
 import net.minecraft.world.World;
 
 import com.microsoft.Malmo.MalmoMod;
-import com.microsoft.Malmo.MalmoMod.MalmoMessageType;
 import com.microsoft.Malmo.MissionHandlerInterfaces.IWorldDecorator;
 import com.microsoft.Malmo.Schemas.BlockType;
 import com.microsoft.Malmo.Schemas.Colour;
@@ -207,9 +205,7 @@ public class MovingTargetDecoratorImplementation extends HandlerBase implements
         if (this.mustWaitTurn)
         {
             // Let server know we have finished.
-            Map<String, String> data = new HashMap<String, String>();
-            data.put("agentname", this.guid);
-            MalmoMod.network.sendToServer(new MalmoMod.MalmoMessage(MalmoMessageType.CLIENT_TURN_TAKEN, 0, data));
+            MalmoMod.network.sendToServer(MalmoMod.MalmoTypedMessage.turnTaken(this.guid));
         }
     }
 
@@ -23,6 +23,8 @@ import com.microsoft.Malmo.Schemas.NearbyCraftCommand;
 import io.netty.buffer.ByteBuf;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 
 import net.minecraft.block.BlockWorkbench;
@@ -148,6 +150,11 @@ public class NearbyCraftCommandsImplementation extends CommandBase {
         }
     }
 
+    @Override
+    public Collection<String> getHandledVerbs() {
+        return Collections.singletonList(NearbyCraftCommand.CRAFT_NEARBY.value());
+    }
+
     @Override
     protected boolean onExecute(String verb, String parameter, MissionInit missionInit) {
         if (verb.equalsIgnoreCase(NearbyCraftCommand.CRAFT_NEARBY.value())) {
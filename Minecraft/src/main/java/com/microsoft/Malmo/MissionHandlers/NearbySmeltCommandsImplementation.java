@@ -22,6 +22,8 @@ package com.microsoft.Malmo.MissionHandlers;
 import io.netty.buffer.ByteBuf;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 
 import net.minecraft.block.BlockFurnace;
 import net.minecraft.client.Minecraft;
@@ -140,6 +142,11 @@ public class NearbySmeltCommandsImplementation extends CommandBase {
         }
     }
 
+    @Override
+    public Collection<String> getHandledVerbs() {
+        return Collections.singletonList(NearbySmeltCommand.SMELT_NEARBY.value());
+    }
+
     @Override
     protected boolean onExecute(String verb, String parameter, MissionInit missionInit) {
         if (verb.equalsIgnoreCase(NearbySmeltCommand.SMELT_NEARBY.value())) {
@@ -227,6 +227,12 @@ public class ObservationFromFullInventoryImplementation extends ObservationFromS
         super.cleanup();
     }
 
+    @Override
+    protected boolean canSubscribe()
+    {
+        return false;   // The request includes whichever block the player is looking at, which changes from tick to tick.
+    }
+
     @Override
     public ObservationRequestMessage createObservationRequestMessage()
     {
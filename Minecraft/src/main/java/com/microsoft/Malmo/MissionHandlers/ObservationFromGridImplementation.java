@@ -32,6 +32,7 @@ import net.minecraftforge.fml.common.network.simpleimpl.MessageContext;
 
 import com.google.gson.JsonObject;
 import com.microsoft.Malmo.Schemas.GridDefinition;
+import com.microsoft.Malmo.Schemas.GridEncoding;
 import com.microsoft.Malmo.Schemas.ObservationFromGrid;
 import com.microsoft.Malmo.Utils.JSONWorldDataHelper;
 import com.microsoft.Malmo.Utils.JSONWorldDataHelper.GridDimensions;
@@ -78,6 +79,8 @@ public class ObservationFromGridImplementation extends ObservationFromServer
     }
 
     private List<SimpleGridDef> environs = null;
+    private boolean binary = false;
+    private boolean incremental = false;
 
     @Override
     public boolean parseParameters(Object params)
@@ -86,6 +89,8 @@ public class ObservationFromGridImplementation extends ObservationFromServer
             return false;
 
         ObservationFromGrid ogparams = (ObservationFromGrid)params;
+        this.binary = (ogparams.getEncoding() == GridEncoding.BINARY);
+        this.incremental = ogparams.isIncremental();
         this.environs = new ArrayList<SimpleGridDef>();
         for (GridDefinition gd : ogparams.getGrid())
         {
@@ -106,14 +111,18 @@ public class ObservationFromGridImplementation extends ObservationFromServer
     public static class GridRequestMessage extends ObservationFromServer.ObservationRequestMessage
     {
         private List<SimpleGridDef> environs = null;
+        private boolean binary = false;
+        private boolean incremental = false;
 
         public GridRequestMessage()	// Needed so FML can instantiate our class using reflection.
         {
         }
 
-        public GridRequestMessage(List<SimpleGridDef> environs)
+        public GridRequestMessage(List<SimpleGridDef> environs, boolean binary, boolean incremental)
         {
             this.environs = environs;
+            this.binary = binary;
+            this.incremental = incremental;
         }
 
         @Override
@@ -129,6 +138,8 @@ public class ObservationFromGridImplementation extends ObservationFromServer
                                                       buf.readBoolean());
                 this.environs.add(sgd);
             }
+            this.binary = buf.readBoolean();
+            this.incremental = buf.readBoolean();
         }
 
         @Override
@@ -146,9 +157,13 @@ public class ObservationFromGridImplementation extends ObservationFromServer
                 ByteBufUtils.writeUTF8String(buf, sgd.name);
                 buf.writeBoolean(sgd.absoluteCoords);
             }
+            buf.writeBoolean(this.binary);
+            buf.writeBoolean(this.incremental);
         }
 
         List<SimpleGridDef>getEnvirons() { return this.environs; }
+        boolean isBinary() { return this.binary; }
+        boolean isIncremental() { return this.incremental; }
     }
 
     public static class GridRequestMessageHandler extends ObservationFromServer.ObservationRequestMessageHandler implements IMessageHandler<GridRequestMessage, IMessage>
@@ -158,12 +173,18 @@ public class ObservationFromGridImplementation extends ObservationFromServer
         {
             if (message instanceof GridRequestMessage)
             {
-                List<SimpleGridDef> environs = ((GridRequestMessage)message).getEnvirons();
+                GridRequestMessage gridMessage = (GridRequestMessage)message;
+                List<SimpleGridDef> environs = gridMessage.getEnvirons();
                 if (environs != null)
                 {
                     for (SimpleGridDef sgd : environs)
                     {
-                        JSONWorldDataHelper.buildGridData(json, sgd.getEnvirons(), player, sgd.name);
+                        if (gridMessage.isIncremental())
+                            JSONWorldDataHelper.buildIncrementalGridData(json, sgd.getEnvirons(), player, sgd.name, gridMessage.isBinary());
+                        else if (gridMessage.isBinary())
+                            JSONWorldDataHelper.buildBinaryGridData(json, sgd.getEnvirons(), player, sgd.name);
+                        else
+                            JSONWorldDataHelper.buildGridData(json, sgd.getEnvirons(), player, sgd.name);
                     }
                 }
             }
@@ -179,6 +200,6 @@ public class ObservationFromGridImplementation extends ObservationFromServer
     @Override
     public ObservationRequestMessage createObservationRequestMessage()
     {
-        return new GridRequestMessage(this.environs);
+        return new GridRequestMessage(this.environs, this.binary, this.incremental);
     }
 }
@@ -21,26 +21,35 @@ package com.microsoft.Malmo.MissionHandlers;
 
 import io.netty.buffer.ByteBuf;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 
 import net.minecraft.entity.player.EntityPlayerMP;
-import net.minecraft.util.IThreadListener;
-import net.minecraft.world.WorldServer;
+import net.minecraft.server.MinecraftServer;
 import net.minecraftforge.common.MinecraftForge;
+import net.minecraftforge.fml.common.FMLCommonHandler;
 import net.minecraftforge.fml.common.eventhandler.SubscribeEvent;
 import net.minecraftforge.fml.common.gameevent.TickEvent;
+import net.minecraftforge.fml.common.gameevent.TickEvent.Phase;
+import net.minecraftforge.fml.common.network.ByteBufUtils;
 import net.minecraftforge.fml.common.network.simpleimpl.IMessage;
+import net.minecraftforge.fml.common.network.simpleimpl.IMessageHandler;
 import net.minecraftforge.fml.common.network.simpleimpl.MessageContext;
 
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
 import com.microsoft.Malmo.MalmoMod;
-import com.microsoft.Malmo.MalmoMod.IMalmoMessageListener;
-import com.microsoft.Malmo.MalmoMod.MalmoMessageType;
 import com.microsoft.Malmo.MissionHandlerInterfaces.IObservationProducer;
+import com.microsoft.Malmo.Schemas.AgentHandlers;
 import com.microsoft.Malmo.Schemas.MissionInit;
+import com.microsoft.Malmo.Utils.JSONByteBufCodec;
+import com.microsoft.Malmo.Utils.MessageDispatcher;
 
 /** Starting-point for observation producers that need to deal with extracting information from the server.<br>
  * It's hard to wrap this stuff cleanly, since the code which actually creates the JSON needs to be executed on the server, and may not
@@ -56,13 +65,24 @@ import com.microsoft.Malmo.Schemas.MissionInit;
  * d) Add a call to register the message in MalmoMod.preInit()
  *       eg: network.registerMessage(yourClass.yourMessageHandler.class, yourClass.yourMessage.class, 1, Side.SERVER);
  * e) Make sure prepare() and cleanup() call super.prepare() and super.cleanup()
+ *
+ * The JSON comes back to the client as a tree (see ObservationsReadyMessage), so it is only turned into text once, when
+ * the complete observation is sent to the agent.
+ *
+ * If the agent's AgentHandlers ask for serverPushObservations, the request is only sent once, in prepare(), and the server
+ * then answers it at the end of every server tick (see ObservationPusher) - with the replies for all of the player's
+ * producers going back in a single message - until the producer is cleaned up.
  */
 
 
-public abstract class ObservationFromServer extends HandlerBase implements IMalmoMessageListener, IObservationProducer
+public abstract class ObservationFromServer extends HandlerBase implements IObservationProducer
 {
-	private String latestJsonStats = "";
+    /** Producers waiting for data from the server, keyed by the id they put in their requests.*/
+    private static Map<Integer, ObservationFromServer> listeners = new ConcurrentHashMap<Integer, ObservationFromServer>();
+
+	private volatile JsonObject latestJsonStats = null;
 	private boolean missionIsRunning = false;
+	private boolean subscribed = false;	// True if the server is pushing our data to us every tick, rather than waiting to be asked.
 	
 	ObservationFromServer()
 	{
@@ -73,7 +93,7 @@ public abstract class ObservationFromServer extends HandlerBase implements IMalm
     @SubscribeEvent
     public void onClientTick(TickEvent.ClientTickEvent ev)
     {
-    	if (this.missionIsRunning)
+    	if (this.missionIsRunning && !this.subscribed)
     	{
 	    	// Use the client tick to fire messages to the server to request up-to-date stats.
 	    	// We can then use those stats to fire back to the agent in writeObservationsToJSON.
@@ -87,57 +107,67 @@ public abstract class ObservationFromServer extends HandlerBase implements IMalm
 	@Override
 	public void prepare(MissionInit missionInit)
 	{
-		this.missionIsRunning = true;	// Will start us asking the server for stats.
-		MalmoMod.MalmoMessageHandler.registerForMessage(this, MalmoMessageType.SERVER_OBSERVATIONSREADY);
+		listeners.put(System.identityHashCode(this), this);
+		AgentHandlers handlers = missionInit.getMission().getAgentSection().get(missionInit.getClientRole()).getAgentHandlers();
+		if (handlers.isServerPushObservations() && canSubscribe())
+		{
+			// Ask the server to send us our stats at the end of every server tick:
+			sendRequest(ObservationRequestMessage.SUBSCRIBE);
+			this.subscribed = true;
+		}
+		this.missionIsRunning = true;	// Will start us asking the server for stats (unless we've subscribed).
 	}
 
 	@Override
 	public void cleanup()
 	{
 		this.missionIsRunning = false;	// Stop asking for stats.
-		MalmoMod.MalmoMessageHandler.deregisterForMessage(this, MalmoMessageType.SERVER_OBSERVATIONSREADY);
+		if (this.subscribed)
+		{
+			sendRequest(ObservationRequestMessage.UNSUBSCRIBE);
+			this.subscribed = false;
+		}
+		listeners.remove(System.identityHashCode(this));
+		this.latestJsonStats = null;
 	}
 
-    @Override
-	public void writeObservationsToJSON(JsonObject json, MissionInit missionInit)
+	private void sendRequest(byte mode)
 	{
-    	String jsonstring = "";
-    	synchronized (this.latestJsonStats)
-    	{
-    		jsonstring = this.latestJsonStats;
-		}
-    	if (jsonstring.length() > 2)	// "{}" is the empty JSON string.
-    	{
-    		// Parse the string into json:
-    		JsonParser parser = new JsonParser();
-    		JsonElement root = parser.parse(jsonstring);
-    		// Now copy the children of root into the provided json object:
-    		if (root.isJsonObject())
-    		{
-    			JsonObject rootObj = root.getAsJsonObject();
-				for (Map.Entry<String, JsonElement> entry : rootObj.entrySet())
-				{
-					json.add(entry.getKey(), entry.getValue());
-				}
-    		}
-    	}
+		ObservationRequestMessage message = createObservationRequestMessage();
+		message.id = System.identityHashCode(this);
+		message.mode = mode;
+		MalmoMod.network.sendToServer(message);
 	}
 
-    @Override
-	public void onMessage(MalmoMessageType messageType, Map<String, String> data)
+	/** Override this to return false if the request message depends on client state which changes from tick to tick,
+	 * in which case the producer will always ask for its data on each client tick, even if the server could push it.
+	 */
+	protected boolean canSubscribe()
 	{
-    	if (data != null)
-    	{
-	    	synchronized (this.latestJsonStats)
-	    	{
-	    		this.latestJsonStats = data.get("json");
-                if (this.latestJsonStats == null)   // Shouldn't happen, but if it does
-                    this.latestJsonStats = "";      // we don't want to allow a null value.
-	    		onReturnedData(data);
-			}
-    	}
+		return true;
 	}
 
+    @Override
+    public void writeObservationsToJSON(JsonObject json, MissionInit missionInit)
+    {
+        JsonObject stats = this.latestJsonStats;
+        if (stats != null)
+        {
+            // Copy the children of the returned tree into the provided json object.
+            // (The tree is never modified once received, so the elements can be shared rather than copied.)
+            for (Map.Entry<String, JsonElement> entry : stats.entrySet())
+            {
+                json.add(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    private void onObservationsReady(JsonObject json, Map<String, String> data)
+    {
+        this.latestJsonStats = json;
+        onReturnedData(data);
+    }
+
     /** Override this to act on any extra data returned by the server.<br>
      * @param data
      */
@@ -151,10 +181,21 @@ public abstract class ObservationFromServer extends HandlerBase implements IMalm
      * Contains just an id string, used to map the request to the object which can fulfil it.
      * Subclasses of ObservationFromServer should subclass this to include all the state which is required to process their request.
      */
-    public abstract static class ObservationRequestMessage implements IMessage
+    public abstract static class ObservationRequestMessage implements IMessage, MessageDispatcher.IQueuedMessage
     {
+    	/** Answer this request once.*/
+    	static final byte REQUEST = 0;
+    	/** Answer this request at the end of every server tick, until unsubscribed.*/
+    	static final byte SUBSCRIBE = 1;
+    	/** Stop answering a subscribed request.*/
+    	static final byte UNSUBSCRIBE = 2;
+
     	/** Identifier of the listener that will be responding to this request.*/
     	private int id = 0;
+    	private byte mode = REQUEST;
+    	// Server-side only - filled in when the request arrives, so it can be answered from the server thread:
+    	private ObservationRequestMessageHandler handler = null;
+    	private EntityPlayerMP player = null;
 
     	public ObservationRequestMessage()
     	{
@@ -170,6 +211,7 @@ public abstract class ObservationFromServer extends HandlerBase implements IMalm
     	{
 
     		this.id = buf.readInt();
+    		this.mode = buf.readByte();
     		restoreState(buf);
     	}
 
@@ -178,6 +220,7 @@ public abstract class ObservationFromServer extends HandlerBase implements IMalm
     	{
     		// Subclasses MUST call this
     		buf.writeInt(this.id);
+    		buf.writeByte(this.mode);
     		persistState(buf);
     	}
     	
@@ -190,6 +233,17 @@ public abstract class ObservationFromServer extends HandlerBase implements IMalm
 		public void addReturnData(Map<String, String> returnData)
 		{
 		}
+
+		@Override
+		public void deliver()
+		{
+			if (this.mode == SUBSCRIBE)
+				ObservationPusher.subscribe(this.player, this);
+			else if (this.mode == UNSUBSCRIBE)
+				ObservationPusher.unsubscribe(this.player, this.id);
+			else
+				MalmoMod.network.sendTo(this.handler.buildReply(this, this.player), this.player);
+		}
     }
 	
     /** Simple handler to process the request message.<br>
@@ -205,29 +259,201 @@ public abstract class ObservationFromServer extends HandlerBase implements IMalm
         /** IMPORTANT: Call this from the onMessage method in the subclass. */
         public IMessage processMessage(ObservationRequestMessage message, MessageContext ctx)
         {
-            IThreadListener mainThread = (WorldServer) ctx.getServerHandler().playerEntity.world;
-            final EntityPlayerMP player = ctx.getServerHandler().playerEntity;
-            final ObservationRequestMessage mess = message;
-            mainThread.addScheduledTask(new Runnable()
-            {
-                @Override
-                public void run()
-                {
-                    JsonObject json = new JsonObject();
-                    buildJson(json, player, mess);
-                    // Send this message back again now we've filled in the json stats.
-                    Map<String, String> returnData = new HashMap<String, String>();
-                    returnData.put("json", json.toString());
-                    mess.addReturnData(returnData);
-                    MalmoMod.network.sendTo(new MalmoMod.MalmoMessage(MalmoMessageType.SERVER_OBSERVATIONSREADY, mess.id, returnData), player);
-                }
-            });
+            // The request is answered from the server thread, at the start of the next tick:
+            message.handler = this;
+            message.player = ctx.getServerHandler().playerEntity;
+            MessageDispatcher.enqueue(ctx.side, message);
             return null; // no response in this case
         }
 
+        private ObservationsReadyMessage buildReply(ObservationRequestMessage message, EntityPlayerMP player)
+        {
+            JsonObject json = new JsonObject();
+            buildJson(json, player, message);
+            // Send the json stats back again as a tree; it will be turned into text once the client has assembled the complete observation.
+            Map<String, String> returnData = new HashMap<String, String>();
+            message.addReturnData(returnData);
+            return new ObservationsReadyMessage(message.id, json, returnData);
+        }
+
         /**
          * Build the JSON observation that has been requested by the message.
          */
         abstract void buildJson(JsonObject json, EntityPlayerMP player, ObservationRequestMessage message);
     }
+
+    /** Message sent from the server to the client with the result of an observation request.<br>
+     * The JSON is carried as a tree (see JSONByteBufCodec) rather than as text, so the client doesn't have to parse it.
+     */
+    public static class ObservationsReadyMessage implements IMessage, MessageDispatcher.IQueuedMessage
+    {
+        private int id = 0;
+        private JsonObject json = null;
+        private Map<String, String> data = null;
+
+        public ObservationsReadyMessage()	// Needed so FML can instantiate our class using reflection.
+        {
+        }
+
+        public ObservationsReadyMessage(int id, JsonObject json, Map<String, String> data)
+        {
+            this.id = id;
+            this.json = json;
+            this.data = data;
+        }
+
+        @Override
+        public void fromBytes(ByteBuf buf)
+        {
+            this.id = buf.readInt();
+            JsonElement element = JSONByteBufCodec.read(buf);
+            this.json = element.isJsonObject() ? element.getAsJsonObject() : new JsonObject();
+            int count = buf.readInt();
+            this.data = new HashMap<String, String>();
+            for (int i = 0; i < count; i++)
+            {
+                String key = ByteBufUtils.readUTF8String(buf);
+                this.data.put(key, JSONByteBufCodec.readString(buf));  // Values may be too long for readUTF8String.
+            }
+        }
+
+        @Override
+        public void toBytes(ByteBuf buf)
+        {
+            buf.writeInt(this.id);
+            JSONByteBufCodec.write(buf, this.json);
+            buf.writeInt(this.data.size());
+            for (Map.Entry<String, String> entry : this.data.entrySet())
+            {
+                ByteBufUtils.writeUTF8String(buf, entry.getKey());
+                JSONByteBufCodec.writeString(buf, entry.getValue());
+            }
+        }
+
+        @Override
+        public void deliver()
+        {
+            // Looked up now, rather than when the message arrived, in case the producer has been cleaned up since:
+            ObservationFromServer listener = listeners.get(this.id);
+            if (listener != null)
+                listener.onObservationsReady(this.json, this.data);
+        }
+    }
+
+    /** Client-side handler which passes the returned observations on to the producer that asked for them.*/
+    public static class ObservationsReadyMessageHandler implements IMessageHandler<ObservationsReadyMessage, IMessage>
+    {
+        @Override
+        public IMessage onMessage(ObservationsReadyMessage message, MessageContext ctx)
+        {
+            if (listeners.containsKey(message.id))
+                MessageDispatcher.enqueue(ctx.side, message);
+            return null; // no response in this case
+        }
+    }
+
+    /** Server-side record of the subscribed observation requests, which are answered at the end of every server tick.<br>
+     * All the replies for a player go back to them in a single ObservationsPushMessage. Must be registered on
+     * MinecraftForge.EVENT_BUS; all calls are made from the server thread.
+     */
+    public static class ObservationPusher
+    {
+        // Keyed on the player's id, since the player entity is replaced when they respawn:
+        private static final Map<UUID, Map<Integer, ObservationRequestMessage>> subscriptions = new LinkedHashMap<UUID, Map<Integer, ObservationRequestMessage>>();
+
+        static void subscribe(EntityPlayerMP player, ObservationRequestMessage request)
+        {
+            Map<Integer, ObservationRequestMessage> requests = subscriptions.get(player.getUniqueID());
+            if (requests == null)
+            {
+                requests = new LinkedHashMap<Integer, ObservationRequestMessage>();
+                subscriptions.put(player.getUniqueID(), requests);
+            }
+            requests.put(request.id, request);
+        }
+
+        static void unsubscribe(EntityPlayerMP player, int id)
+        {
+            Map<Integer, ObservationRequestMessage> requests = subscriptions.get(player.getUniqueID());
+            if (requests != null)
+            {
+                requests.remove(id);
+                if (requests.isEmpty())
+                    subscriptions.remove(player.getUniqueID());
+            }
+        }
+
+        @SubscribeEvent
+        public void onServerTick(TickEvent.ServerTickEvent ev)
+        {
+            if (ev.phase != Phase.END || subscriptions.isEmpty())
+                return;
+            MinecraftServer server = FMLCommonHandler.instance().getMinecraftServerInstance();
+            Iterator<Map.Entry<UUID, Map<Integer, ObservationRequestMessage>>> it = subscriptions.entrySet().iterator();
+            while (it.hasNext())
+            {
+                Map.Entry<UUID, Map<Integer, ObservationRequestMessage>> entry = it.next();
+                EntityPlayerMP player = (server != null) ? server.getPlayerList().getPlayerByUUID(entry.getKey()) : null;
+                if (player == null)
+                {
+                    it.remove();    // Player has gone - they'll subscribe again when they next start a mission.
+                    continue;
+                }
+                ObservationsPushMessage push = new ObservationsPushMessage();
+                for (ObservationRequestMessage request : entry.getValue().values())
+                    push.replies.add(request.handler.buildReply(request, player));
+                MalmoMod.network.sendTo(push, player);
+            }
+        }
+    }
+
+    /** Message sent from the server to the client at the end of every server tick, holding the replies to all of the
+     * client's subscribed requests.
+     */
+    public static class ObservationsPushMessage implements IMessage, MessageDispatcher.IQueuedMessage
+    {
+        private List<ObservationsReadyMessage> replies = new ArrayList<ObservationsReadyMessage>();
+
+        public ObservationsPushMessage()	// Needed so FML can instantiate our class using reflection.
+        {
+        }
+
+        @Override
+        public void fromBytes(ByteBuf buf)
+        {
+            int count = ByteBufUtils.readVarInt(buf, 5);
+            for (int i = 0; i < count; i++)
+            {
+                ObservationsReadyMessage reply = new ObservationsReadyMessage();
+                reply.fromBytes(buf);
+                this.replies.add(reply);
+            }
+        }
+
+        @Override
+        public void toBytes(ByteBuf buf)
+        {
+            ByteBufUtils.writeVarInt(buf, this.replies.size(), 5);
+            for (ObservationsReadyMessage reply : this.replies)
+                reply.toBytes(buf);
+        }
+
+        @Override
+        public void deliver()
+        {
+            for (ObservationsReadyMessage reply : this.replies)
+                reply.deliver();
+        }
+    }
+
+    /** Client-side handler for pushed observations.*/
+    public static class ObservationsPushMessageHandler implements IMessageHandler<ObservationsPushMessage, IMessage>
+    {
+        @Override
+        public IMessage onMessage(ObservationsPushMessage message, MessageContext ctx)
+        {
+            MessageDispatcher.enqueue(ctx.side, message);
+            return null; // no response in this case
+        }
+    }
 }
@@ -3,6 +3,7 @@ package com.microsoft.Malmo.MissionHandlers;
 import com.google.gson.JsonObject;
 import com.microsoft.Malmo.MalmoMod;
 import com.microsoft.Malmo.Schemas.MissionInit;
+import com.microsoft.Malmo.Utils.ChunkPreloadHelper;
 import com.microsoft.Malmo.Utils.TimeHelper;
 
 import io.netty.buffer.ByteBuf;
@@ -50,6 +51,8 @@ public class ObservationFromSystemImplementation extends ObservationFromServer
             {
                 System.out.println("Warning: server tick rate not available.");
             }
+            json.addProperty("chunkPreloadMs", ChunkPreloadHelper.getLastPreloadMillis());
+            json.addProperty("chunkPreloadCount", ChunkPreloadHelper.getLastPreloadChunks());
         }
 
         @Override
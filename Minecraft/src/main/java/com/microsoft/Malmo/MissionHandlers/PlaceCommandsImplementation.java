@@ -19,6 +19,9 @@
 
 package com.microsoft.Malmo.MissionHandlers;
 
+import java.util.Collection;
+import java.util.Collections;
+
 import com.microsoft.Malmo.MalmoMod;
 import com.microsoft.Malmo.Schemas.*;
 import com.microsoft.Malmo.Schemas.MissionInit;
@@ -42,6 +45,11 @@ import net.minecraft.util.math.RayTraceResult;
 public class PlaceCommandsImplementation extends CommandBase implements ICommandHandler {
     private boolean isOverriding;
 
+    @Override
+    public Collection<String> getHandledVerbs() {
+        return Collections.singletonList("place");
+    }
+
     @Override
     protected boolean onExecute(String verb, String parameter, MissionInit missionInit) {
         EntityPlayerSP player = Minecraft.getMinecraft().player;
@@ -1,7 +1,7 @@
 package com.microsoft.Malmo.MissionHandlers;
 
 import java.util.Arrays;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -65,19 +65,16 @@ public class RewardBase extends HandlerBase implements IRewardProducer
         else
             scaled_reward = 0;  // There's a distribution, but we're not included in it - we get nothing.
         // Now broadcast the reward to the other clients (but don't make a map entry for ourselves)
-        Map<String, String> data = new HashMap<String, String>();
+        Map<String, Float> shares = new LinkedHashMap<String, Float>();
         for (String agent : parties)
         {
             String[] parts = agent.split(":");
             if (parts.length == 2 && ind != 0)
-                data.put(parts[0], parts[1]);
+                shares.put(parts[0], Float.valueOf(parts[1]));
             ind--;
         }
-        // And put the original reward in the map:
-        data.put("original_reward", ((Float)reward).toString());
-        // And the dimension:
-        data.put("dimension", ((Integer)dimension).toString());
-        MalmoMod.network.sendToServer(new MalmoMod.MalmoMessage(MalmoMessageType.CLIENT_SHARE_REWARD, 0, data));
+        // Send it along with the original reward and the dimension:
+        MalmoMod.network.sendToServer(MalmoMod.MalmoTypedMessage.shareReward(MalmoMessageType.CLIENT_SHARE_REWARD, dimension, reward, shares));
         return scaled_reward;
     }
 
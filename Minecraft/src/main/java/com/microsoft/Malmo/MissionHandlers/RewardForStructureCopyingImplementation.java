@@ -5,15 +5,16 @@ import java.util.Map;
 import net.minecraftforge.common.MinecraftForge;
 
 import com.microsoft.Malmo.MalmoMod;
-import com.microsoft.Malmo.MalmoMod.IMalmoMessageListener;
+import com.microsoft.Malmo.MalmoMod.IMalmoTypedMessageListener;
 import com.microsoft.Malmo.MalmoMod.MalmoMessageType;
+import com.microsoft.Malmo.MalmoMod.MalmoTypedMessage;
 import com.microsoft.Malmo.MissionHandlerInterfaces.IRewardProducer;
 import com.microsoft.Malmo.MissionHandlerInterfaces.IWantToQuit;
 import com.microsoft.Malmo.Schemas.MissionInit;
 import com.microsoft.Malmo.Schemas.RewardDensityForBuildAndBreak;
 import com.microsoft.Malmo.Schemas.RewardForStructureCopying;
 
-public class RewardForStructureCopyingImplementation extends RewardBase implements IRewardProducer, IMalmoMessageListener
+public class RewardForStructureCopyingImplementation extends RewardBase implements IRewardProducer, IMalmoTypedMessageListener
 {
     private RewardForStructureCopying rscparams;
     private RewardDensityForBuildAndBreak rewardDensity;
@@ -132,6 +133,23 @@ public class RewardForStructureCopyingImplementation extends RewardBase implemen
         MalmoMod.MalmoMessageHandler.deregisterForMessage(this, MalmoMessageType.SERVER_MISSIONOVER);
     }
 
+    @Override
+    public void onTypedMessage(MalmoTypedMessage message)
+    {
+        if (message.getMessageType() == MalmoMessageType.SERVER_BUILDBATTLEREWARD)
+        {
+            synchronized (this)
+            {
+                if (message.isCompleted())
+                {
+                    this.structureHasBeenCompleted = true;
+                    this.reward += this.rscparams.getRewardForCompletion().floatValue();
+                }
+                this.reward += message.getReward() * this.rscparams.getRewardScale().floatValue();
+            }
+        }
+    }
+
     @Override
     public void onMessage(MalmoMessageType messageType, Map<String, String> data)
     {
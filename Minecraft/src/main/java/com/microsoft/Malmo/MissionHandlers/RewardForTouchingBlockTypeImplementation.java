@@ -20,13 +20,16 @@
 package com.microsoft.Malmo.MissionHandlers;
 
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import net.minecraft.block.Block;
 import net.minecraft.block.state.IBlockState;
 import net.minecraft.client.Minecraft;
 import net.minecraft.client.entity.EntityPlayerSP;
-import net.minecraft.util.math.BlockPos;
 import net.minecraftforge.common.MinecraftForge;
 import net.minecraftforge.fml.common.eventhandler.SubscribeEvent;
 
@@ -36,33 +39,32 @@ import com.microsoft.Malmo.Schemas.BlockSpecWithRewardAndBehaviour;
 import com.microsoft.Malmo.Schemas.BlockType;
 import com.microsoft.Malmo.Schemas.MissionInit;
 import com.microsoft.Malmo.Schemas.RewardForTouchingBlockType;
+import com.microsoft.Malmo.Utils.LongHashSet;
 import com.microsoft.Malmo.Utils.MinecraftTypeHelper;
-import com.microsoft.Malmo.Utils.PositionHelper;
+import com.microsoft.Malmo.Utils.TouchingBlocks;
 
 public class RewardForTouchingBlockTypeImplementation extends RewardBase implements IRewardProducer {
     private class BlockMatcher {
         boolean hasFired = false;
         BlockSpecWithRewardAndBehaviour spec;
-        ArrayList<String> allowedBlockNames;
-        ArrayList<BlockPos> firedBlocks = new ArrayList<BlockPos>();
+        Set<Block> allowedBlocks;
+        Map<IBlockState, Boolean> matchingStates = new IdentityHashMap<IBlockState, Boolean>();  // Filled in as states are seen.
+        LongHashSet firedBlocks = new LongHashSet();  // BlockPos.toLong() keys.
         long lastFired;
         
         BlockMatcher(BlockSpecWithRewardAndBehaviour spec) {
             this.spec = spec;
 
             // Get the allowed blocks:
-            // (Convert from the enum name to the unlocalised name.)
-            this.allowedBlockNames = new ArrayList<String>();
+            this.allowedBlocks = new HashSet<Block>();
             List<BlockType> allowedTypes = spec.getType();
             if (allowedTypes != null) {
-                for (BlockType bt : allowedTypes) {
-                    Block b = Block.getBlockFromName(bt.value());
-                    this.allowedBlockNames.add(b.getUnlocalizedName());
-                }
+                for (BlockType bt : allowedTypes)
+                    this.allowedBlocks.addAll(MinecraftTypeHelper.getBlocksSharingName(bt));
             }
         }
 
-        boolean applies(BlockPos bp) {
+        boolean applies(long bp) {
             switch (this.spec.getBehaviour()) {
             case ONCE_ONLY:
                 return !this.hasFired;
@@ -79,23 +81,26 @@ public class RewardForTouchingBlockTypeImplementation extends RewardBase impleme
             return true;
         }
 
-        boolean matches(BlockPos bp, IBlockState bs) {
-            boolean match = false;
-
-            // See whether the blockstate matches our specification:
-            for (String allowedbs : this.allowedBlockNames) {
-                if (allowedbs.equals(bs.getBlock().getUnlocalizedName()))
-                    match = true;
+        boolean matches(long bp, IBlockState bs) {
+            // Whether a state matches never changes, so only work it out once per state:
+            Boolean cached = this.matchingStates.get(bs);
+            boolean match;
+            if (cached != null) {
+                match = cached;
+            } else {
+                // See whether the blockstate matches our specification:
+                match = this.allowedBlocks.contains(bs.getBlock());
+
+                // This type of block is a match, but does the colour match?
+                if (match && this.spec.getColour() != null && !this.spec.getColour().isEmpty())
+                    match = MinecraftTypeHelper.blockColourMatches(bs, this.spec.getColour());
+
+                // Matches type and colour, but does the variant match?
+                if (match && this.spec.getVariant() != null && !this.spec.getVariant().isEmpty())
+                    match = MinecraftTypeHelper.blockVariantMatches(bs, this.spec.getVariant());
+                this.matchingStates.put(bs, match);
             }
 
-            // This type of block is a match, but does the colour match?
-            if (match && this.spec.getColour() != null && !this.spec.getColour().isEmpty())
-                match = MinecraftTypeHelper.blockColourMatches(bs, this.spec.getColour());
-
-            // Matches type and colour, but does the variant match?
-            if (match && this.spec.getVariant() != null && !this.spec.getVariant().isEmpty())
-                match = MinecraftTypeHelper.blockVariantMatches(bs, this.spec.getVariant());
-
             if (match)
             {
                 // We're firing.
@@ -139,13 +144,13 @@ public class RewardForTouchingBlockTypeImplementation extends RewardBase impleme
 
     private void calculateReward(MultidimensionalReward reward)
     {
-        // Determine what blocks we are touching.
-        // This code is largely cribbed from Entity, where it is used to fire the Block.onEntityCollidedWithBlock methods.
+        // Determine what blocks we are touching - shared with anything else that wants to know this tick:
         EntityPlayerSP player = Minecraft.getMinecraft().player;
 
-        List<BlockPos> touchingBlocks = PositionHelper.getTouchingBlocks(player);
-        for (BlockPos pos : touchingBlocks) {
-            IBlockState iblockstate = player.world.getBlockState(pos);
+        TouchingBlocks touchingBlocks = TouchingBlocks.get(player);
+        for (int i = 0; i < touchingBlocks.size(); i++) {
+            long pos = touchingBlocks.getPositionKey(i);
+            IBlockState iblockstate = touchingBlocks.getState(i);
             for (BlockMatcher bm : this.matchers) {
                 if (bm.applies(pos) && bm.matches(pos, iblockstate))
                 {
@@ -3,12 +3,24 @@ package com.microsoft.Malmo.MissionHandlers;
 import java.util.Map;
 
 import com.microsoft.Malmo.MalmoMod;
-import com.microsoft.Malmo.MalmoMod.IMalmoMessageListener;
+import com.microsoft.Malmo.MalmoMod.IMalmoTypedMessageListener;
 import com.microsoft.Malmo.MalmoMod.MalmoMessageType;
+import com.microsoft.Malmo.MalmoMod.MalmoTypedMessage;
 import com.microsoft.Malmo.Schemas.MissionInit;
 
-public class RewardFromTeamImplementation extends RewardBase implements IMalmoMessageListener
+public class RewardFromTeamImplementation extends RewardBase implements IMalmoTypedMessageListener
 {
+    @Override
+    public void onTypedMessage(MalmoTypedMessage message)
+    {
+        if (message.getMessageType() == MalmoMessageType.SERVER_SHARE_REWARD)
+        {
+            Float scale_factor = message.getShares().get(getAgentName());
+            if (scale_factor != null)
+                addCachedReward(message.getDimension(), message.getReward() * scale_factor);
+        }
+    }
+
     @Override
     public void onMessage(MalmoMessageType messageType, Map<String, String> data)
     {
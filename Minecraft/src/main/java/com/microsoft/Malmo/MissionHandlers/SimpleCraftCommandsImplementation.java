@@ -21,6 +21,8 @@ package com.microsoft.Malmo.MissionHandlers;
 
 import io.netty.buffer.ByteBuf;
 
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 
 import net.minecraft.entity.player.EntityPlayerMP;
@@ -93,6 +95,12 @@ public class SimpleCraftCommandsImplementation extends CommandBase
         }
     }
 
+    @Override
+    public Collection<String> getHandledVerbs()
+    {
+        return Collections.singletonList(SimpleCraftCommand.CRAFT.value());
+    }
+
     @Override
     protected boolean onExecute(String verb, String parameter, MissionInit missionInit)
     {
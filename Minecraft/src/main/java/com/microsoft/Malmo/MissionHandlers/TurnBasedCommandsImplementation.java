@@ -1,5 +1,6 @@
 package com.microsoft.Malmo.MissionHandlers;
 
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -74,6 +75,12 @@ public class TurnBasedCommandsImplementation extends CommandGroup implements IMa
         super.setOverriding(b);
     }
 
+    @Override
+    protected Collection<String> getGroupVerbs()
+    {
+        return null;    // Our verb is the turn key, which changes every turn.
+    }
+
     @Override
     protected boolean onExecute(String verb, String parameter, MissionInit missionInit)
     {
@@ -87,17 +94,16 @@ public class TurnBasedCommandsImplementation extends CommandGroup implements IMa
         // Now pass the command on to our sub-handlers.
         // The key will have been stripped off as the first parameter;
         // we assume the parameter string consists of the *real* command, plus parameters.
-        // CommandGroup.onExecute rejoins the verb and parameter before passing to the children,
-        // so we can pass an empty verb, and the right thing will happen.
-        boolean processed = super.onExecute(parameter, "", missionInit);
+        String[] parms = parameter.split(" ", 2);
+        String realVerb = parms[0].toLowerCase();
+        String realParameter = (parms.length > 1) ? parms[1] : "";
+        boolean processed = super.onExecute(realVerb, realParameter, missionInit);
         if (processed)
         {
             // We have taken our turn:
             this.observationProducer.turnUsed();
             // Let the server know that we need to be rescheduled:
-            Map<String, String> data = new HashMap<String, String>();
-            data.put("agentname", this.agentName);
-            MalmoMod.network.sendToServer(new MalmoMod.MalmoMessage(MalmoMessageType.CLIENT_TURN_TAKEN, 0, data));
+            MalmoMod.network.sendToServer(MalmoMod.MalmoTypedMessage.turnTaken(this.agentName));
         }
         return processed;
     }
@@ -24,7 +24,6 @@ import static org.lwjgl.opengl.GL11.GL_FLOAT;
 import static org.lwjgl.opengl.GL11.GL_RGB;
 import static org.lwjgl.opengl.GL11.GL_RGBA;
 import static org.lwjgl.opengl.GL11.GL_UNSIGNED_BYTE;
-import static org.lwjgl.opengl.GL11.glReadPixels;
 
 import java.nio.ByteBuffer;
 import java.nio.FloatBuffer;
@@ -40,12 +39,15 @@ import org.lwjgl.opengl.GL30;
 import com.microsoft.Malmo.MissionHandlerInterfaces.IVideoProducer;
 import com.microsoft.Malmo.Schemas.MissionInit;
 import com.microsoft.Malmo.Schemas.VideoProducer;
+import com.microsoft.Malmo.Utils.PixelBufferReader;
 
 public class VideoProducerImplementation extends HandlerBase implements IVideoProducer
 {
     private VideoProducer videoParams;
     private Framebuffer fbo;
     private FloatBuffer depthBuffer;
+    private PixelBufferReader colourReader;
+    private PixelBufferReader depthReader;
 
     @Override
     public boolean parseParameters(Object params)
@@ -81,8 +83,8 @@ public class VideoProducerImplementation extends HandlerBase implements IVideoPr
         GL30.glBlitFramebuffer(0, 0, Minecraft.getMinecraft().getFramebuffer().framebufferWidth, Minecraft.getMinecraft().getFramebuffer().framebufferHeight, 0, 0, width, height, GL11.GL_COLOR_BUFFER_BIT | GL11.GL_DEPTH_BUFFER_BIT, GL11.GL_NEAREST);
 
         this.fbo.bindFramebuffer(true);
-        glReadPixels(0, 0, width, height, GL_RGBA, GL_UNSIGNED_BYTE, buffer);
-        glReadPixels(0, 0, width, height, GL_DEPTH_COMPONENT, GL_FLOAT, this.depthBuffer);
+        this.colourReader.readPixels(width, height, GL_RGBA, GL_UNSIGNED_BYTE, buffer);
+        this.depthReader.readPixels(width, height, GL_DEPTH_COMPONENT, GL_FLOAT, this.depthBuffer);
         this.fbo.unbindFramebuffer();
 
         // Now convert the depth buffer into values from 0-255 and copy it over
@@ -154,6 +156,12 @@ public class VideoProducerImplementation extends HandlerBase implements IVideoPr
         return this.videoParams.getWidth() * this.videoParams.getHeight() * (this.videoParams.isWantDepth() ? 4 : 3);
     }
 
+    @Override
+    public int getFrameLatency()
+    {
+        return this.colourReader != null ? this.colourReader.getLatencyInFrames() : 0;
+    }
+
     private void getRGBFrame(ByteBuffer buffer)
     {
         final int format = GL_RGB;
@@ -168,7 +176,7 @@ public class VideoProducerImplementation extends HandlerBase implements IVideoPr
         // GlStateManager.bindTexture(this.fbo.framebufferTexture);
         // GL11.glGetTexImage(GL11.GL_TEXTURE_2D, 0, format, GL_UNSIGNED_BYTE,
         // buffer);
-        glReadPixels(0, 0, width, height, format, GL_UNSIGNED_BYTE, buffer);
+        this.colourReader.readPixels(width, height, format, GL_UNSIGNED_BYTE, buffer);
         this.fbo.unbindFramebuffer();
         GlStateManager.enableDepth();
         Minecraft.getMinecraft().getFramebuffer().bindFramebuffer(true);
@@ -180,7 +188,11 @@ public class VideoProducerImplementation extends HandlerBase implements IVideoPr
         this.fbo = new Framebuffer(this.videoParams.getWidth(), this.videoParams.getHeight(), true);
         // Create a buffer for retrieving the depth map, if requested:
         if (this.videoParams.isWantDepth())
+        {
             this.depthBuffer = BufferUtils.createFloatBuffer(this.videoParams.getWidth() * this.videoParams.getHeight());
+            this.depthReader = new PixelBufferReader(this.videoParams.getReadbackBuffers(), this.videoParams.getWidth() * this.videoParams.getHeight() * 4);
+        }
+        this.colourReader = new PixelBufferReader(this.videoParams.getReadbackBuffers(), getRequiredBufferSize());
         // Set the requested camera position
         Minecraft.getMinecraft().gameSettings.thirdPersonView = this.videoParams.getViewpoint();
     }
@@ -189,5 +201,8 @@ public class VideoProducerImplementation extends HandlerBase implements IVideoPr
     public void cleanup()
     {
         this.fbo.deleteFramebuffer(); // Must do this or we leak resources.
+        this.colourReader.cleanup();
+        if (this.depthReader != null)
+            this.depthReader.cleanup();
     }
 }
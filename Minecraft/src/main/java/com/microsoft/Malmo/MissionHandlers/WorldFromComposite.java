@@ -27,10 +27,11 @@ import net.minecraft.world.World;
 
 import com.microsoft.Malmo.MissionHandlerInterfaces.IWorldDecorator;
 import com.microsoft.Malmo.Schemas.MissionInit;
+import com.microsoft.Malmo.Utils.DecoratorLayoutPool;
 
 /** Composite class that manages a set of world builders
  */
-public class WorldFromComposite extends HandlerBase implements IWorldDecorator
+public class WorldFromComposite extends HandlerBase implements IWorldDecorator, DecoratorLayoutPool.ILayoutDecorator
 {
     private ArrayList<IWorldDecorator> builders = new ArrayList<IWorldDecorator>();
 
@@ -48,6 +49,15 @@ public class WorldFromComposite extends HandlerBase implements IWorldDecorator
         }
     }
 
+    @Override
+    public void startLayout()
+    {
+        for (IWorldDecorator builder : this.builders)
+        {
+            DecoratorLayoutPool.startLayouts(builder);
+        }
+    }
+
     @Override
     public void update(World world)
     {
@@ -27,13 +27,15 @@ import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.tree.AbstractInsnNode;
 import org.objectweb.asm.tree.ClassNode;
 import org.objectweb.asm.tree.FieldInsnNode;
+import org.objectweb.asm.tree.InsnList;
 import org.objectweb.asm.tree.LdcInsnNode;
 import org.objectweb.asm.tree.MethodInsnNode;
 import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.VarInsnNode;
 
 public class OverclockingClassTransformer implements IClassTransformer
 {
-    enum transformType { SERVER, RENDERER, OTHERPLAYER, TEXTURES }
+    enum transformType { SERVER, RENDERER, OTHERPLAYER, TEXTURES, REGIONFILE }
     
     @Override
     public byte[] transform(String name, String transformedName, byte[] basicClass)
@@ -49,6 +51,8 @@ public class OverclockingClassTransformer implements IClassTransformer
             return transform(basicClass, isObfuscated, transformType.OTHERPLAYER);
         else if (transformedName.equals("net.minecraft.client.renderer.GlStateManager"))
             return transform(basicClass, isObfuscated, transformType.TEXTURES);
+        else if (transformedName.equals("net.minecraft.world.chunk.storage.RegionFile"))
+            return transform(basicClass, isObfuscated, transformType.REGIONFILE);
         else
             return basicClass;
     }
@@ -75,6 +79,9 @@ public class OverclockingClassTransformer implements IClassTransformer
                 break;
             case TEXTURES:
                 insertTextureHandler(cnode, isObfuscated);
+                break;
+            case REGIONFILE:
+                insertRegionFileHook(cnode, isObfuscated);
             }
             
             ClassWriter cwriter = new ClassWriter(ClassWriter.COMPUTE_MAXS | ClassWriter.COMPUTE_FRAMES);
@@ -252,4 +259,36 @@ public class OverclockingClassTransformer implements IClassTransformer
         }
     }
 
+    private static void insertRegionFileHook(ClassNode node, boolean isObfuscated)
+    {
+        // We're attempting to add this line to the start of the RegionFile(File fileNameIn) constructor,
+        // straight after the call to the Object constructor:
+        //          MapFileHelper.unshareRegionFile(fileNameIn);
+        // This gives MapFileHelper the chance to replace a region file that is hard-linked to a basemap with a real copy,
+        // before the constructor opens it for writing.
+
+        final String methodName = "<init>";
+        final String methodDescriptor = "(Ljava/io/File;)V"; // Takes a File, returns void.
+
+        System.out.println("MALMO: Found RegionFile, attempting to transform it");
+
+        for (MethodNode method : node.methods)
+        {
+            if (method.name.equals(methodName) && method.desc.equals(methodDescriptor))
+            {
+                for (AbstractInsnNode instruction : method.instructions.toArray())
+                {
+                    if (instruction.getOpcode() == Opcodes.INVOKESPECIAL && ((MethodInsnNode)instruction).name.equals("<init>"))
+                    {
+                        InsnList hook = new InsnList();
+                        hook.add(new VarInsnNode(Opcodes.ALOAD, 1));
+                        hook.add(new MethodInsnNode(Opcodes.INVOKESTATIC, "com/microsoft/Malmo/Utils/MapFileHelper", "unshareRegionFile", "(Ljava/io/File;)V", false));
+                        method.instructions.insert(instruction, hook);
+                        System.out.println("MALMO: Hooked into RegionFile constructor");
+                        return;
+                    }
+                }
+            }
+        }
+    }
 }
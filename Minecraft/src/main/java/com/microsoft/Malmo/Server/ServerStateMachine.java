@@ -24,8 +24,10 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import javax.xml.bind.JAXBElement;
 import javax.xml.bind.JAXBException;
@@ -56,6 +58,7 @@ import com.microsoft.Malmo.IState;
 import com.microsoft.Malmo.MalmoMod;
 import com.microsoft.Malmo.MalmoMod.IMalmoMessageListener;
 import com.microsoft.Malmo.MalmoMod.MalmoMessageType;
+import com.microsoft.Malmo.MalmoMod.MalmoTypedMessage;
 import com.microsoft.Malmo.StateEpisode;
 import com.microsoft.Malmo.StateMachine;
 import com.microsoft.Malmo.MissionHandlerInterfaces.IWorldDecorator.DecoratorException;
@@ -71,11 +74,17 @@ import com.microsoft.Malmo.Schemas.ModSettings;
 import com.microsoft.Malmo.Schemas.PosAndDirection;
 import com.microsoft.Malmo.Schemas.ServerInitialConditions;
 import com.microsoft.Malmo.Schemas.ServerSection;
+import com.microsoft.Malmo.Utils.ChunkChangeTracker;
+import com.microsoft.Malmo.Utils.ChunkPreloadHelper;
+import com.microsoft.Malmo.Utils.DecoratorLayoutPool;
 import com.microsoft.Malmo.Utils.EnvironmentHelper;
+import com.microsoft.Malmo.Utils.EpisodeChangeLog;
+import com.microsoft.Malmo.Utils.IncrementalGrid;
 import com.microsoft.Malmo.Utils.MinecraftTypeHelper;
 import com.microsoft.Malmo.Utils.SchemaHelper;
 import com.microsoft.Malmo.Utils.ScreenHelper;
 import com.microsoft.Malmo.Utils.TimeHelper;
+import com.microsoft.Malmo.Utils.WorldSnapshotCache;
 
 /**
  * Class designed to track and control the state of the mod, especially regarding mission launching/running.<br>
@@ -154,6 +163,8 @@ public class ServerStateMachine extends StateMachine
     protected void initialiseHandlers(MissionInit init) throws Exception
     {
         this.missionHandlers = MissionBehaviour.createServerHandlersFromMissionInit(init);
+        // Get any decorator layouts going while the world is got ready for them:
+        DecoratorLayoutPool.startLayouts(this.missionHandlers.worldDecorator);
     }
 
     protected MissionBehaviour getHandlers()
@@ -537,13 +548,27 @@ public class ServerStateMachine extends StateMachine
         	MinecraftServer server = FMLCommonHandler.instance().getMinecraftServerInstance();
         	World world = server.getEntityWorld();
             MissionBehaviour handlers = this.ssmachine.getHandlers();
+            MissionInit missionInit = this.ssmachine.currentMissionInit();
+            // If the last mission in this world recorded its changes, undo them:
+            EpisodeChangeLog.revert(world);
+            // If the mission wants a fresh world, and we have a snapshot from its last run, the client will have kept the
+            // current world - so put the snapshot back. Otherwise, watch what the decorators change, so we can take one.
+            boolean takeSnapshot = false;
+            if (WorldSnapshotCache.isRequested(missionInit))
+                takeSnapshot = !WorldSnapshotCache.restore(missionInit, world);
+            else
+                WorldSnapshotCache.invalidate();
+            ChunkChangeTracker tracker = new ChunkChangeTracker();
+            tracker.attach(world);
             // Assume the world has been created correctly - now do the necessary building.
+            // (The decorators still run after a snapshot restore, since they may need to set up the mission - eg agent
+            // start positions - but the blocks they write will mostly be there already.)
             boolean builtOkay = true;
             if (handlers != null && handlers.worldDecorator != null)
             {
                 try
                 {
-                    handlers.worldDecorator.buildOnWorld(this.ssmachine.currentMissionInit(), world);
+                    handlers.worldDecorator.buildOnWorld(missionInit, world);
                 }
                 catch (DecoratorException e)
                 {
@@ -559,8 +584,18 @@ public class ServerStateMachine extends StateMachine
                     episodeHasCompleted(ServerState.ERROR);
                 }
             }
+            tracker.detach();
             if (builtOkay)
             {
+                if (takeSnapshot)
+                    WorldSnapshotCache.capture(missionInit, world, tracker);
+                // Get the chunks the agents will start in, and the ones the decorators have built on, loaded and ready
+                // before the agents are told to join:
+                Set<Long> chunks = new LinkedHashSet<Long>();
+                ChunkPreloadHelper.addChunksAroundAgents(chunks, missionInit, world, ChunkPreloadHelper.AGENT_RADIUS_CHUNKS);
+                chunks.addAll(tracker.getChangedChunks());
+                ChunkPreloadHelper.preload(world, chunks);
+
                 // Now set up other attributes of the environment (eg weather)
                 EnvironmentHelper.setMissionWeather(currentMissionInit(), server.getEntityWorld().getWorldInfo());
                 episodeHasCompleted(ServerState.WAITING_FOR_AGENTS_TO_ASSEMBLE);
@@ -1021,7 +1056,7 @@ public class ServerStateMachine extends StateMachine
     //---------------------------------------------------------------------------------------------------------
     /** Mission running state.
      */
-    public class RunningEpisode extends ErrorAwareEpisode
+    public class RunningEpisode extends ErrorAwareEpisode implements MalmoMod.IMalmoTypedMessageListener
     {
         ArrayList<String> runningAgents = new ArrayList<String>();
         boolean missionHasEnded = false;
@@ -1052,6 +1087,8 @@ public class ServerStateMachine extends StateMachine
         public void cleanup()
         {
             super.cleanup();
+            EpisodeChangeLog.stopRecording();
+            IncrementalGrid.clear();
             MalmoMod.MalmoMessageHandler.deregisterForMessage(this, MalmoMessageType.CLIENT_AGENTFINISHEDMISSION);
             MalmoMod.MalmoMessageHandler.deregisterForMessage(this, MalmoMessageType.CLIENT_SHARE_REWARD);
             MalmoMod.MalmoMessageHandler.deregisterForMessage(this, MalmoMessageType.CLIENT_TURN_TAKEN);
@@ -1079,40 +1116,60 @@ public class ServerStateMachine extends StateMachine
             }
             else if (messageType == MalmoMessageType.CLIENT_TURN_TAKEN)
             {
-                String agentName = data.get("agentname");
-                //String userName = data.get("username");
-                String nextAgentName = ServerStateMachine.this.getNextAgentInTurnSchedule(agentName);
-                if (nextAgentName == null)
+                onTurnTaken(data.get("agentname"));
+            }
+        }
+
+        @Override
+        public void onTypedMessage(MalmoTypedMessage message)
+        {
+            if (message.getMessageType() == MalmoMessageType.CLIENT_SHARE_REWARD)
+            {
+                MalmoMod.safeSendToAll(MalmoTypedMessage.shareReward(MalmoMessageType.SERVER_SHARE_REWARD, message.getDimension(), message.getReward(), message.getShares()));
+            }
+            else if (message.getMessageType() == MalmoMessageType.CLIENT_TURN_TAKEN)
+            {
+                onTurnTaken(message.getAgentName());
+            }
+            else
+            {
+                onMessage(message.getMessageType(), message.getData());
+            }
+        }
+
+        private void onTurnTaken(String agentName)
+        {
+            String nextAgentName = ServerStateMachine.this.getNextAgentInTurnSchedule(agentName);
+            if (nextAgentName == null)
+            {
+                // Couldn't find the next agent in the turn schedule. Abort!
+                String error = "ERROR IN TURN SCHEDULER - cannot find the successor to " +  agentName;
+                saveErrorDetails(error);
+                System.out.println(error);
+                MalmoMod.safeSendToAll(MalmoMessageType.SERVER_ABORT);
+                episodeHasCompleted(ServerState.ERROR);
+            }
+            else
+            {
+                // Find the relevant agent; send a message to it.
+                PlayerList scoman = FMLCommonHandler.instance().getMinecraftServerInstance().getPlayerList();
+                EntityPlayerMP player = scoman.getPlayerByUsername(nextAgentName);
+                if (player != null)
                 {
-                    // Couldn't find the next agent in the turn schedule. Abort!
-                    String error = "ERROR IN TURN SCHEDULER - cannot find the successor to " +  agentName;
-                    saveErrorDetails(error);
-                    System.out.println(error);
-                    MalmoMod.safeSendToAll(MalmoMessageType.SERVER_ABORT);
-                    episodeHasCompleted(ServerState.ERROR);
+                    MalmoMod.network.sendTo(MalmoTypedMessage.yourTurn(), player);
                 }
-                else
+                else if (getHandlers().worldDecorator != null)
                 {
-                    // Find the relevant agent; send a message to it.
-                    PlayerList scoman = FMLCommonHandler.instance().getMinecraftServerInstance().getPlayerList();
-                    EntityPlayerMP player = scoman.getPlayerByUsername(nextAgentName);
-                    if (player != null)
+                    // Not a player - is it a world decorator?
+                    boolean handled = getHandlers().worldDecorator.targetedUpdate(nextAgentName);
+                    if (!handled)
                     {
-                        MalmoMod.network.sendTo(new MalmoMod.MalmoMessage(MalmoMessageType.SERVER_YOUR_TURN, ""), player);
-                    }
-                    else if (getHandlers().worldDecorator != null)
-                    {
-                        // Not a player - is it a world decorator?
-                        boolean handled = getHandlers().worldDecorator.targetedUpdate(nextAgentName);
-                        if (!handled)
-                        {
-                            // Couldn't reach the client whose turn it is, and doesn't seem to be a decorator's turn - abort!
-                            String error = "ERROR IN TURN SCHEDULER - could not find client for user " + nextAgentName;
-                            saveErrorDetails(error);
-                            System.out.println(error);
-                            MalmoMod.safeSendToAll(MalmoMessageType.SERVER_ABORT);
-                            episodeHasCompleted(ServerState.ERROR);
-                        }
+                        // Couldn't reach the client whose turn it is, and doesn't seem to be a decorator's turn - abort!
+                        String error = "ERROR IN TURN SCHEDULER - could not find client for user " + nextAgentName;
+                        saveErrorDetails(error);
+                        System.out.println(error);
+                        MalmoMod.safeSendToAll(MalmoMessageType.SERVER_ABORT);
+                        episodeHasCompleted(ServerState.ERROR);
                     }
                 }
             }
@@ -1149,6 +1206,10 @@ public class ServerStateMachine extends StateMachine
             if (getHandlers().worldDecorator != null)
                 getHandlers().worldDecorator.prepare(currentMissionInit());
 
+            // Record what the mission changes, if it wants the changes undone before the next mission:
+            if (EpisodeChangeLog.isRequested(currentMissionInit()))
+                EpisodeChangeLog.startRecording(FMLCommonHandler.instance().getMinecraftServerInstance().getEntityWorld());
+
             // Fire the starting pistol:
             MalmoMod.safeSendToAll(MalmoMessageType.SERVER_GO);
             // And start the turn schedule turning, if there is one:
@@ -1159,7 +1220,7 @@ public class ServerStateMachine extends StateMachine
                 EntityPlayerMP player = scoman.getPlayerByUsername(agentName);
                 if (player != null)
                 {
-                    MalmoMod.network.sendTo(new MalmoMod.MalmoMessage(MalmoMessageType.SERVER_YOUR_TURN, ""), player);
+                    MalmoMod.network.sendTo(MalmoTypedMessage.yourTurn(), player);
                 }
                 else if (getHandlers().worldDecorator != null)
                 {
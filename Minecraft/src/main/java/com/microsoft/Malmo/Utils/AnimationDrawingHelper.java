@@ -1,6 +1,9 @@
 package com.microsoft.Malmo.Utils;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 import net.minecraft.entity.Entity;
@@ -101,6 +104,15 @@ public class AnimationDrawingHelper extends BlockDrawingHelper
         super.clearEntities(w, x1+this.origin.xCoord, y1+this.origin.yCoord, z1+this.origin.zCoord, x2+this.origin.xCoord, y2+this.origin.yCoord, z2+this.origin.zCoord);
     }
 
+    @Override
+    public void clearEntities(World w, Collection<BlockPos> cells)
+    {
+        List<BlockPos> offsetCells = new ArrayList<BlockPos>(cells.size());
+        for (BlockPos pos : cells)
+            offsetCells.add(pos.add(this.origin.xCoord, this.origin.yCoord, this.origin.zCoord));
+        super.clearEntities(w, offsetCells);
+    }
+
     @Override
     protected EntityItem createItem(ItemStack stack, double x, double y, double z, World w, boolean centreItem)
     {
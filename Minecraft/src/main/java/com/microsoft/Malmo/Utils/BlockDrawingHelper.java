@@ -20,7 +20,10 @@
 package com.microsoft.Malmo.Utils;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import javax.xml.bind.JAXBElement;
 
@@ -61,6 +64,7 @@ import net.minecraft.tileentity.TileEntitySign;
 import net.minecraft.util.ResourceLocation;
 import net.minecraft.util.math.AxisAlignedBB;
 import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.MathHelper;
 import net.minecraft.util.text.TextComponentString;
 import net.minecraft.world.World;
 import net.minecraftforge.fml.common.registry.EntityEntry;
@@ -78,6 +82,8 @@ public class BlockDrawingHelper
     }
 
     private List<StateCheck> checkList;
+    private boolean bulkMode = false;
+    private BulkBlockWriter bulkWriter = null;
 
     /** Small class which captures an IBlockState, but also the XML values
      * which created it, if they exist.
@@ -132,15 +138,29 @@ public class BlockDrawingHelper
         }
     }
 
+    /** In bulk mode, blocks are written straight into the chunk storage, and the world is only relit, updated and
+     * sent to the clients once, at endDrawing() - see BulkBlockWriter.
+     */
+    public void setBulkMode(boolean bulkMode)
+    {
+        this.bulkMode = bulkMode;
+    }
+
     public void beginDrawing(World w)
     {
         // Any pre-drawing initialisation code here.
         this.checkList = new ArrayList<StateCheck>();
+        this.bulkWriter = this.bulkMode ? new BulkBlockWriter(w) : null;
     }
     
     public void endDrawing(World w)
     {
         // Post-drawing code.
+        if (this.bulkWriter != null)
+        {
+            this.bulkWriter.flush();
+            this.bulkWriter = null;
+        }
         for (StateCheck sc : this.checkList)
         {
             IBlockState stateActual = w.getBlockState(sc.pos);
@@ -179,6 +199,7 @@ public class BlockDrawingHelper
      */
     public void Draw( DrawingDecorator drawingNode, World world ) throws Exception
     {
+        setBulkMode(drawingNode.isBulkDraw());
         beginDrawing(world);
 
         for(JAXBElement<?> jaxbobj : drawingNode.getDrawObjectType())
@@ -252,6 +273,7 @@ public class BlockDrawingHelper
             throw new Exception("Unrecognised block type: " + s.getType().value());
  
         int radius = s.getRadius();
+        Set<BlockPos> cells = new HashSet<BlockPos>();
         for( int x = s.getX() - radius; x <= s.getX() + radius; x++ )
         {
             for( int y = s.getY() - radius; y <= s.getY() + radius; y++ )
@@ -262,12 +284,12 @@ public class BlockDrawingHelper
                     {
                         BlockPos pos = new BlockPos( x, y, z );
                         setBlockState( w, pos, blockType );
-                        AxisAlignedBB aabb = new AxisAlignedBB(pos, new BlockPos(x+1, y+1, z+1));
-                        clearEntities(w, aabb.minX, aabb.minY, aabb.minZ, aabb.maxX, aabb.maxY, aabb.maxZ);
+                        cells.add(pos);
                     }
                 }
             }
         }
+        clearEntities(w, cells);
     }
 
     /**
@@ -307,26 +329,28 @@ public class BlockDrawingHelper
         int prevY = l.getY1();
         int prevZ = l.getZ1();
         int prevX = l.getX1();
+        Set<BlockPos> cells = new HashSet<BlockPos>();
         for (int i = 0; i <= steps; i++)
         {
             int x = Math.round(l.getX1() + (float)i * dx);
             int y = Math.round(l.getY1() + (float)i * dy);
             int z = Math.round(l.getZ1() + (float)i * dz);
             BlockPos pos = new BlockPos(x, y, z);
-            clearEntities(w, x, y, z, x + 1, y + 1, z + 1);
+            cells.add(pos);
             setBlockState(w, pos, y == prevY ? blockType : stepType);
 
             // Ensure 4-connected:
             if (x != prevX && z != prevZ)
             {
                 pos = new BlockPos(x, y, prevZ);
-                clearEntities(w, x, y, prevZ, x + 1, y + 1, prevZ + 1);
+                cells.add(pos);
                 setBlockState(w, pos, y == prevY ? blockType : stepType);
             }
             prevY = y;
             prevX = x;
             prevZ = z;
         }
+        clearEntities(w, cells);
     }
     
     public void clearEntities(World w, double x1, double y1, double z1, double x2, double y2, double z2)
@@ -337,6 +361,45 @@ public class BlockDrawingHelper
                 w.removeEntity(ent);
     }
 
+    /**
+     * Remove any entities (other than players) which overlap any of the given block cells.<br>
+     * Uses a single query over the cells' bounding box, rather than one query per cell.
+     * @param w The world from which to remove the entities.
+     * @param cells The positions of the blocks which need to be clear of entities.
+     */
+    public void clearEntities(World w, Collection<BlockPos> cells)
+    {
+        if (cells.isEmpty())
+            return;
+        int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE, minZ = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE, maxZ = Integer.MIN_VALUE;
+        for (BlockPos pos : cells)
+        {
+            minX = Math.min(minX, pos.getX());
+            minY = Math.min(minY, pos.getY());
+            minZ = Math.min(minZ, pos.getZ());
+            maxX = Math.max(maxX, pos.getX());
+            maxY = Math.max(maxY, pos.getY());
+            maxZ = Math.max(maxZ, pos.getZ());
+        }
+        Set<BlockPos> cellSet = (cells instanceof Set) ? (Set<BlockPos>)cells : new HashSet<BlockPos>(cells);
+        List<Entity> entities = w.getEntitiesWithinAABBExcludingEntity(null,  new AxisAlignedBB(minX, minY, minZ, maxX + 1, maxY + 1, maxZ + 1));
+        for (Entity ent : entities)
+        {
+            if (ent instanceof EntityPlayer)
+                continue;
+            // Check the cells the entity actually overlaps:
+            AxisAlignedBB bb = ent.getEntityBoundingBox();
+            boolean overlaps = false;
+            for (int x = MathHelper.floor(bb.minX); x < MathHelper.ceil(bb.maxX) && !overlaps; x++)
+                for (int y = MathHelper.floor(bb.minY); y < MathHelper.ceil(bb.maxY) && !overlaps; y++)
+                    for (int z = MathHelper.floor(bb.minZ); z < MathHelper.ceil(bb.maxZ) && !overlaps; z++)
+                        overlaps = cellSet.contains(new BlockPos(x, y, z));
+            if (overlaps)
+                w.removeEntity(ent);
+        }
+    }
+
     /**
      * Spawn a single item at the specified position.
      * @param i Contains information about the item to be spawned.
@@ -568,7 +631,10 @@ public class BlockDrawingHelper
         }
 
         // Actually set the block state into the world:
-        w.setBlockState(pos, state.state);
+        if (this.bulkWriter != null && this.bulkWriter.getWorld() == w)
+            this.bulkWriter.setBlockState(pos, state.state);
+        else
+            w.setBlockState(pos, state.state);
 
         // And now do the necessary post-placement processing:
         if (state.type == BlockType.MOB_SPAWNER)
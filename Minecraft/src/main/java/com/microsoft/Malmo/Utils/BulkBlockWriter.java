@@ -0,0 +1,219 @@
+// --------------------------------------------------------------------------------------------------
+//  Copyright (c) 2016 Microsoft Corporation
+//
+//  Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+//  associated documentation files (the "Software"), to deal in the Software without restriction,
+//  including without limitation the rights to use, copy, modify, merge, publish, distribute,
+//  sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+//  furnished to do so, subject to the following conditions:
+//
+//  The above copyright notice and this permission notice shall be included in all copies or
+//  substantial portions of the Software.
+//
+//  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+//  NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+//  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+//  DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+//  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+// --------------------------------------------------------------------------------------------------
+
+package com.microsoft.Malmo.Utils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import net.minecraft.block.Block;
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.network.play.server.SPacketChunkData;
+import net.minecraft.server.management.PlayerChunkMapEntry;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.World;
+import net.minecraft.world.WorldServer;
+import net.minecraft.world.chunk.Chunk;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
+
+/**
+ * Writes blocks straight into the chunk section storage, and leaves relighting, neighbour notification and sending
+ * the changes to the clients until flush() - which does each of them once per touched chunk, rather than once per
+ * block as World.setBlockState() does.<br>
+ * Blocks still get their breakBlock() and onBlockAdded() calls (so, for example, placed liquids will still flow).
+ * Blocks with tile entities, blocks that replace them, and the first block written into an empty chunk section all go
+ * through World.setBlockState() as normal.<br>
+ * Neighbours are only notified where the written blocks border unwritten ones. Sky light is regenerated for each
+ * touched chunk, with Minecraft's usual gap lighting taking care of the chunk edges; block light is rechecked only
+ * where the light emitted by a block has changed.
+ */
+public class BulkBlockWriter
+{
+    /** The blocks written in one 16x16x16 chunk section, as a bitmap indexed by (y << 8 | z << 4 | x).*/
+    private static class Section
+    {
+        final int chunkX;
+        final int sectionY;
+        final int chunkZ;
+        final long[] written = new long[64];
+
+        Section(int chunkX, int sectionY, int chunkZ)
+        {
+            this.chunkX = chunkX;
+            this.sectionY = sectionY;
+            this.chunkZ = chunkZ;
+        }
+
+        boolean contains(int x, int y, int z)
+        {
+            return (x >> 4) == this.chunkX && (y >> 4) == this.sectionY && (z >> 4) == this.chunkZ;
+        }
+
+        boolean isWritten(int x, int y, int z)
+        {
+            int index = ((y & 15) << 8) | ((z & 15) << 4) | (x & 15);
+            return (this.written[index >> 6] & (1L << (index & 63))) != 0;
+        }
+
+        void setWritten(int x, int y, int z)
+        {
+            int index = ((y & 15) << 8) | ((z & 15) << 4) | (x & 15);
+            this.written[index >> 6] |= (1L << (index & 63));
+        }
+    }
+
+    private final World world;
+    private final Map<Long, Section> sections = new HashMap<Long, Section>();
+    private final Set<Chunk> chunks = new LinkedHashSet<Chunk>();
+    private final List<BlockPos> lightChecks = new ArrayList<BlockPos>();
+
+    public BulkBlockWriter(World world)
+    {
+        this.world = world;
+    }
+
+    public World getWorld()
+    {
+        return this.world;
+    }
+
+    /** Set the block at pos. The change won't be relit or sent to the clients until flush() is called.*/
+    public void setBlockState(BlockPos pos, IBlockState state)
+    {
+        int y = pos.getY();
+        if (y < 0 || y >= 256)
+            return;
+
+        Chunk chunk = this.world.getChunkFromBlockCoords(pos);
+        ExtendedBlockStorage storage = chunk.getBlockStorageArray()[y >> 4];
+        IBlockState oldState = chunk.getBlockState(pos);
+        if (oldState == state)
+            return;
+
+        Block oldBlock = oldState.getBlock();
+        Block newBlock = state.getBlock();
+        if (storage == null || oldBlock.hasTileEntity(oldState) || newBlock.hasTileEntity(state))
+        {
+            // Let Minecraft do this one - it needs to create the section, or deal with the tile entities.
+            this.world.setBlockState(pos, state);
+            return;
+        }
+
+        storage.set(pos.getX() & 15, y & 15, pos.getZ() & 15, state);
+        if (oldBlock != newBlock)
+        {
+            oldBlock.breakBlock(this.world, pos, oldState);
+            newBlock.onBlockAdded(this.world, pos, state);
+        }
+        if (oldState.getLightValue() != state.getLightValue())
+            this.lightChecks.add(pos);
+
+        getSection(pos.getX() >> 4, y >> 4, pos.getZ() >> 4, true).setWritten(pos.getX(), y, pos.getZ());
+        this.chunks.add(chunk);
+    }
+
+    /** Relight the touched chunks, notify the neighbours of the written blocks, and send the changes to the clients.*/
+    public void flush()
+    {
+        for (Chunk chunk : this.chunks)
+        {
+            chunk.generateSkylightMap();
+            chunk.setChunkModified();
+            // Lets any world listeners (eg ChunkChangeTracker) know the chunk has changed:
+            int x = chunk.xPosition << 4;
+            int z = chunk.zPosition << 4;
+            this.world.markBlockRangeForRenderUpdate(x, 0, z, x + 15, 255, z + 15);
+        }
+        for (BlockPos pos : this.lightChecks)
+            this.world.checkLight(pos);
+
+        // Blocks inside the written volume have already been given their final states, so only the blocks on its
+        // surface need to tell their neighbours about the change:
+        for (Section section : this.sections.values())
+        {
+            int baseX = section.chunkX << 4;
+            int baseY = section.sectionY << 4;
+            int baseZ = section.chunkZ << 4;
+            for (int i = 0; i < section.written.length; i++)
+            {
+                long bits = section.written[i];
+                while (bits != 0)
+                {
+                    int index = (i << 6) | Long.numberOfTrailingZeros(bits);
+                    bits &= bits - 1;
+                    int x = baseX + (index & 15);
+                    int y = baseY + (index >> 8);
+                    int z = baseZ + ((index >> 4) & 15);
+                    if (isOnSurface(section, x, y, z))
+                    {
+                        BlockPos pos = new BlockPos(x, y, z);
+                        this.world.notifyNeighborsOfStateChange(pos, this.world.getBlockState(pos).getBlock(), false);
+                    }
+                }
+            }
+        }
+
+        if (this.world instanceof WorldServer)
+        {
+            for (Chunk chunk : this.chunks)
+            {
+                PlayerChunkMapEntry entry = ((WorldServer)this.world).getPlayerChunkMap().getEntry(chunk.xPosition, chunk.zPosition);
+                if (entry != null)
+                    entry.sendPacket(new SPacketChunkData(chunk, 65535));
+            }
+        }
+
+        this.sections.clear();
+        this.chunks.clear();
+        this.lightChecks.clear();
+    }
+
+    private boolean isOnSurface(Section section, int x, int y, int z)
+    {
+        return !isWritten(section, x - 1, y, z) || !isWritten(section, x + 1, y, z)
+            || !isWritten(section, x, y - 1, z) || !isWritten(section, x, y + 1, z)
+            || !isWritten(section, x, y, z - 1) || !isWritten(section, x, y, z + 1);
+    }
+
+    private boolean isWritten(Section hint, int x, int y, int z)
+    {
+        if (y < 0 || y >= 256)
+            return false;
+        if (hint.contains(x, y, z))
+            return hint.isWritten(x, y, z);
+        Section section = getSection(x >> 4, y >> 4, z >> 4, false);
+        return section != null && section.isWritten(x, y, z);
+    }
+
+    private Section getSection(int chunkX, int sectionY, int chunkZ, boolean create)
+    {
+        Long key = (((long)chunkX & 0x3FFFFFFL) << 30) | (((long)chunkZ & 0x3FFFFFFL) << 4) | (sectionY & 15);
+        Section section = this.sections.get(key);
+        if (section == null && create)
+        {
+            section = new Section(chunkX, sectionY, chunkZ);
+            this.sections.put(key, section);
+        }
+        return section;
+    }
+}
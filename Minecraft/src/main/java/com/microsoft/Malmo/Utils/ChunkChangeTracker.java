@@ -0,0 +1,168 @@
+// --------------------------------------------------------------------------------------------------
+//  Copyright (c) 2016 Microsoft Corporation
+//
+//  Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+//  associated documentation files (the "Software"), to deal in the Software without restriction,
+//  including without limitation the rights to use, copy, modify, merge, publish, distribute,
+//  sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+//  furnished to do so, subject to the following conditions:
+//
+//  The above copyright notice and this permission notice shall be included in all copies or
+//  substantial portions of the Software.
+//
+//  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+//  NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+//  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+//  DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+//  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+// --------------------------------------------------------------------------------------------------
+
+package com.microsoft.Malmo.Utils;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.entity.Entity;
+import net.minecraft.entity.player.EntityPlayer;
+import net.minecraft.util.SoundCategory;
+import net.minecraft.util.SoundEvent;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.world.IWorldEventListener;
+import net.minecraft.world.World;
+
+/**
+ * Listens to a world, and records which chunks have had blocks changed in them, and which entities have been added to it,
+ * for as long as it is attached.<br>
+ * Block changes made through BulkBlockWriter are picked up too, since it marks the chunks it has written for re-rendering.<br>
+ * Optionally, it can also keep a copy of each chunk as it was before its first block change, so that the changes can be
+ * undone later. (Changes made through BulkBlockWriter can't be undone this way - the originals are already gone by the
+ * time it tells us about them.)
+ */
+public class ChunkChangeTracker implements IWorldEventListener
+{
+    private World world = null;
+    private final Set<Long> changedChunks = new LinkedHashSet<Long>();
+    private final Set<UUID> addedEntities = new HashSet<UUID>();
+    private Map<Long, ChunkSnapshot> originals = null;
+
+    /** Start listening to the given world. */
+    public void attach(World world)
+    {
+        detach();
+        this.world = world;
+        this.world.addEventListener(this);
+    }
+
+    /** Stop listening. The changes recorded so far are kept. */
+    public void detach()
+    {
+        if (this.world != null)
+            this.world.removeEventListener(this);
+        this.world = null;
+    }
+
+    /** Forget all the changes recorded so far. */
+    public void clear()
+    {
+        this.changedChunks.clear();
+        this.addedEntities.clear();
+        if (this.originals != null)
+            this.originals.clear();
+    }
+
+    /** Choose whether or not to keep a copy of each chunk as it was before it was first changed. */
+    public void setKeepOriginals(boolean keep)
+    {
+        this.originals = keep ? new LinkedHashMap<Long, ChunkSnapshot>() : null;
+    }
+
+    /** @return the original state of each changed chunk, if setKeepOriginals(true) was called - otherwise null.
+     * Entities added while we were attached are left out, so restoring these will remove them.
+     */
+    public Collection<ChunkSnapshot> getOriginals()
+    {
+        return (this.originals != null) ? this.originals.values() : null;
+    }
+
+    /** @return the changed chunks, as ChunkPos.asLong(x, z) keys, in the order they were first changed. */
+    public Set<Long> getChangedChunks()
+    {
+        return this.changedChunks;
+    }
+
+    /** @return the unique ids of the entities added to the world while we were attached. */
+    public Set<UUID> getAddedEntities()
+    {
+        return this.addedEntities;
+    }
+
+    private void markRange(int x1, int z1, int x2, int z2)
+    {
+        for (int cx = x1 >> 4; cx <= x2 >> 4; cx++)
+            for (int cz = z1 >> 4; cz <= z2 >> 4; cz++)
+                this.changedChunks.add(ChunkPos.asLong(cx, cz));
+    }
+
+    @Override
+    public void notifyBlockUpdate(World worldIn, BlockPos pos, IBlockState oldState, IBlockState newState, int flags)
+    {
+        if (oldState == newState)
+            return;
+        long key = ChunkPos.asLong(pos.getX() >> 4, pos.getZ() >> 4);
+        if (this.originals != null && !this.originals.containsKey(key))
+        {
+            // The block has already changed by the time we hear about it, so put it back in the copy:
+            ChunkSnapshot original = new ChunkSnapshot(worldIn.getChunkFromBlockCoords(pos), this.addedEntities);
+            original.setBlockState(pos, oldState);
+            this.originals.put(key, original);
+        }
+        this.changedChunks.add(key);
+    }
+
+    @Override
+    public void markBlockRangeForRenderUpdate(int x1, int y1, int z1, int x2, int y2, int z2)
+    {
+        markRange(x1, z1, x2, z2);
+    }
+
+    @Override
+    public void onEntityAdded(Entity entityIn)
+    {
+        if (!(entityIn instanceof EntityPlayer))
+            this.addedEntities.add(entityIn.getUniqueID());
+    }
+
+    @Override
+    public void notifyLightSet(BlockPos pos) {}
+
+    @Override
+    public void playSoundToAllNearExcept(EntityPlayer player, SoundEvent soundIn, SoundCategory category, double x, double y, double z, float volume, float pitch) {}
+
+    @Override
+    public void playRecord(SoundEvent soundIn, BlockPos pos) {}
+
+    @Override
+    public void spawnParticle(int particleID, boolean ignoreRange, double xCoord, double yCoord, double zCoord, double xSpeed, double ySpeed, double zSpeed, int... parameters) {}
+
+    @Override
+    public void spawnParticle(int id, boolean ignoreRange, boolean p_190570_3_, double x, double y, double z, double xSpeed, double ySpeed, double zSpeed, int... parameters) {}
+
+    @Override
+    public void onEntityRemoved(Entity entityIn) {}
+
+    @Override
+    public void broadcastSound(int soundID, BlockPos pos, int data) {}
+
+    @Override
+    public void playEvent(EntityPlayer player, int type, BlockPos blockPosIn, int data) {}
+
+    @Override
+    public void sendBlockBreakProgress(int breakerId, BlockPos pos, int progress) {}
+}
@@ -0,0 +1,169 @@
+// --------------------------------------------------------------------------------------------------
+//  Copyright (c) 2016 Microsoft Corporation
+//
+//  Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+//  associated documentation files (the "Software"), to deal in the Software without restriction,
+//  including without limitation the rights to use, copy, modify, merge, publish, distribute,
+//  sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+//  furnished to do so, subject to the following conditions:
+//
+//  The above copyright notice and this permission notice shall be included in all copies or
+//  substantial portions of the Software.
+//
+//  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+//  NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+//  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+//  DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+//  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+// --------------------------------------------------------------------------------------------------
+
+package com.microsoft.Malmo.Utils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Level;
+
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.world.World;
+import net.minecraftforge.common.DimensionManager;
+import net.minecraftforge.common.ForgeChunkManager;
+import net.minecraftforge.common.ForgeChunkManager.Ticket;
+import net.minecraftforge.event.world.WorldEvent;
+import net.minecraftforge.fml.common.eventhandler.SubscribeEvent;
+
+import com.microsoft.Malmo.MalmoMod;
+import com.microsoft.Malmo.Schemas.AgentSection;
+import com.microsoft.Malmo.Schemas.MissionInit;
+import com.microsoft.Malmo.Schemas.PosAndDirection;
+
+/**
+ * Loads (generating if need be) the chunks a mission is going to use before the agents join, and keeps them loaded
+ * until the next mission's chunks are preloaded (or their world is unloaded) - so the agents don't have to wait for their surroundings to appear.<br>
+ * The time the last preload took is available via getLastPreloadMillis(), and is reported by ObservationFromSystem.
+ */
+public class ChunkPreloadHelper
+{
+    /** How far around each agent's start position to preload, in chunks.*/
+    public static final int AGENT_RADIUS_CHUNKS = 2;
+
+    private static final List<Ticket> tickets = new ArrayList<Ticket>();
+    private static volatile long lastPreloadMillis = 0;
+    private static volatile int lastPreloadChunks = 0;
+
+    /** We don't want our tickets back after a world reload - the next mission will ask for the chunks it needs.*/
+    public static class TicketCallback implements ForgeChunkManager.LoadingCallback
+    {
+        @Override
+        public void ticketsLoaded(List<Ticket> loadedTickets, World world)
+        {
+            for (Ticket ticket : loadedTickets)
+                ForgeChunkManager.releaseTicket(ticket);
+        }
+    }
+
+    /** Forget our tickets for a world that is being unloaded - Forge drops its own record of them along with the world,
+     * and we don't want to keep the world alive or hand the tickets back to Forge later.
+     */
+    public static class WorldUnloadListener
+    {
+        @SubscribeEvent
+        public void onWorldUnload(WorldEvent.Unload event)
+        {
+            forgetTickets(event.getWorld());
+        }
+    }
+
+    /** Add the chunks within radius of each agent's start position (or the world spawn point, if the agent has no start
+     * position) to the set.
+     * @param chunks set of ChunkPos.asLong(x, z) keys to add to.
+     */
+    public static void addChunksAroundAgents(Set<Long> chunks, MissionInit missionInit, World world, int radius)
+    {
+        for (AgentSection as : missionInit.getMission().getAgentSection())
+        {
+            PosAndDirection pos = (as.getAgentStart() != null) ? as.getAgentStart().getPlacement() : null;
+            BlockPos centre = (pos != null) ? new BlockPos(pos.getX().doubleValue(), pos.getY().doubleValue(), pos.getZ().doubleValue()) : world.getSpawnPoint();
+            for (int x = -radius; x <= radius; x++)
+                for (int z = -radius; z <= radius; z++)
+                    chunks.add(ChunkPos.asLong((centre.getX() >> 4) + x, (centre.getZ() >> 4) + z));
+        }
+    }
+
+    /** Load the given chunks, and keep them loaded until the next call to preload() or release().
+     * @param chunks the chunks to load, as ChunkPos.asLong(x, z) keys.
+     */
+    public static synchronized void preload(World world, Collection<Long> chunks)
+    {
+        release();
+        long start = System.currentTimeMillis();
+        Ticket ticket = null;
+        int ticketChunks = 0;
+        boolean outOfTickets = false;
+        for (Long key : chunks)
+        {
+            // ChunkPos.asLong puts x in the low 32 bits and z in the high 32 bits:
+            int x = (int)(key & 0xFFFFFFFFL);
+            int z = (int)(key >>> 32);
+            world.getChunkFromChunkCoords(x, z);    // Loads or generates the chunk.
+
+            if (outOfTickets)
+                continue;   // The chunk is loaded, but may not stay that way.
+            if (ticket == null || ticketChunks >= ticket.getChunkListDepth())
+            {
+                // Tickets only hold a limited number of chunks, so we may need several.
+                ticket = ForgeChunkManager.requestTicket(MalmoMod.instance, world, ForgeChunkManager.Type.NORMAL);
+                if (ticket == null)
+                {
+                    outOfTickets = true;
+                    TCPUtils.Log(Level.WARNING, "Out of chunk loading tickets after " + tickets.size() + " - not all preloaded chunks will stay loaded");
+                    continue;
+                }
+                tickets.add(ticket);
+                ticketChunks = 0;
+            }
+            ForgeChunkManager.forceChunk(ticket, new ChunkPos(x, z));
+            ticketChunks++;
+        }
+        lastPreloadMillis = System.currentTimeMillis() - start;
+        lastPreloadChunks = chunks.size();
+        TCPUtils.Log(Level.INFO, "Preloaded " + lastPreloadChunks + " chunks in " + lastPreloadMillis + "ms");
+    }
+
+    /** Let go of the chunks held by the last preload.*/
+    public static synchronized void release()
+    {
+        for (Ticket ticket : tickets)
+        {
+            // Tickets for a world that has since gone (eg with the integrated server it belonged to) are dead already.
+            if (DimensionManager.getWorld(ticket.world.provider.getDimension()) == ticket.world)
+                ForgeChunkManager.releaseTicket(ticket);
+        }
+        tickets.clear();
+    }
+
+    private static synchronized void forgetTickets(World world)
+    {
+        Iterator<Ticket> it = tickets.iterator();
+        while (it.hasNext())
+        {
+            if (it.next().world == world)
+                it.remove();
+        }
+    }
+
+    /** @return how long the last preload took, in milliseconds.*/
+    public static long getLastPreloadMillis()
+    {
+        return lastPreloadMillis;
+    }
+
+    /** @return how many chunks the last preload loaded.*/
+    public static int getLastPreloadChunks()
+    {
+        return lastPreloadChunks;
+    }
+}
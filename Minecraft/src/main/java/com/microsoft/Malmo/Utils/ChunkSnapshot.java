@@ -0,0 +1,200 @@
+// --------------------------------------------------------------------------------------------------
+//  Copyright (c) 2016 Microsoft Corporation
+//
+//  Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+//  associated documentation files (the "Software"), to deal in the Software without restriction,
+//  including without limitation the rights to use, copy, modify, merge, publish, distribute,
+//  sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+//  furnished to do so, subject to the following conditions:
+//
+//  The above copyright notice and this permission notice shall be included in all copies or
+//  substantial portions of the Software.
+//
+//  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+//  NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+//  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+//  DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+//  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+// --------------------------------------------------------------------------------------------------
+
+package com.microsoft.Malmo.Utils;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+import net.minecraft.block.Block;
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.entity.Entity;
+import net.minecraft.entity.EntityList;
+import net.minecraft.entity.player.EntityPlayer;
+import net.minecraft.init.Blocks;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.tileentity.TileEntity;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.World;
+import net.minecraft.world.WorldServer;
+import net.minecraft.world.chunk.Chunk;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
+
+/**
+ * An in-memory copy of the blocks, tile entities and (non-player) entities in one chunk, which can be written back into
+ * the world later.<br>
+ * Blocks are held as state ids (see Block.getStateId), one char per block, with empty sections not stored at all.
+ */
+public class ChunkSnapshot
+{
+    private final int chunkX;
+    private final int chunkZ;
+    private final char[][] sections = new char[16][];
+    private final List<NBTTagCompound> tileEntities = new ArrayList<NBTTagCompound>();
+    private final List<NBTTagCompound> entities = new ArrayList<NBTTagCompound>();
+
+    /** Take a copy of the chunk's current contents.
+     * @param chunk the chunk to copy.
+     * @param excludedEntities entities (by unique id) to leave out of the copy - can be null.
+     */
+    public ChunkSnapshot(Chunk chunk, Set<UUID> excludedEntities)
+    {
+        this.chunkX = chunk.xPosition;
+        this.chunkZ = chunk.zPosition;
+        ExtendedBlockStorage[] storageArray = chunk.getBlockStorageArray();
+        for (int i = 0; i < storageArray.length && i < this.sections.length; i++)
+        {
+            ExtendedBlockStorage storage = storageArray[i];
+            if (storage == null || storage.isEmpty())
+                continue;
+            char[] ids = new char[4096];
+            for (int y = 0; y < 16; y++)
+                for (int z = 0; z < 16; z++)
+                    for (int x = 0; x < 16; x++)
+                        ids[(y << 8) | (z << 4) | x] = (char)Block.getStateId(storage.get(x, y, z));
+            this.sections[i] = ids;
+        }
+        for (TileEntity te : chunk.getTileEntityMap().values())
+            this.tileEntities.add(te.writeToNBT(new NBTTagCompound()));
+        for (Entity ent : getEntities(chunk))
+        {
+            if (excludedEntities != null && excludedEntities.contains(ent.getUniqueID()))
+                continue;
+            NBTTagCompound tag = new NBTTagCompound();
+            if (ent.writeToNBTOptional(tag))
+                this.entities.add(tag);
+        }
+    }
+
+    /** Change the block held for pos (which must be inside this chunk) - eg to put back a change made just before the
+     * snapshot was taken.
+     */
+    public void setBlockState(BlockPos pos, IBlockState state)
+    {
+        int section = pos.getY() >> 4;
+        if (section < 0 || section >= this.sections.length)
+            return;
+        if (this.sections[section] == null)
+            this.sections[section] = new char[4096];    // All zeroes - ie air.
+        this.sections[section][((pos.getY() & 15) << 8) | ((pos.getZ() & 15) << 4) | (pos.getX() & 15)] = (char)Block.getStateId(state);
+    }
+
+    public int getChunkX()
+    {
+        return this.chunkX;
+    }
+
+    public int getChunkZ()
+    {
+        return this.chunkZ;
+    }
+
+    /** Put the chunk back the way it was when the snapshot was taken.<br>
+     * Blocks are only written where they differ from the snapshot. Entities in the snapshot which are still alive are
+     * reset from their saved state; any other non-player entities in the chunk are removed.
+     * @param world the world the snapshot was taken from.
+     * @param writer the writer to put the blocks through - the caller must flush it once all the chunks are restored.
+     */
+    public void restore(World world, BulkBlockWriter writer)
+    {
+        Chunk chunk = world.getChunkFromChunkCoords(this.chunkX, this.chunkZ);
+        ExtendedBlockStorage[] storageArray = chunk.getBlockStorageArray();
+        IBlockState air = Blocks.AIR.getDefaultState();
+        int baseX = this.chunkX << 4;
+        int baseZ = this.chunkZ << 4;
+        for (int i = 0; i < this.sections.length; i++)
+        {
+            char[] ids = this.sections[i];
+            ExtendedBlockStorage storage = storageArray[i];
+            if (ids == null && (storage == null || storage.isEmpty()))
+                continue;   // Empty then, empty now.
+            for (int y = 0; y < 16; y++)
+            {
+                for (int z = 0; z < 16; z++)
+                {
+                    for (int x = 0; x < 16; x++)
+                    {
+                        IBlockState wanted = (ids == null) ? air : Block.getStateById(ids[(y << 8) | (z << 4) | x]);
+                        IBlockState current = (storage == null) ? air : storage.get(x, y, z);
+                        if (wanted != current)
+                            writer.setBlockState(new BlockPos(baseX + x, (i << 4) + y, baseZ + z), wanted);
+                    }
+                }
+            }
+        }
+
+        // Tile entity blocks have been put back by now, so just reload their contents:
+        for (NBTTagCompound tag : this.tileEntities)
+        {
+            BlockPos pos = new BlockPos(tag.getInteger("x"), tag.getInteger("y"), tag.getInteger("z"));
+            TileEntity te = world.getTileEntity(pos);
+            if (te != null)
+            {
+                te.readFromNBT(tag);
+                te.markDirty();
+                IBlockState state = world.getBlockState(pos);
+                world.notifyBlockUpdate(pos, state, state, 3);
+            }
+        }
+
+        Set<UUID> kept = new HashSet<UUID>();
+        for (NBTTagCompound tag : this.entities)
+        {
+            UUID id = tag.getUniqueId("UUID");
+            Entity existing = (world instanceof WorldServer) ? ((WorldServer)world).getEntityFromUuid(id) : null;
+            if (existing != null && !existing.isDead)
+            {
+                existing.readFromNBT(tag);
+            }
+            else
+            {
+                Entity ent = EntityList.createEntityFromNBT(tag, world);
+                if (ent == null)
+                    continue;
+                if (existing != null)
+                    ent.setUniqueId(UUID.randomUUID()); // The dead one is still registered under the old id.
+                world.spawnEntity(ent);
+                id = ent.getUniqueID();
+            }
+            kept.add(id);
+        }
+        for (Entity ent : getEntities(chunk))
+        {
+            if (!(ent instanceof EntityPlayer) && !kept.contains(ent.getUniqueID()))
+                world.removeEntity(ent);
+        }
+    }
+
+    private static List<Entity> getEntities(Chunk chunk)
+    {
+        List<Entity> result = new ArrayList<Entity>();
+        for (Iterable<Entity> list : chunk.getEntityLists())
+        {
+            for (Entity ent : list)
+            {
+                if (!(ent instanceof EntityPlayer))
+                    result.add(ent);
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,112 @@
+// --------------------------------------------------------------------------------------------------
+//  Copyright (c) 2016 Microsoft Corporation
+//  
+//  Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+//  associated documentation files (the "Software"), to deal in the Software without restriction,
+//  including without limitation the rights to use, copy, modify, merge, publish, distribute,
+//  sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+//  furnished to do so, subject to the following conditions:
+//  
+//  The above copyright notice and this permission notice shall be included in all copies or
+//  substantial portions of the Software.
+//  
+//  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+//  NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+//  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+//  DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+//  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+// --------------------------------------------------------------------------------------------------
+
+package com.microsoft.Malmo.Utils;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.microsoft.Malmo.MissionHandlerInterfaces.IWorldDecorator;
+import com.microsoft.Malmo.MissionHandlerInterfaces.IWorldDecorator.DecoratorException;
+
+/**
+ * Worker threads for world decorators which need to do a lot of work to decide what to build (eg mazes) - the server
+ * starts the layout as soon as it has created the mission handlers, so it can be worked out while the server is still
+ * busy with the previous mission or with creating the world, leaving buildOnWorld() to just place the blocks.<br>
+ * Layouts must be deterministic given the decorator's parameters, and must not touch the world.
+ */
+public class DecoratorLayoutPool
+{
+    /** Implemented by decorators which work out their layout in the background.<br>
+     * Only the server calls startLayout() - the client also creates server handlers (to get at the world generator), and
+     * those are never asked to build anything.
+     */
+    public interface ILayoutDecorator
+    {
+        /** Start working out the layout on the pool, ready for buildOnWorld().*/
+        public void startLayout();
+    }
+
+    private static final AtomicInteger threadCount = new AtomicInteger(0);
+
+    private static final ExecutorService workers = Executors.newFixedThreadPool(Math.max(1, Runtime.getRuntime().availableProcessors() / 2), new ThreadFactory()
+    {
+        @Override
+        public Thread newThread(Runnable r)
+        {
+            Thread t = new Thread(r, "Malmo decorator layout " + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    /** Start working out a layout in the background.*/
+    public static <T> Future<T> submit(Callable<T> layout)
+    {
+        return workers.submit(layout);
+    }
+
+    /** Start the background layouts of the given decorator, if it has any.*/
+    public static void startLayouts(IWorldDecorator decorator)
+    {
+        if (decorator instanceof ILayoutDecorator)
+            ((ILayoutDecorator)decorator).startLayout();
+    }
+
+    /** Wait for a layout to finish.<br>
+     * Runtime exceptions thrown by the layout are rethrown as they are; anything else becomes a DecoratorException.
+     */
+    public static <T> T get(Future<T> layout) throws DecoratorException
+    {
+        boolean interrupted = false;
+        try
+        {
+            while (true)
+            {
+                try
+                {
+                    return layout.get();
+                }
+                catch (InterruptedException e)
+                {
+                    interrupted = true; // Keep waiting - the caller can't do anything without the layout.
+                }
+            }
+        }
+        catch (ExecutionException e)
+        {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException)cause;
+            if (cause instanceof DecoratorException)
+                throw (DecoratorException)cause;
+            throw new DecoratorException("Failed to create layout: " + cause);
+        }
+        finally
+        {
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,118 @@
+// --------------------------------------------------------------------------------------------------
+//  Copyright (c) 2016 Microsoft Corporation
+//
+//  Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+//  associated documentation files (the "Software"), to deal in the Software without restriction,
+//  including without limitation the rights to use, copy, modify, merge, publish, distribute,
+//  sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+//  furnished to do so, subject to the following conditions:
+//
+//  The above copyright notice and this permission notice shall be included in all copies or
+//  substantial portions of the Software.
+//
+//  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+//  NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+//  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+//  DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+//  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+// --------------------------------------------------------------------------------------------------
+
+package com.microsoft.Malmo.Utils;
+
+import java.lang.ref.WeakReference;
+import java.util.Collection;
+import java.util.logging.Level;
+
+import net.minecraft.world.World;
+import net.minecraft.world.WorldServer;
+
+import com.microsoft.Malmo.Schemas.DefaultWorldGenerator;
+import com.microsoft.Malmo.Schemas.FileWorldGenerator;
+import com.microsoft.Malmo.Schemas.FlatWorldGenerator;
+import com.microsoft.Malmo.Schemas.MissionInit;
+
+/**
+ * Records the chunks changed while a mission runs, along with a copy of each as it was before the mission changed it,
+ * so that the next mission in the same world can put just those chunks back, rather than needing a whole new world.<br>
+ * While recording, the world isn't saved - the changes are going to be undone anyway, so there's no point writing them
+ * to disk.<br>
+ * Only the last mission's changes are held. All calls should be made from the server thread.
+ */
+public class EpisodeChangeLog
+{
+    private static ChunkChangeTracker tracker = null;
+    private static WeakReference<World> trackedWorld = null;
+    private static boolean savingWasDisabled = false;
+    private static boolean recording = false;
+
+    /** Does the mission's world generator want the mission's changes undone before the next mission?*/
+    public static boolean isRequested(MissionInit missionInit)
+    {
+        Object gen = missionInit.getMission().getServerSection().getServerHandlers().getWorldGenerator();
+        if (gen instanceof FlatWorldGenerator)
+            return ((FlatWorldGenerator)gen).isRevertChangedChunks();
+        if (gen instanceof DefaultWorldGenerator)
+            return ((DefaultWorldGenerator)gen).isRevertChangedChunks();
+        if (gen instanceof FileWorldGenerator)
+            return ((FileWorldGenerator)gen).isRevertChangedChunks();
+        return false;
+    }
+
+    /** Start recording changes to the world. Any changes still held from a previous mission are forgotten.*/
+    public static synchronized void startRecording(World world)
+    {
+        stopRecording();
+        tracker = new ChunkChangeTracker();
+        tracker.setKeepOriginals(true);
+        tracker.attach(world);
+        trackedWorld = new WeakReference<World>(world);
+        if (world instanceof WorldServer)
+        {
+            savingWasDisabled = ((WorldServer)world).disableLevelSaving;
+            ((WorldServer)world).disableLevelSaving = true;
+        }
+        recording = true;
+    }
+
+    /** Stop recording, but hold on to the changes so far, ready for revert().*/
+    public static synchronized void stopRecording()
+    {
+        if (!recording)
+            return;
+        recording = false;
+        tracker.detach();
+        World world = trackedWorld.get();
+        if (world instanceof WorldServer)
+            ((WorldServer)world).disableLevelSaving = savingWasDisabled;
+    }
+
+    /** Put back every chunk the last recorded mission changed, if it was recorded in this world.
+     * @return true if anything was reverted.
+     */
+    public static synchronized boolean revert(World world)
+    {
+        stopRecording();
+        if (tracker == null || trackedWorld.get() != world)
+        {
+            discard();
+            return false;
+        }
+        long start = System.currentTimeMillis();
+        Collection<ChunkSnapshot> originals = tracker.getOriginals();
+        BulkBlockWriter writer = new BulkBlockWriter(world);
+        for (ChunkSnapshot chunk : originals)
+            chunk.restore(world, writer);
+        writer.flush();
+        TCPUtils.Log(Level.INFO, "Reverted " + originals.size() + " changed chunks in " + (System.currentTimeMillis() - start) + "ms");
+        discard();
+        return true;
+    }
+
+    /** Forget about the last mission's changes.*/
+    public static synchronized void discard()
+    {
+        stopRecording();
+        tracker = null;
+        trackedWorld = null;
+    }
+}
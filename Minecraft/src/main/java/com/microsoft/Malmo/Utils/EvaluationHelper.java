@@ -20,6 +20,8 @@
 package com.microsoft.Malmo.Utils;
 
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Random;
 import java.util.Stack;
 
@@ -49,27 +51,174 @@ public class EvaluationHelper
     static final String[] functions = {"sin", "cos", "tan", "asin", "acos", "atan", "abs"};
     static final String[] tokens = {"t", "+", "-", "/", "*", "%", "^", "rand", "(", ")"};
 
+    private static final int OP_CONST = 0;
+    private static final int OP_T = 1;
+    private static final int OP_RAND = 2;
+    private static final int OP_ADD = 3;
+    private static final int OP_SUBTRACT = 4;
+    private static final int OP_MULTIPLY = 5;
+    private static final int OP_DIVIDE = 6;
+    private static final int OP_MOD = 7;
+    private static final int OP_POWER = 8;
+    private static final int OP_SIN = 9;
+    private static final int OP_COS = 10;
+    private static final int OP_TAN = 11;
+    private static final int OP_ASIN = 12;
+    private static final int OP_ACOS = 13;
+    private static final int OP_ATAN = 14;
+    private static final int OP_ABS = 15;
+    private static final int OP_UNARY_MINUS = 16;
+
+    /** Opcodes for the operators and functions - brackets have none, since they never make it into the compiled code.*/
+    private static final Map<String, Integer> opcodes = new HashMap<String, Integer>();
+    static
+    {
+        opcodes.put("+", OP_ADD);
+        opcodes.put("-", OP_SUBTRACT);
+        opcodes.put("*", OP_MULTIPLY);
+        opcodes.put("/", OP_DIVIDE);
+        opcodes.put("%", OP_MOD);
+        opcodes.put("^", OP_POWER);
+        opcodes.put("sin", OP_SIN);
+        opcodes.put("cos", OP_COS);
+        opcodes.put("tan", OP_TAN);
+        opcodes.put("asin", OP_ASIN);
+        opcodes.put("acos", OP_ACOS);
+        opcodes.put("atan", OP_ATAN);
+        opcodes.put("abs", OP_ABS);
+        opcodes.put("unary_minus", OP_UNARY_MINUS);
+    }
+
+    /**
+     * An expression that has been parsed once by compile(), and can then be evaluated as often as needed without
+     * being parsed again.<br>
+     * The expression is held as a postfix program over a primitive float stack, so evaluating it gives exactly the same
+     * results (and draws the same random numbers) as eval() would.
+     * Not thread-safe - each instance has its own evaluation stack.
+     */
+    public static class Expression
+    {
+        private final int[] code;
+        private final float[] constants;
+        private final float[] stack;
+
+        private Expression(int[] code, float[] constants, int maxDepth)
+        {
+            this.code = code;
+            this.constants = constants;
+            this.stack = new float[maxDepth];
+        }
+
+        /** Evaluate the expression.
+         * @param t the value to use for the time variable, t.
+         * @param rand the source of values for rand.
+         */
+        public float evaluate(float t, Random rand)
+        {
+            float[] stack = this.stack;
+            int sp = 0;
+            int nextConstant = 0;
+            for (int op : this.code)
+            {
+                switch (op)
+                {
+                case OP_CONST:
+                    stack[sp++] = this.constants[nextConstant++];
+                    break;
+                case OP_T:
+                    stack[sp++] = t;
+                    break;
+                case OP_RAND:
+                    stack[sp++] = rand.nextFloat();
+                    break;
+                case OP_ADD:
+                    sp--;
+                    stack[sp - 1] = stack[sp - 1] + stack[sp];
+                    break;
+                case OP_SUBTRACT:
+                    sp--;
+                    stack[sp - 1] = -(stack[sp] - stack[sp - 1]);   // Not a - b, which differs in the sign of a zero result.
+                    break;
+                case OP_MULTIPLY:
+                    sp--;
+                    stack[sp - 1] = stack[sp - 1] * stack[sp];
+                    break;
+                case OP_DIVIDE:
+                    sp--;
+                    stack[sp - 1] = stack[sp - 1] / stack[sp];
+                    break;
+                case OP_MOD:
+                    sp--;
+                    stack[sp - 1] = (float)(Math.round(stack[sp - 1]) % Math.round(stack[sp]));
+                    break;
+                case OP_POWER:
+                    sp--;
+                    stack[sp - 1] = (float)Math.pow(stack[sp - 1], stack[sp]);
+                    break;
+                case OP_SIN:
+                    stack[sp - 1] = (float)Math.sin(stack[sp - 1]);
+                    break;
+                case OP_COS:
+                    stack[sp - 1] = (float)Math.cos(stack[sp - 1]);
+                    break;
+                case OP_TAN:
+                    stack[sp - 1] = (float)Math.tan(stack[sp - 1]);
+                    break;
+                case OP_ASIN:
+                    stack[sp - 1] = (float)Math.asin(stack[sp - 1]);
+                    break;
+                case OP_ACOS:
+                    stack[sp - 1] = (float)Math.acos(stack[sp - 1]);
+                    break;
+                case OP_ATAN:
+                    stack[sp - 1] = (float)Math.atan(stack[sp - 1]);
+                    break;
+                case OP_ABS:
+                    stack[sp - 1] = Math.abs(stack[sp - 1]);
+                    break;
+                case OP_UNARY_MINUS:
+                    stack[sp - 1] = -stack[sp - 1];
+                    break;
+                }
+            }
+            return stack[sp - 1];
+        }
+    }
+
+    /** Parse and evaluate the expression in one go - if the same expression is going to be evaluated repeatedly, use
+     * compile() once instead, and evaluate the result.
+     */
     static public float eval(String expression, float t, Random rand) throws Exception
     {
-        Stack<Float> values = new Stack<Float>();
+        return compile(expression).evaluate(t, rand);
+    }
+
+    /** Parse the expression into a form which can be evaluated repeatedly.
+     * @param expression the expression, in terms of t and rand.
+     * @return the compiled expression.
+     * @throws Exception if the expression contains an unrecognised token, or is malformed.
+     */
+    static public Expression compile(String expression) throws Exception
+    {
+        Compiler compiler = new Compiler();
         Stack<String> operators = new Stack<String>();
         boolean mustBeUnaryMinus = true;
-        while (!expression.isEmpty())
+        int pos = 0;
+        int length = expression.length();
+        while (true)
         {
-            String number = "";
-            expression = expression.trim(); // Remove any white space
+            while (pos < length && expression.charAt(pos) <= ' ')
+                pos++;  // Skip any white space
+            if (pos == length)
+                break;
             // Is the next token a number?
-            while (!expression.isEmpty() && expression.substring(0, 1).matches("[0-9\\.]"))
-            {
-                number += expression.substring(0,1);
-                expression = expression.substring(1);
-            }
-            Float f;
-            if (!number.isEmpty())
+            int start = pos;
+            while (pos < length && isNumberChar(expression.charAt(pos)))
+                pos++;
+            if (pos != start)
             {
-                f = Float.valueOf(number);
-                // Yes, so push it straight to the values stack:
-                values.push(f);
+                // Yes, so it goes straight to the output:
+                compiler.emitConstant(Float.valueOf(expression.substring(start, pos)));
                 mustBeUnaryMinus = false;   // A unary '-' can't follow a value.
             }
             else
@@ -79,29 +228,29 @@ public class EvaluationHelper
                 for (int i = 0; i < functions.length + tokens.length; i++)
                 {
                     String tok = (i < functions.length) ? functions[i] : tokens[i - functions.length];
-                    if (expression.startsWith(tok))
+                    if (expression.startsWith(tok, pos))
                     {
                         // Found it.
                         op = tok;
-                        expression = expression.substring(op.length());
+                        pos += op.length();
                         break;
                     }
                 }
                 if (op == null) // unrecognised token
-                    throw new Exception("Unrecognised token at start of " + expression + " in eval()");
+                    throw new Exception("Unrecognised token at start of " + expression.substring(pos) + " in eval()");
                 // Determine what to do for this token..
                 if (op.equals("-") && mustBeUnaryMinus) // check for unary minus
                     op = "unary_minus"; // to distinguish from, for example, "a-b".
                 if (op.equals("t"))
                 {
-                    // time variable - substitute actual value of t and push straight to values:
-                    values.push(t);
+                    // time variable - goes straight to the output:
+                    compiler.emit(OP_T, 0, 1);
                     mustBeUnaryMinus = false;   // A unary '-' can't follow a value.
                 }
                 else if (op.equals("rand"))
                 {
-                    // push a random value straight to values:
-                    values.push(rand.nextFloat());
+                    // random value - goes straight to the output:
+                    compiler.emit(OP_RAND, 0, 1);
                     mustBeUnaryMinus = false;   // A unary '-' can't follow a value.
                 }
                 else if (op.equals("("))
@@ -118,7 +267,7 @@ public class EvaluationHelper
                         op = operators.pop();
                         if (op.equals("("))
                             break;
-                        doOp(op, values, operators, rand);  // carry out this operation.
+                        compiler.emitOperator(op);
                     }
                     mustBeUnaryMinus = false;   // A '-' following a ')' can't be a unary minus - eg "(4^2)-16"
                 }
@@ -132,10 +281,7 @@ public class EvaluationHelper
                     if (isRightAssociative(op))
                         precedence++;   // Force <= comparison to behave as < comparison.
                     while (!operators.isEmpty() && !operators.peek().equals("(") && precedence <= getPrecedence(operators.peek()))
-                    {
-                        String op2 = operators.pop();
-                        doOp(op2, values, operators, rand);
-                    }
+                        compiler.emitOperator(operators.pop());
                     operators.push(op);
                     mustBeUnaryMinus = true;    // A '-' following another operator must be unary - eg "4*-7"
                 }
@@ -143,11 +289,60 @@ public class EvaluationHelper
         }
         // Finished going through the input string - apply any outstanding operators, functions, etc:
         while (!operators.empty())
+            compiler.emitOperator(operators.pop());
+        return compiler.build(expression);
+    }
+
+    /** Collects the postfix program for compile(), checking as it goes that no operator runs out of operands.*/
+    private static class Compiler
+    {
+        private int[] code = new int[16];
+        private float[] constants = new float[8];
+        private int codeLength = 0;
+        private int constantCount = 0;
+        private int depth = 0;
+        private int maxDepth = 0;
+        private boolean underflow = false;
+
+        void emitConstant(float value)
+        {
+            if (this.constantCount == this.constants.length)
+                this.constants = Arrays.copyOf(this.constants, this.constants.length * 2);
+            this.constants[this.constantCount++] = value;
+            emit(OP_CONST, 0, 1);
+        }
+
+        void emitOperator(String op)
+        {
+            Integer opcode = opcodes.get(op);
+            if (opcode == null)
+                return; // An unmatched '(' - nothing to do.
+            int operands = (isFunction(op) || op.equals("unary_minus")) ? 1 : 2;
+            emit(opcode, operands, 1);
+        }
+
+        void emit(int opcode, int consumes, int produces)
         {
-            String op = operators.pop();
-            doOp(op, values, operators, rand);
+            if (this.depth < consumes)
+                this.underflow = true;
+            this.depth += produces - consumes;
+            this.maxDepth = Math.max(this.maxDepth, this.depth);
+            if (this.codeLength == this.code.length)
+                this.code = Arrays.copyOf(this.code, this.code.length * 2);
+            this.code[this.codeLength++] = opcode;
+        }
+
+        Expression build(String expression) throws Exception
+        {
+            if (this.underflow || this.depth < 1)
+                throw new Exception("Malformed expression " + expression + " in eval()");
+            return new Expression(Arrays.copyOf(this.code, this.codeLength), Arrays.copyOf(this.constants, this.constantCount), this.maxDepth);
         }
-        return values.pop();
+    }
+
+    private static boolean isNumberChar(char c)
+    {
+        return (c >= '0' && c <= '9') || c == '.';
     }
 
     private static boolean isFunction(String op)
@@ -174,64 +369,4 @@ public class EvaluationHelper
             return true;
         return false;
     }
-
-    private static void doOp(String op, Stack<Float> values, Stack<String> operators, Random rand)
-    {
-        if (op.equals("+"))
-            values.push(values.pop() + values.pop());
-        else if (op.equals("-"))
-            values.push(-(values.pop() - values.pop()));
-        else if (op.equals("*"))
-            values.push(values.pop() *  values.pop());
-        else if (op.equals("/"))
-        {
-            Float b = values.pop();
-            Float a = values.pop();
-            values.push(a / b);
-        }
-        else if (op.equals("%"))
-        {
-            int b = Math.round(values.pop());
-            int a = Math.round(values.pop());
-            values.push((float)(a % b));
-        }
-        else if (op.equals("^"))
-        {
-            Float b = values.pop();
-            Float a = values.pop();
-            values.push((float)Math.pow(a, b));
-        }
-        else if (op.equals("sin"))
-        {
-            values.push((float)(Math.sin(values.pop())));
-        }
-        else if (op.equals("cos"))
-        {
-            values.push((float)(Math.cos(values.pop())));
-        }
-        else if (op.equals("tan"))
-        {
-            values.push((float)(Math.tan(values.pop())));
-        }
-        else if (op.equals("asin"))
-        {
-            values.push((float)(Math.asin(values.pop())));
-        }
-        else if (op.equals("acos"))
-        {
-            values.push((float)(Math.acos(values.pop())));
-        }
-        else if (op.equals("atan"))
-        {
-            values.push((float)(Math.atan(values.pop())));
-        }
-        else if (op.equals("abs"))
-        {
-            values.push(Math.abs(values.pop()));
-        }
-        else if (op.equals("unary_minus"))
-        {
-            values.push(-values.pop());
-        }
-    }
 }
@@ -0,0 +1,301 @@
+// --------------------------------------------------------------------------------------------------
+//  Copyright (c) 2016 Microsoft Corporation
+//
+//  Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+//  associated documentation files (the "Software"), to deal in the Software without restriction,
+//  including without limitation the rights to use, copy, modify, merge, publish, distribute,
+//  sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+//  furnished to do so, subject to the following conditions:
+//
+//  The above copyright notice and this permission notice shall be included in all copies or
+//  substantial portions of the Software.
+//
+//  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+//  NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+//  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+//  DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+//  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+// --------------------------------------------------------------------------------------------------
+
+package com.microsoft.Malmo.Utils;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import net.minecraft.block.Block;
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.entity.Entity;
+import net.minecraft.entity.player.EntityPlayer;
+import net.minecraft.entity.player.EntityPlayerMP;
+import net.minecraft.util.SoundCategory;
+import net.minecraft.util.SoundEvent;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.IWorldEventListener;
+import net.minecraft.world.World;
+
+import com.microsoft.Malmo.Utils.JSONWorldDataHelper.GridDimensions;
+
+/**
+ * Keeps a copy of the block ids in one observation grid, so that the grid doesn't have to be read from the world in full
+ * every time it is observed.<br>
+ * The grid listens to its world for block changes, and only re-reads the cells that have changed since the last
+ * observation. When an egocentric grid moves with the player, the cells still inside the window are shifted across, and
+ * only the cells that have come into view are read.<br>
+ * Not every change reaches world listeners (eg blocks set without notifying the clients, or set in chunks that are still
+ * being populated), so the whole grid is re-read every FULL_REFRESH_TICKS observations as a backstop.<br>
+ * Grids are held per player and grid name, and are thrown away once they haven't been observed for EXPIRY_TICKS.
+ * All calls should be made from the server thread.
+ */
+public class IncrementalGrid implements IWorldEventListener
+{
+    /** How many observations to go between full re-reads of the grid.*/
+    public static final int FULL_REFRESH_TICKS = 200;
+    /** How many server ticks a grid can go unobserved before it is thrown away.*/
+    public static final int EXPIRY_TICKS = 100;
+
+    private static final Map<String, IncrementalGrid> grids = new HashMap<String, IncrementalGrid>();
+
+    private final int xMin, yMin, zMin;
+    private final int xSize, ySize, zSize;
+    private final boolean absoluteCoords;
+    private final BitSet dirty;
+    private final BlockPos.MutableBlockPos pos = new BlockPos.MutableBlockPos();
+    private int[] ids;
+    private int[] spare;
+    private World world = null;
+    private boolean valid = false;
+    private int baseX, baseY, baseZ;    // World coordinates of cell (0, 0, 0).
+    private int observationsSinceRefresh = 0;
+    private int lastUsed = 0;
+
+    /** Get the current block ids in the player's grid, as Block.getIdFromBlock() values, in order along the x, then z,
+     * then y axes.<br>
+     * The returned array belongs to the grid, and is only good until the next call.
+     * @param player the player the grid belongs to (and is centred on, unless dims.absoluteCoords is set).
+     * @param dims the extent of the grid.
+     * @param name the grid's name - unique per player.
+     */
+    public static int[] getBlockIds(EntityPlayerMP player, GridDimensions dims, String name)
+    {
+        int now = player.mcServer.getTickCounter();
+        Iterator<IncrementalGrid> it = grids.values().iterator();
+        while (it.hasNext())
+        {
+            IncrementalGrid grid = it.next();
+            if (now - grid.lastUsed > EXPIRY_TICKS)
+            {
+                grid.detach();
+                it.remove();
+            }
+        }
+
+        String key = player.getUniqueID() + "/" + name;
+        IncrementalGrid grid = grids.get(key);
+        if (grid == null || !grid.hasDimensions(dims))
+        {
+            if (grid != null)
+                grid.detach();
+            grid = new IncrementalGrid(dims);
+            grids.put(key, grid);
+        }
+        grid.lastUsed = now;
+        return grid.update(player);
+    }
+
+    /** Throw away all the grids - eg at the end of a mission.*/
+    public static void clear()
+    {
+        for (IncrementalGrid grid : grids.values())
+            grid.detach();
+        grids.clear();
+    }
+
+    private IncrementalGrid(GridDimensions dims)
+    {
+        this.xMin = dims.xMin;
+        this.yMin = dims.yMin;
+        this.zMin = dims.zMin;
+        this.xSize = dims.xMax - dims.xMin + 1;
+        this.ySize = dims.yMax - dims.yMin + 1;
+        this.zSize = dims.zMax - dims.zMin + 1;
+        this.absoluteCoords = dims.absoluteCoords;
+        int volume = Math.max(0, this.xSize) * Math.max(0, this.ySize) * Math.max(0, this.zSize);
+        this.ids = new int[volume];
+        this.spare = new int[volume];
+        this.dirty = new BitSet(volume);
+    }
+
+    private boolean hasDimensions(GridDimensions dims)
+    {
+        return this.xMin == dims.xMin && this.yMin == dims.yMin && this.zMin == dims.zMin
+            && this.xSize == dims.xMax - dims.xMin + 1 && this.ySize == dims.yMax - dims.yMin + 1 && this.zSize == dims.zMax - dims.zMin + 1
+            && this.absoluteCoords == dims.absoluteCoords;
+    }
+
+    private void detach()
+    {
+        if (this.world != null)
+            this.world.removeEventListener(this);
+        this.world = null;
+        this.valid = false;
+    }
+
+    private int[] update(EntityPlayerMP player)
+    {
+        if (player.world != this.world)
+        {
+            detach();
+            this.world = player.world;
+            this.world.addEventListener(this);
+        }
+
+        int x = this.xMin;
+        int y = this.yMin;
+        int z = this.zMin;
+        if (!this.absoluteCoords)
+        {
+            BlockPos origin = new BlockPos(player.posX, player.posY, player.posZ);
+            x += origin.getX();
+            y += origin.getY();
+            z += origin.getZ();
+        }
+
+        if (!this.valid || ++this.observationsSinceRefresh >= FULL_REFRESH_TICKS)
+        {
+            this.baseX = x;
+            this.baseY = y;
+            this.baseZ = z;
+            readAll();
+            this.valid = true;
+            this.observationsSinceRefresh = 0;
+        }
+        else if (x != this.baseX || y != this.baseY || z != this.baseZ)
+        {
+            shift(x, y, z);
+        }
+        else
+        {
+            for (int i = this.dirty.nextSetBit(0); i >= 0; i = this.dirty.nextSetBit(i + 1))
+                this.ids[i] = read(i % this.xSize, i / (this.xSize * this.zSize), (i / this.xSize) % this.zSize);
+        }
+        this.dirty.clear();
+        return this.ids;
+    }
+
+    private void readAll()
+    {
+        int i = 0;
+        for (int y = 0; y < this.ySize; y++)
+            for (int z = 0; z < this.zSize; z++)
+                for (int x = 0; x < this.xSize; x++)
+                    this.ids[i++] = read(x, y, z);
+    }
+
+    /** Move the window so that cell (0, 0, 0) is at (newX, newY, newZ), keeping the cells the old and new windows share.*/
+    private void shift(int newX, int newY, int newZ)
+    {
+        int dx = newX - this.baseX;
+        int dy = newY - this.baseY;
+        int dz = newZ - this.baseZ;
+        this.baseX = newX;
+        this.baseY = newY;
+        this.baseZ = newZ;
+        int i = 0;
+        for (int y = 0; y < this.ySize; y++)
+        {
+            int oldY = y + dy;
+            for (int z = 0; z < this.zSize; z++)
+            {
+                int oldZ = z + dz;
+                boolean rowInside = oldY >= 0 && oldY < this.ySize && oldZ >= 0 && oldZ < this.zSize;
+                int oldRow = (oldY * this.zSize + oldZ) * this.xSize;
+                for (int x = 0; x < this.xSize; x++)
+                {
+                    int oldX = x + dx;
+                    if (rowInside && oldX >= 0 && oldX < this.xSize && !this.dirty.get(oldRow + oldX))
+                        this.spare[i++] = this.ids[oldRow + oldX];
+                    else
+                        this.spare[i++] = read(x, y, z);
+                }
+            }
+        }
+        int[] swap = this.ids;
+        this.ids = this.spare;
+        this.spare = swap;
+    }
+
+    private int read(int x, int y, int z)
+    {
+        this.pos.setPos(this.baseX + x, this.baseY + y, this.baseZ + z);
+        return Block.getIdFromBlock(this.world.getBlockState(this.pos).getBlock());
+    }
+
+    private void markDirty(int x1, int y1, int z1, int x2, int y2, int z2)
+    {
+        if (!this.valid)
+            return;
+        x1 = Math.max(x1 - this.baseX, 0);
+        y1 = Math.max(y1 - this.baseY, 0);
+        z1 = Math.max(z1 - this.baseZ, 0);
+        x2 = Math.min(x2 - this.baseX, this.xSize - 1);
+        y2 = Math.min(y2 - this.baseY, this.ySize - 1);
+        z2 = Math.min(z2 - this.baseZ, this.zSize - 1);
+        for (int y = y1; y <= y2; y++)
+        {
+            for (int z = z1; z <= z2; z++)
+            {
+                if (x1 <= x2)
+                {
+                    int row = (y * this.zSize + z) * this.xSize;
+                    this.dirty.set(row + x1, row + x2 + 1);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void notifyBlockUpdate(World worldIn, BlockPos pos, IBlockState oldState, IBlockState newState, int flags)
+    {
+        if (oldState.getBlock() != newState.getBlock())
+            markDirty(pos.getX(), pos.getY(), pos.getZ(), pos.getX(), pos.getY(), pos.getZ());
+    }
+
+    @Override
+    public void markBlockRangeForRenderUpdate(int x1, int y1, int z1, int x2, int y2, int z2)
+    {
+        // BulkBlockWriter reports its changes this way.
+        markDirty(x1, y1, z1, x2, y2, z2);
+    }
+
+    @Override
+    public void notifyLightSet(BlockPos pos) {}
+
+    @Override
+    public void playSoundToAllNearExcept(EntityPlayer player, SoundEvent soundIn, SoundCategory category, double x, double y, double z, float volume, float pitch) {}
+
+    @Override
+    public void playRecord(SoundEvent soundIn, BlockPos pos) {}
+
+    @Override
+    public void spawnParticle(int particleID, boolean ignoreRange, double xCoord, double yCoord, double zCoord, double xSpeed, double ySpeed, double zSpeed, int... parameters) {}
+
+    @Override
+    public void spawnParticle(int id, boolean ignoreRange, boolean p_190570_3_, double x, double y, double z, double xSpeed, double ySpeed, double zSpeed, int... parameters) {}
+
+    @Override
+    public void onEntityAdded(Entity entityIn) {}
+
+    @Override
+    public void onEntityRemoved(Entity entityIn) {}
+
+    @Override
+    public void broadcastSound(int soundID, BlockPos pos, int data) {}
+
+    @Override
+    public void playEvent(EntityPlayer player, int type, BlockPos blockPosIn, int data) {}
+
+    @Override
+    public void sendBlockBreakProgress(int breakerId, BlockPos pos, int progress) {}
+}
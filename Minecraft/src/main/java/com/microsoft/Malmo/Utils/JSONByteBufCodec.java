@@ -0,0 +1,192 @@
+// --------------------------------------------------------------------------------------------------
+//  Copyright (c) 2016 Microsoft Corporation
+//
+//  Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+//  associated documentation files (the "Software"), to deal in the Software without restriction,
+//  including without limitation the rights to use, copy, modify, merge, publish, distribute,
+//  sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+//  furnished to do so, subject to the following conditions:
+//
+//  The above copyright notice and this permission notice shall be included in all copies or
+//  substantial portions of the Software.
+//
+//  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+//  NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+//  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+//  DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+//  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+// --------------------------------------------------------------------------------------------------
+
+package com.microsoft.Malmo.Utils;
+
+import io.netty.buffer.ByteBuf;
+
+import java.nio.charset.Charset;
+import java.util.Map;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import com.google.gson.internal.LazilyParsedNumber;
+
+/**
+ * Writes a JSON tree to a ByteBuf, and reads it back again, without going via JSON text.<br>
+ * Used to hand structured data (eg observations) from the server to the client, so that the only time the tree is
+ * turned into text is when it is finally sent to the agent. Numbers keep their Java type, so the tree prints exactly
+ * as it would have done on the server.
+ */
+public class JSONByteBufCodec
+{
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final byte TAG_NULL = 0;
+    private static final byte TAG_TRUE = 1;
+    private static final byte TAG_FALSE = 2;
+    private static final byte TAG_INT = 3;
+    private static final byte TAG_LONG = 4;
+    private static final byte TAG_FLOAT = 5;
+    private static final byte TAG_DOUBLE = 6;
+    private static final byte TAG_NUMBER = 7;   // Any other kind of number, as its string representation.
+    private static final byte TAG_STRING = 8;
+    private static final byte TAG_ARRAY = 9;
+    private static final byte TAG_OBJECT = 10;
+
+    public static void write(ByteBuf buf, JsonElement element)
+    {
+        if (element == null || element.isJsonNull())
+        {
+            buf.writeByte(TAG_NULL);
+        }
+        else if (element.isJsonObject())
+        {
+            JsonObject obj = element.getAsJsonObject();
+            buf.writeByte(TAG_OBJECT);
+            int countIndex = buf.writerIndex();
+            buf.writeInt(0);
+            int count = 0;
+            for (Map.Entry<String, JsonElement> entry : obj.entrySet())
+            {
+                writeString(buf, entry.getKey());
+                write(buf, entry.getValue());
+                count++;
+            }
+            buf.setInt(countIndex, count);
+        }
+        else if (element.isJsonArray())
+        {
+            JsonArray arr = element.getAsJsonArray();
+            buf.writeByte(TAG_ARRAY);
+            buf.writeInt(arr.size());
+            for (JsonElement child : arr)
+                write(buf, child);
+        }
+        else
+        {
+            JsonPrimitive prim = element.getAsJsonPrimitive();
+            if (prim.isBoolean())
+            {
+                buf.writeByte(prim.getAsBoolean() ? TAG_TRUE : TAG_FALSE);
+            }
+            else if (prim.isString())
+            {
+                buf.writeByte(TAG_STRING);
+                writeString(buf, prim.getAsString());
+            }
+            else
+            {
+                Number n = prim.getAsNumber();
+                if (n instanceof Integer || n instanceof Short || n instanceof Byte)
+                {
+                    buf.writeByte(TAG_INT);
+                    buf.writeInt(n.intValue());
+                }
+                else if (n instanceof Long)
+                {
+                    buf.writeByte(TAG_LONG);
+                    buf.writeLong(n.longValue());
+                }
+                else if (n instanceof Float)
+                {
+                    buf.writeByte(TAG_FLOAT);
+                    buf.writeFloat(n.floatValue());
+                }
+                else if (n instanceof Double)
+                {
+                    buf.writeByte(TAG_DOUBLE);
+                    buf.writeDouble(n.doubleValue());
+                }
+                else
+                {
+                    buf.writeByte(TAG_NUMBER);
+                    writeString(buf, n.toString());
+                }
+            }
+        }
+    }
+
+    public static JsonElement read(ByteBuf buf)
+    {
+        byte tag = buf.readByte();
+        switch (tag)
+        {
+        case TAG_NULL:
+            return JsonNull.INSTANCE;
+        case TAG_TRUE:
+            return new JsonPrimitive(true);
+        case TAG_FALSE:
+            return new JsonPrimitive(false);
+        case TAG_INT:
+            return new JsonPrimitive(buf.readInt());
+        case TAG_LONG:
+            return new JsonPrimitive(buf.readLong());
+        case TAG_FLOAT:
+            return new JsonPrimitive(buf.readFloat());
+        case TAG_DOUBLE:
+            return new JsonPrimitive(buf.readDouble());
+        case TAG_NUMBER:
+            return new JsonPrimitive(new LazilyParsedNumber(readString(buf)));
+        case TAG_STRING:
+            return new JsonPrimitive(readString(buf));
+        case TAG_ARRAY:
+        {
+            int count = buf.readInt();
+            JsonArray arr = new JsonArray();
+            for (int i = 0; i < count; i++)
+                arr.add(read(buf));
+            return arr;
+        }
+        case TAG_OBJECT:
+        {
+            int count = buf.readInt();
+            JsonObject obj = new JsonObject();
+            for (int i = 0; i < count; i++)
+            {
+                String key = readString(buf);
+                obj.add(key, read(buf));
+            }
+            return obj;
+        }
+        default:
+            throw new IllegalArgumentException("Unknown JSON tag in buffer: " + tag);
+        }
+    }
+
+    /** Write a string with a four byte length header (ByteBufUtils.writeUTF8String is limited to 32k).*/
+    public static void writeString(ByteBuf buf, String s)
+    {
+        byte[] bytes = s.getBytes(UTF8);
+        buf.writeInt(bytes.length);
+        buf.writeBytes(bytes);
+    }
+
+    /** Read a string written by writeString().*/
+    public static String readString(ByteBuf buf)
+    {
+        int length = buf.readInt();
+        String s = buf.toString(buf.readerIndex(), length, UTF8);
+        buf.skipBytes(length);
+        return s;
+    }
+}
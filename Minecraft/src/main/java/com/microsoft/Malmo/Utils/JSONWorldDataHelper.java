@@ -19,6 +19,13 @@
 
 package com.microsoft.Malmo.Utils;
 
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.xml.bind.DatatypeConverter;
+
 import net.minecraft.block.Block;
 import net.minecraft.block.state.IBlockState;
 import net.minecraft.entity.player.EntityPlayerMP;
@@ -191,4 +198,140 @@ public class JSONWorldDataHelper
         }
         json.add(jsonName, arr);
     }
+
+    /**
+     * As for buildGridData(), but returns the grid in a compact binary form, rather than as one JSON string per cell.<br>
+     * The returned object contains the grid's "shape" ([y, z, x]), the "data" - one 16 bit block id per cell, big-endian and
+     * base64 encoded - and a "palette" mapping each block id that appears in the grid to its block type.
+     * Block ids come from the block registry, so are fixed for the duration of a mission.
+     * @param json a JSON object into which the grid will be added.
+     * @param environmentDimensions object which specifies the required dimensions of the grid to be returned.
+     * @param jsonName name to use for identifying the returned JSON object.
+     */
+    public static void buildBinaryGridData(JsonObject json, GridDimensions environmentDimensions, EntityPlayerMP player, String jsonName)
+    {
+        if (player == null || json == null)
+            return;
+
+        int xSize = environmentDimensions.xMax - environmentDimensions.xMin + 1;
+        int ySize = environmentDimensions.yMax - environmentDimensions.yMin + 1;
+        int zSize = environmentDimensions.zMax - environmentDimensions.zMin + 1;
+        if (xSize <= 0 || ySize <= 0 || zSize <= 0)
+            return;
+
+        ByteBuffer data = ByteBuffer.allocate(xSize * ySize * zSize * 2);
+        JsonObject palette = new JsonObject();
+        BitSet inPalette = new BitSet();
+        BlockPos origin = environmentDimensions.absoluteCoords ? BlockPos.ORIGIN : new BlockPos(player.posX, player.posY, player.posZ);
+        BlockPos.MutableBlockPos p = new BlockPos.MutableBlockPos();
+        for (int y = environmentDimensions.yMin; y <= environmentDimensions.yMax; y++)
+        {
+            for (int z = environmentDimensions.zMin; z <= environmentDimensions.zMax; z++)
+            {
+                for (int x = environmentDimensions.xMin; x <= environmentDimensions.xMax; x++)
+                {
+                    p.setPos(origin.getX() + x, origin.getY() + y, origin.getZ() + z);
+                    Block block = player.world.getBlockState(p).getBlock();
+                    int id = Block.getIdFromBlock(block);
+                    data.putShort((short)id);
+                    if (!inPalette.get(id))
+                    {
+                        inPalette.set(id);
+                        String name = "";
+                        Object blockName = Block.REGISTRY.getNameForObject(block);
+                        if (blockName instanceof ResourceLocation)
+                        {
+                            name = ((ResourceLocation)blockName).getResourcePath();
+                        }
+                        palette.addProperty(Integer.toString(id), name);
+                    }
+                }
+            }
+        }
+        JsonArray shape = new JsonArray();
+        shape.add(new JsonPrimitive(ySize));
+        shape.add(new JsonPrimitive(zSize));
+        shape.add(new JsonPrimitive(xSize));
+
+        JsonObject grid = new JsonObject();
+        grid.add("shape", shape);
+        grid.addProperty("data", DatatypeConverter.printBase64Binary(data.array()));
+        grid.add("palette", palette);
+        json.add(jsonName, grid);
+    }
+
+    /**
+     * As for buildGridData() and buildBinaryGridData(), but reads the blocks through an IncrementalGrid, which only
+     * re-reads the cells that have changed or come into view since the grid was last observed.<br>
+     * The output is the same as the non-incremental versions.
+     * @param json a JSON object into which the grid will be added.
+     * @param environmentDimensions object which specifies the required dimensions of the grid to be returned.
+     * @param jsonName name to use for identifying the returned JSON element - must be unique for the player.
+     * @param binary true to return the grid in the compact form used by buildBinaryGridData().
+     */
+    public static void buildIncrementalGridData(JsonObject json, GridDimensions environmentDimensions, EntityPlayerMP player, String jsonName, boolean binary)
+    {
+        if (player == null || json == null)
+            return;
+
+        int xSize = environmentDimensions.xMax - environmentDimensions.xMin + 1;
+        int ySize = environmentDimensions.yMax - environmentDimensions.yMin + 1;
+        int zSize = environmentDimensions.zMax - environmentDimensions.zMin + 1;
+        if (xSize <= 0 || ySize <= 0 || zSize <= 0)
+        {
+            if (!binary)
+                json.add(jsonName, new JsonArray());
+            return;
+        }
+
+        int[] ids = IncrementalGrid.getBlockIds(player, environmentDimensions, jsonName);
+        if (!binary)
+        {
+            JsonArray arr = new JsonArray();
+            Map<Integer, JsonPrimitive> names = new HashMap<Integer, JsonPrimitive>();
+            for (int id : ids)
+            {
+                JsonPrimitive name = names.get(id);
+                if (name == null)
+                {
+                    name = new JsonPrimitive(getBlockName(Block.getBlockById(id)));
+                    names.put(id, name);
+                }
+                arr.add(name);
+            }
+            json.add(jsonName, arr);
+            return;
+        }
+
+        ByteBuffer data = ByteBuffer.allocate(ids.length * 2);
+        JsonObject palette = new JsonObject();
+        BitSet inPalette = new BitSet();
+        for (int id : ids)
+        {
+            data.putShort((short)id);
+            if (!inPalette.get(id))
+            {
+                inPalette.set(id);
+                palette.addProperty(Integer.toString(id), getBlockName(Block.getBlockById(id)));
+            }
+        }
+        JsonArray shape = new JsonArray();
+        shape.add(new JsonPrimitive(ySize));
+        shape.add(new JsonPrimitive(zSize));
+        shape.add(new JsonPrimitive(xSize));
+
+        JsonObject grid = new JsonObject();
+        grid.add("shape", shape);
+        grid.addProperty("data", DatatypeConverter.printBase64Binary(data.array()));
+        grid.add("palette", palette);
+        json.add(jsonName, grid);
+    }
+
+    private static String getBlockName(Block block)
+    {
+        Object blockName = Block.REGISTRY.getNameForObject(block);
+        if (blockName instanceof ResourceLocation)
+            return ((ResourceLocation)blockName).getResourcePath();
+        return "";
+    }
 }
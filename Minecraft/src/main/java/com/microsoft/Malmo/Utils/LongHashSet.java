@@ -0,0 +1,111 @@
+// --------------------------------------------------------------------------------------------------
+//  Copyright (c) 2016 Microsoft Corporation
+//
+//  Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+//  associated documentation files (the "Software"), to deal in the Software without restriction,
+//  including without limitation the rights to use, copy, modify, merge, publish, distribute,
+//  sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+//  furnished to do so, subject to the following conditions:
+//
+//  The above copyright notice and this permission notice shall be included in all copies or
+//  substantial portions of the Software.
+//
+//  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+//  NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+//  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+//  DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+//  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+// --------------------------------------------------------------------------------------------------
+
+package com.microsoft.Malmo.Utils;
+
+import java.util.Arrays;
+
+/**
+ * A set of primitive longs (eg BlockPos.toLong() keys), using open addressing, so that adding and testing keys doesn't
+ * box them or allocate per entry.
+ */
+public class LongHashSet
+{
+    private static final long EMPTY = 0;    // Zero is held separately, in hasZero.
+
+    private long[] keys = new long[16];
+    private int size = 0;
+    private boolean hasZero = false;
+
+    /** @return true if the key wasn't already in the set.*/
+    public boolean add(long key)
+    {
+        if (key == EMPTY)
+        {
+            if (this.hasZero)
+                return false;
+            this.hasZero = true;
+            this.size++;
+            return true;
+        }
+        int mask = this.keys.length - 1;
+        int slot = hash(key) & mask;
+        while (this.keys[slot] != EMPTY)
+        {
+            if (this.keys[slot] == key)
+                return false;
+            slot = (slot + 1) & mask;
+        }
+        this.keys[slot] = key;
+        this.size++;
+        if (this.size * 2 > this.keys.length)
+            grow();
+        return true;
+    }
+
+    public boolean contains(long key)
+    {
+        if (key == EMPTY)
+            return this.hasZero;
+        int mask = this.keys.length - 1;
+        int slot = hash(key) & mask;
+        while (this.keys[slot] != EMPTY)
+        {
+            if (this.keys[slot] == key)
+                return true;
+            slot = (slot + 1) & mask;
+        }
+        return false;
+    }
+
+    public int size()
+    {
+        return this.size;
+    }
+
+    public void clear()
+    {
+        Arrays.fill(this.keys, EMPTY);
+        this.size = 0;
+        this.hasZero = false;
+    }
+
+    private void grow()
+    {
+        long[] old = this.keys;
+        this.keys = new long[old.length * 2];
+        int mask = this.keys.length - 1;
+        for (long key : old)
+        {
+            if (key == EMPTY)
+                continue;
+            int slot = hash(key) & mask;
+            while (this.keys[slot] != EMPTY)
+                slot = (slot + 1) & mask;
+            this.keys[slot] = key;
+        }
+    }
+
+    private static int hash(long key)
+    {
+        // Spread the bits, since BlockPos keys vary mostly in their low bits of each field:
+        key *= 0x9E3779B97F4A7C15L;
+        return (int)(key ^ (key >>> 32));
+    }
+}
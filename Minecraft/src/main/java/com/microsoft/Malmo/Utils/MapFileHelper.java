@@ -21,8 +21,16 @@ package com.microsoft.Malmo.Utils;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
 import java.util.List;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 import net.minecraft.client.AnvilConverterException;
 import net.minecraft.client.Minecraft;
@@ -39,6 +47,25 @@ import org.apache.commons.io.FileUtils;
 public class MapFileHelper
 {
     static final String tempMark = "TEMP_";
+    static final String trashFolder = "malmo_deleted_saves";
+
+    /** Region files that have been hard-linked to a basemap's, and so must be copied before anyone writes to them.*/
+    private static final Set<String> linkedRegionFiles = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    private static boolean trashSwept = false;
+
+    /** Deletes old worlds in the background, one at a time.*/
+    private static final ExecutorService deleter = Executors.newSingleThreadExecutor(new ThreadFactory()
+    {
+        @Override
+        public Thread newThread(Runnable r)
+        {
+            Thread t = new Thread(r, "Malmo world deleter");
+            t.setDaemon(true);
+            t.setPriority(Thread.MIN_PRIORITY);
+            return t;
+        }
+    });
 
     /** Attempt to copy the specified file into the Minecraft saves folder.
      * @param mapFile full path to the map file required
@@ -46,6 +73,19 @@ public class MapFileHelper
      * @return if successful, a File object representing the new copy, which can be fed to Minecraft to load - otherwise null.
      */
     static public File copyMapFiles(File mapFile, boolean isTemporary)
+    {
+        return copyMapFiles(mapFile, isTemporary, false);
+    }
+
+    /** Attempt to copy the specified file into the Minecraft saves folder.
+     * @param mapFile full path to the map file required
+     * @param isTemporary mark the copy such that the file management code knows to delete it later
+     * @param linkRegionFiles if true (and the copy is temporary), hard-link the region files rather than copying them -
+     * each one is only copied for real when Minecraft first opens it (see unshareRegionFile). Falls back to copying
+     * if the file system can't link.
+     * @return if successful, a File object representing the new copy, which can be fed to Minecraft to load - otherwise null.
+     */
+    static public File copyMapFiles(File mapFile, boolean isTemporary, boolean linkRegionFiles)
     {
         System.out.println("Current directory: "+System.getProperty("user.dir"));
         // Look for the basemap file.
@@ -59,7 +99,10 @@ public class MapFileHelper
 
             try
             {
-                FileUtils.copyDirectory(mapFile, dst);
+                if (linkRegionFiles && isTemporary)
+                    linkOrCopyDirectory(mapFile, dst);
+                else
+                    FileUtils.copyDirectory(mapFile, dst);
             }
             catch (IOException e)
             {
@@ -71,6 +114,80 @@ public class MapFileHelper
         return dst;
     }
 
+    /** Copy a directory tree, hard-linking the region files instead of copying them where possible.*/
+    private static void linkOrCopyDirectory(File src, File dst) throws IOException
+    {
+        if (!dst.isDirectory() && !dst.mkdirs())
+            throw new IOException("Could not create " + dst.getPath());
+        File[] files = src.listFiles();
+        if (files == null)
+            throw new IOException("Could not list " + src.getPath());
+        for (File f : files)
+        {
+            File target = new File(dst, f.getName());
+            if (f.isDirectory())
+                linkOrCopyDirectory(f, target);
+            else if (isRegionFile(f) && tryLink(f, target))
+                linkedRegionFiles.add(getKey(target));
+            else
+                FileUtils.copyFile(f, target);
+        }
+    }
+
+    private static boolean tryLink(File existing, File link)
+    {
+        try
+        {
+            Files.createLink(link.toPath(), existing.toPath());
+            return true;
+        }
+        catch (IOException e)
+        {
+            return false;   // Eg different file systems.
+        }
+        catch (UnsupportedOperationException e)
+        {
+            return false;
+        }
+    }
+
+    private static boolean isRegionFile(File f)
+    {
+        return f.getName().endsWith(".mca") || f.getName().endsWith(".mcr");
+    }
+
+    private static String getKey(File f)
+    {
+        return f.getAbsoluteFile().toPath().normalize().toString();
+    }
+
+    /** Called (via OverclockingClassTransformer) whenever Minecraft opens a region file.<br>
+     * If the file is hard-linked to a basemap's region file, replace it with a real copy, so that the basemap never gets
+     * written to. Does nothing for any other file.
+     * @param file the region file about to be opened.
+     * @throws RuntimeException if the copy can't be made - the world can't be loaded without either writing through to
+     * the basemap or losing the map's terrain, so the load has to fail.
+     */
+    public static void unshareRegionFile(File file)
+    {
+        String key = getKey(file);
+        if (linkedRegionFiles.isEmpty() || !linkedRegionFiles.remove(key))
+            return;
+        File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+        try
+        {
+            FileUtils.copyFile(file, tmp);
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (IOException e)
+        {
+            // The file is still linked to the basemap, so make sure nobody opens it without trying again.
+            linkedRegionFiles.add(key);
+            tmp.delete();
+            throw new RuntimeException("Failed to copy linked region file " + file.getPath() + " - " + e.getMessage(), e);
+        }
+    }
+
     /** Get a filename to use for creating a new Minecraft save map.<br>
      * Ensure no duplicates.
      * @param isTemporary mark the filename such that the file management code knows to delete this later
@@ -116,6 +233,8 @@ public class MapFileHelper
      * @param currentWorld excludes this world from deletion, can be null
      */
     public static void cleanupTemporaryWorlds(String currentWorld){
+        sweepTrashFolder();
+
         List<WorldSummary> saveList;
         ISaveFormat isaveformat = Minecraft.getMinecraft().getSaveLoader();
         isaveformat.flushCache();
@@ -132,8 +251,64 @@ public class MapFileHelper
         for (WorldSummary s: saveList){
             String folderName = s.getFileName();
             if (folderName.startsWith(searchString) && !folderName.equals(currentWorld)){
-                isaveformat.deleteWorldDirectory(folderName);
+                deleteWorldInBackground(isaveformat, folderName);
             }
         }
     }
+
+    /**
+     * Moves the world out of the saves folder (so Minecraft no longer sees it), and deletes it on a background thread.<br>
+     * If the world can't be moved, it is deleted straight away.
+     */
+    private static void deleteWorldInBackground(ISaveFormat isaveformat, String folderName)
+    {
+        File savesDir = FMLClientHandler.instance().getSavesDir();
+        File trashDir = getTrashFolder();
+        File trashed = new File(trashDir, folderName);
+        if ((!trashDir.isDirectory() && !trashDir.mkdirs()) || trashed.exists() || !new File(savesDir, folderName).renameTo(trashed))
+        {
+            isaveformat.deleteWorldDirectory(folderName);
+            return;
+        }
+        deleteInBackground(trashed);
+    }
+
+    private static File getTrashFolder()
+    {
+        return new File(FMLClientHandler.instance().getSavesDir().getParentFile(), trashFolder);
+    }
+
+    /** The first time we're called, queue up anything left in the trash folder - eg if a previous run was killed before
+     * its deleter got to it.
+     */
+    private static synchronized void sweepTrashFolder()
+    {
+        if (trashSwept)
+            return;
+        trashSwept = true;
+        File[] leftovers = getTrashFolder().listFiles();
+        if (leftovers == null)
+            return;
+        for (File f : leftovers)
+            deleteInBackground(f);
+    }
+
+    private static void deleteInBackground(final File trashed)
+    {
+        deleter.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    FileUtils.forceDelete(trashed);
+                }
+                catch (IOException e)
+                {
+                    System.out.println("Failed to delete old world " + trashed.getPath() + " - " + e.getMessage());
+                }
+            }
+        });
+    }
 }
\ No newline at end of file
@@ -0,0 +1,89 @@
+// --------------------------------------------------------------------------------------------------
+//  Copyright (c) 2016 Microsoft Corporation
+//  
+//  Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+//  associated documentation files (the "Software"), to deal in the Software without restriction,
+//  including without limitation the rights to use, copy, modify, merge, publish, distribute,
+//  sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+//  furnished to do so, subject to the following conditions:
+//  
+//  The above copyright notice and this permission notice shall be included in all copies or
+//  substantial portions of the Software.
+//  
+//  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+//  NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+//  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+//  DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+//  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+// --------------------------------------------------------------------------------------------------
+
+package com.microsoft.Malmo.Utils;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.logging.Level;
+
+import net.minecraftforge.fml.common.eventhandler.SubscribeEvent;
+import net.minecraftforge.fml.common.gameevent.TickEvent;
+import net.minecraftforge.fml.common.gameevent.TickEvent.Phase;
+import net.minecraftforge.fml.relauncher.Side;
+
+/**
+ * Hands network messages over from the netty threads to the client or server thread.<br>
+ * Rather than scheduling a new task for every message, the message itself goes onto a lock-free queue, and the queue is
+ * drained once per tick, at the start of the tick. Must be registered on MinecraftForge.EVENT_BUS.
+ */
+public class MessageDispatcher
+{
+    /** A message which knows what to do with itself once it reaches the main thread.*/
+    public interface IQueuedMessage
+    {
+        /** Called on the client or server thread (whichever side the message was received on).*/
+        void deliver();
+    }
+
+    private static final Queue<IQueuedMessage> clientQueue = new ConcurrentLinkedQueue<IQueuedMessage>();
+    private static final Queue<IQueuedMessage> serverQueue = new ConcurrentLinkedQueue<IQueuedMessage>();
+
+    /** Queue a message for delivery at the start of the next tick.
+     * @param side the side the message was received on - it will be delivered on that side's main thread.
+     */
+    public static void enqueue(Side side, IQueuedMessage message)
+    {
+        if (side == Side.CLIENT)
+            clientQueue.add(message);
+        else
+            serverQueue.add(message);
+    }
+
+    @SubscribeEvent
+    public void onClientTick(TickEvent.ClientTickEvent ev)
+    {
+        if (ev.phase == Phase.START)
+            drain(clientQueue);
+    }
+
+    @SubscribeEvent
+    public void onServerTick(TickEvent.ServerTickEvent ev)
+    {
+        if (ev.phase == Phase.START)
+            drain(serverQueue);
+    }
+
+    private static void drain(Queue<IQueuedMessage> queue)
+    {
+        IQueuedMessage message;
+        while ((message = queue.poll()) != null)
+        {
+            try
+            {
+                message.deliver();
+            }
+            catch (RuntimeException e)
+            {
+                // Don't let one bad message hold up the rest:
+                TCPUtils.Log(Level.SEVERE, "Error delivering " + message.getClass().getSimpleName() + ": " + e);
+            }
+        }
+    }
+}
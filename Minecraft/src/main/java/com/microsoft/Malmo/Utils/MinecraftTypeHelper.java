@@ -21,8 +21,15 @@ package com.microsoft.Malmo.Utils;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
 
 import net.minecraft.block.Block;
 import net.minecraft.block.BlockAir;
@@ -60,6 +67,109 @@ import com.microsoft.Malmo.Schemas.WoodTypes;
  */
 public class MinecraftTypeHelper
 {
+    /** The parts of a DrawBlock that depend only on the block state, along with the properties that didn't match any of them.*/
+    private static class BlockStateInfo
+    {
+        final BlockType type;
+        final Colour colour;
+        final String variant;
+        final Facing face;
+        final IProperty[] extraProperties;
+
+        BlockStateInfo(DrawBlock block, List<IProperty> extraProperties)
+        {
+            this.type = block.getType();
+            this.colour = block.getColour();
+            this.variant = (block.getVariant() != null) ? block.getVariant().getValue() : null;
+            this.face = block.getFace();
+            this.extraProperties = extraProperties.toArray(new IProperty[extraProperties.size()]);
+        }
+    }
+
+    /** The parts of a DrawItem that depend only on the item and its metadata.*/
+    private static class ItemInfo
+    {
+        final String type;
+        final Colour colour;
+        final String variant;
+
+        ItemInfo(DrawItem item)
+        {
+            this.type = item.getType();
+            this.colour = item.getColour();
+            this.variant = (item.getVariant() != null) ? item.getVariant().getValue() : null;
+        }
+    }
+
+    /** Colours, keyed on their names with the underscores removed.*/
+    private static final Map<String, Colour> colours = new HashMap<String, Colour>();
+    /** Facings, keyed on their names.*/
+    private static final Map<String, Facing> facings = new HashMap<String, Facing>();
+    /** Variation values for the types matched on their upper-cased enum names (StoneTypes, WoodTypes).*/
+    private static final Map<String, String> namedVariants = new HashMap<String, String>();
+    /** Variation values for the types matched on their exact values (FlowerTypes, EntityTypes etc).*/
+    private static final Map<String, String> valuedVariants = new HashMap<String, String>();
+    /** Every block state's DrawBlock parts - built by buildTranslationTables(), and not changed after that.*/
+    private static volatile Map<IBlockState, BlockStateInfo> blockStates = null;
+    /** DrawItem parts, keyed on item id and metadata. Filled in as items are seen, since the server can't list an item's subtypes.*/
+    private static final Map<Integer, ItemInfo> items = new ConcurrentHashMap<Integer, ItemInfo>();
+
+    static
+    {
+        for (Colour col : Colour.values())
+            colours.put(col.name().replace("_", ""), col);
+        for (Facing face : Facing.values())
+            facings.put(face.name(), face);
+        // Where a string could be more than one type of variation, the first type added wins:
+        for (StoneTypes var : StoneTypes.values())
+            addVariant(namedVariants, var.name(), var.value());
+        for (WoodTypes var : WoodTypes.values())
+            addVariant(namedVariants, var.name(), var.value());
+        for (FlowerTypes var : FlowerTypes.values())
+            addVariant(valuedVariants, var.value(), var.value());
+        for (EntityTypes var : EntityTypes.values())
+            addVariant(valuedVariants, var.value(), var.value());
+        for (MonsterEggTypes var : MonsterEggTypes.values())
+            addVariant(valuedVariants, var.value(), var.value());
+        for (ShapeTypes var : ShapeTypes.values())
+            addVariant(valuedVariants, var.value(), var.value());
+        for (HalfTypes var : HalfTypes.values())
+            addVariant(valuedVariants, var.value(), var.value());
+    }
+
+    private static void addVariant(Map<String, String> map, String key, String value)
+    {
+        if (!map.containsKey(key))
+            map.put(key, value);
+    }
+
+    /** Work out the DrawBlock for every block state in the registry up front, so that getDrawBlockFromBlockState() is
+     * just a lookup. Call once all the blocks have been registered.
+     */
+    public static void buildTranslationTables()
+    {
+        long start = System.currentTimeMillis();
+        Map<IBlockState, BlockStateInfo> table = new IdentityHashMap<IBlockState, BlockStateInfo>();
+        List<IProperty> extraProperties = new ArrayList<IProperty>();
+        for (Block block : Block.REGISTRY)
+        {
+            for (IBlockState state : block.getBlockState().getValidStates())
+            {
+                extraProperties.clear();
+                try
+                {
+                    table.put(state, new BlockStateInfo(createDrawBlock(state, extraProperties), extraProperties));
+                }
+                catch (IllegalArgumentException e)
+                {
+                    // Not one of our BlockTypes - leave it to be worked out (and complained about) when it's asked for.
+                }
+            }
+        }
+        blockStates = table;
+        TCPUtils.Log(Level.INFO, "Built type translation table for " + table.size() + " block states in " + (System.currentTimeMillis() - start) + "ms");
+    }
+
     /**
      * Attempts to parse the block type string.
      * @param s The string to parse.
@@ -95,6 +205,27 @@ public class MinecraftTypeHelper
         return item;
     }
 
+    /** Get the blocks a BlockType stands for, when matching blocks by name.<br>
+     * Some blocks share their unlocalised name with another (eg lit_furnace and furnace, flowing_water and water), and
+     * matching by name has always treated them as the same - so all of them are returned.
+     * @param type the block type.
+     * @return every registered block whose unlocalised name matches that of the type's block, ignoring case.
+     */
+    public static Set<Block> getBlocksSharingName(BlockType type)
+    {
+        Set<Block> blocks = new HashSet<Block>();
+        Block block = Block.getBlockFromName(type.value());
+        if (block == null)
+            return blocks;
+        String name = block.getUnlocalizedName();
+        for (Block b : Block.REGISTRY)
+        {
+            if (b.getUnlocalizedName().equalsIgnoreCase(name))
+                blocks.add(b);
+        }
+        return blocks;
+    }
+
     /** Test whether this block has a colour attribute which matches the list of allowed colours
      * @param bs blockstate to test
      * @param allowedColours list of allowed Colour enum values
@@ -149,28 +280,12 @@ public class MinecraftTypeHelper
      */
     public static Colour attemptToGetAsColour(String part)
     {
-        String target = part.toUpperCase();
-        for (int i = 0; i < Colour.values().length; i++)
-        {
-            String col = Colour.values()[i].name().replace("_",  "");
-            if (col.equals(target))
-                return Colour.values()[i];
-        }
-        return null;
+        return colours.get(part.toUpperCase());
     }
     
     public static Facing attemptToGetAsFacing(String part)
     {
-        Facing face = null;
-        try
-        {
-            face = Facing.valueOf(part);
-        }
-        catch (Exception e)
-        {
-            // Does nothing.
-        }
-        return face;
+        return facings.get(part);
     }
 
     /** Attempt to parse string as a Variation, allowing for block properties having different names to the enum values<br>
@@ -207,107 +322,14 @@ public class MinecraftTypeHelper
     public static Variation attemptToGetAsVariant(String part)
     {
         // Annoyingly JAXB won't bind Variation as an enum, so we have to do this manually.
-        // TODO - can we do something more clever... eg make StoneTypes, WoodTypes etc inherit from an XSD baseclass,
-        // and have an object in the schemas that returns a list, so we can just iterate...
-        try
-        {
-            StoneTypes var = StoneTypes.valueOf(part.toUpperCase());
-            if (var != null)
-            {
-                Variation bv = new Variation();
-                bv.setValue(var.value());
-                return bv;
-            }
-        }
-        catch (Exception e)
-        {
-            // Does nothing.
-        }
-        try
-        {
-            WoodTypes var = WoodTypes.valueOf(part.toUpperCase());
-            if (var != null)
-            {
-                Variation bv = new Variation();
-                bv.setValue(var.value());
-                return bv;
-            }
-        }
-        catch (Exception e)
-        {
-            // Does nothing.
-        }
-        try
-        {
-            FlowerTypes var = FlowerTypes.fromValue(part);
-            if (var != null)
-            {
-                Variation bv = new Variation();
-                bv.setValue(var.value());
-                return bv;
-            }
-        }
-        catch (Exception e)
-        {
-            // Does nothing.
-        }
-        try
-        {
-            EntityTypes var = EntityTypes.fromValue(part);
-            if (var != null)
-            {
-                Variation bv = new Variation();
-                bv.setValue(var.value());
-                return bv;
-            }
-        }
-        catch (Exception e)
-        {
-            // Does nothing.
-        }
-        try
-        {
-            MonsterEggTypes var = MonsterEggTypes.fromValue(part);
-            if (var != null)
-            {
-                Variation bv = new Variation();
-                bv.setValue(var.value());
-                return bv;
-            }
-        }
-        catch (Exception e)
-        {
-            // Does nothing.
-        }
-        try
-        {
-            ShapeTypes var = ShapeTypes.fromValue(part);
-            if (var != null)
-            {
-                Variation bv = new Variation();
-                bv.setValue(var.value());
-                return bv;
-            }
-        }
-        catch (Exception e)
-        {
-            // Does nothing.
-        }
-        try
-        {
-            HalfTypes var = HalfTypes.fromValue(part);
-            if (var != null)
-            {
-                Variation bv = new Variation();
-                bv.setValue(var.value());
-                return bv;
-            }
-        }
-        catch (Exception e)
-        {
-            // Does nothing.
-        }
-        return null;
+        String value = namedVariants.get(part.toUpperCase());
+        if (value == null)
+            value = valuedVariants.get(part);
+        if (value == null)
+            return null;
+        Variation bv = new Variation();
+        bv.setValue(value);
+        return bv;
     }
 
     /** Extract the type, variation and facing attributes of a blockstate and return them in a new DrawBlock object.<br>
@@ -319,6 +341,30 @@ public class MinecraftTypeHelper
         if (state == null)
             return null;
 
+        Map<IBlockState, BlockStateInfo> table = blockStates;
+        BlockStateInfo info = (table != null) ? table.get(state) : null;
+        if (info == null)
+            return createDrawBlock(state, extraProperties);
+
+        DrawBlock block = new DrawBlock();
+        block.setType(info.type);
+        if (info.colour != null)
+            block.setColour(info.colour);
+        if (info.variant != null)
+        {
+            Variation var = new Variation();
+            var.setValue(info.variant);
+            block.setVariant(var);
+        }
+        if (info.face != null)
+            block.setFace(info.face);
+        if (extraProperties != null)
+            extraProperties.addAll(Arrays.asList(info.extraProperties));
+        return block;
+    }
+
+    private static DrawBlock createDrawBlock(IBlockState state, List<IProperty> extraProperties)
+    {
         DrawBlock block = new DrawBlock();
         Object blockName = Block.REGISTRY.getNameForObject(state.getBlock());
         if (blockName instanceof ResourceLocation)
@@ -382,6 +428,30 @@ public class MinecraftTypeHelper
         if (is == null)
             return null;
 
+        if (is.getItem() instanceof ItemMonsterPlacer)
+            return createDrawItem(is);  // The egg's entity comes from its NBT, not its metadata.
+
+        Integer key = (Item.getIdFromItem(is.getItem()) << 16) | (is.getMetadata() & 0xFFFF);
+        ItemInfo info = items.get(key);
+        if (info == null)
+        {
+            info = new ItemInfo(createDrawItem(is));
+            items.put(key, info);
+        }
+        DrawItem di = new DrawItem();
+        di.setType(info.type);
+        di.setColour(info.colour);
+        if (info.variant != null)
+        {
+            Variation var = new Variation();
+            var.setValue(info.variant);
+            di.setVariant(var);
+        }
+        return di;
+    }
+
+    private static DrawItem createDrawItem(ItemStack is)
+    {
         DrawItem di = new DrawItem();
         String name = is.getUnlocalizedName();  // Get unlocalised name from the stack, not the stack's item - this ensures we keep the metadata.
         if (is.getHasSubtypes())
@@ -0,0 +1,171 @@
+// --------------------------------------------------------------------------------------------------
+//  Copyright (c) 2016 Microsoft Corporation
+//
+//  Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+//  associated documentation files (the "Software"), to deal in the Software without restriction,
+//  including without limitation the rights to use, copy, modify, merge, publish, distribute,
+//  sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+//  furnished to do so, subject to the following conditions:
+//
+//  The above copyright notice and this permission notice shall be included in all copies or
+//  substantial portions of the Software.
+//
+//  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+//  NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+//  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+//  DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+//  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+// --------------------------------------------------------------------------------------------------
+
+package com.microsoft.Malmo.Utils;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL15;
+import org.lwjgl.opengl.GL21;
+import org.lwjgl.opengl.GLContext;
+
+/**
+ * Reads pixels back from the currently bound framebuffer (or texture), optionally via a ring of pixel buffer objects.<br>
+ * With a single buffer this is just a synchronous glReadPixels, which stalls until the GPU has finished rendering.
+ * With two or three buffers, each call queues an asynchronous read of the current frame into the next PBO in the ring,
+ * and then maps the oldest PBO - so the caller receives the frame rendered (bufferCount - 1) calls ago, but the render
+ * thread doesn't have to wait for the pipeline to drain.
+ */
+public class PixelBufferReader
+{
+    private final int bufferCount;
+    private final int bufferSize;
+    private int[] pbos = null;
+    private int writeIndex = 0;
+    private int framesIssued = 0;
+    private ByteBuffer mappedBuffer = null;
+
+    /**
+     * @param requestedBuffers number of buffers to use - 1 for synchronous readback, 2 or 3 for asynchronous.
+     * @param bufferSize the number of bytes each read will produce.
+     */
+    public PixelBufferReader(int requestedBuffers, int bufferSize)
+    {
+        this.bufferSize = bufferSize;
+        if (requestedBuffers > 1 && !isSupported())
+        {
+            System.out.println("Pixel buffer objects are not supported - falling back to synchronous frame readback.");
+            requestedBuffers = 1;
+        }
+        this.bufferCount = Math.max(1, requestedBuffers);
+        if (this.bufferCount > 1)
+        {
+            this.pbos = new int[this.bufferCount];
+            for (int i = 0; i < this.bufferCount; i++)
+            {
+                this.pbos[i] = GL15.glGenBuffers();
+                GL15.glBindBuffer(GL21.GL_PIXEL_PACK_BUFFER, this.pbos[i]);
+                GL15.glBufferData(GL21.GL_PIXEL_PACK_BUFFER, bufferSize, GL15.GL_STREAM_READ);
+            }
+            GL15.glBindBuffer(GL21.GL_PIXEL_PACK_BUFFER, 0);
+        }
+    }
+
+    /** Pixel pack buffers are core in OpenGL 2.1.*/
+    public static boolean isSupported()
+    {
+        return GLContext.getCapabilities().OpenGL21;
+    }
+
+    /** The number of frames by which the data returned lags behind the frame being read.*/
+    public int getLatencyInFrames()
+    {
+        return this.bufferCount - 1;
+    }
+
+    /** Read pixels from the currently bound read framebuffer into the destination buffer.
+     * The position of the destination buffer is left unchanged.
+     */
+    public void readPixels(int width, int height, int format, int type, ByteBuffer dest)
+    {
+        if (this.pbos == null)
+        {
+            GL11.glReadPixels(0, 0, width, height, format, type, dest);
+            return;
+        }
+        GL15.glBindBuffer(GL21.GL_PIXEL_PACK_BUFFER, this.pbos[this.writeIndex]);
+        GL11.glReadPixels(0, 0, width, height, format, type, 0L);
+        ByteBuffer mapped = mapOldest();
+        if (mapped != null)
+            dest.duplicate().put(mapped);
+        unmap();
+    }
+
+    /** As for readPixels(), but for float data such as depth components.*/
+    public void readPixels(int width, int height, int format, int type, FloatBuffer dest)
+    {
+        if (this.pbos == null)
+        {
+            GL11.glReadPixels(0, 0, width, height, format, type, dest);
+            return;
+        }
+        GL15.glBindBuffer(GL21.GL_PIXEL_PACK_BUFFER, this.pbos[this.writeIndex]);
+        GL11.glReadPixels(0, 0, width, height, format, type, 0L);
+        ByteBuffer mapped = mapOldest();
+        if (mapped != null)
+            dest.duplicate().put(mapped.asFloatBuffer());
+        unmap();
+    }
+
+    /** Read the contents of the currently bound 2D texture into the destination buffer.
+     * The position of the destination buffer is left unchanged.
+     */
+    public void getTexImage(int format, int type, ByteBuffer dest)
+    {
+        if (this.pbos == null)
+        {
+            GL11.glGetTexImage(GL11.GL_TEXTURE_2D, 0, format, type, dest);
+            return;
+        }
+        GL15.glBindBuffer(GL21.GL_PIXEL_PACK_BUFFER, this.pbos[this.writeIndex]);
+        GL11.glGetTexImage(GL11.GL_TEXTURE_2D, 0, format, type, 0L);
+        ByteBuffer mapped = mapOldest();
+        if (mapped != null)
+            dest.duplicate().put(mapped);
+        unmap();
+    }
+
+    /** Must be called when finished with, to release the buffers.*/
+    public void cleanup()
+    {
+        if (this.pbos == null)
+            return;
+        for (int i = 0; i < this.pbos.length; i++)
+            GL15.glDeleteBuffers(this.pbos[i]);
+        this.pbos = null;
+        this.mappedBuffer = null;
+    }
+
+    private ByteBuffer mapOldest()
+    {
+        // Until the ring has filled up, keep returning the very first frame (this only stalls once, on the first call),
+        // so that the frames handed back never run backwards.
+        int readIndex = (this.framesIssued < this.bufferCount - 1) ? 0 : (this.writeIndex + 1) % this.bufferCount;
+        GL15.glBindBuffer(GL21.GL_PIXEL_PACK_BUFFER, this.pbos[readIndex]);
+        this.mappedBuffer = GL15.glMapBuffer(GL21.GL_PIXEL_PACK_BUFFER, GL15.GL_READ_ONLY, this.bufferSize, this.mappedBuffer);
+        if (this.mappedBuffer == null)
+            return null;
+        this.mappedBuffer.order(ByteOrder.nativeOrder());
+        this.mappedBuffer.clear();
+        return this.mappedBuffer;
+    }
+
+    private void unmap()
+    {
+        if (this.mappedBuffer != null)
+            GL15.glUnmapBuffer(GL21.GL_PIXEL_PACK_BUFFER);
+        GL15.glBindBuffer(GL21.GL_PIXEL_PACK_BUFFER, 0);
+        this.writeIndex = (this.writeIndex + 1) % this.bufferCount;
+        if (this.framesIssued < this.bufferCount)
+            this.framesIssued++;
+    }
+}
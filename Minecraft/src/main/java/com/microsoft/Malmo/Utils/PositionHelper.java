@@ -44,27 +44,13 @@ public class PositionHelper
 	    return (float)Math.sqrt(x*x + y*y + z*z);
 	}
 
+	/** @return the positions of the blocks the player is touching - see TouchingBlocks.*/
 	public static List<BlockPos> getTouchingBlocks(EntityPlayerSP player)
 	{
-		// Determine which blocks we are touching.
-		// This code is adapted from Entity, where it is used to fire the Block.onEntityCollidedWithBlock methods.
-		BlockPos blockposmin = new BlockPos(player.getEntityBoundingBox().minX - 0.001D, player.getEntityBoundingBox().minY - 0.001D, player.getEntityBoundingBox().minZ - 0.001D);
-	    BlockPos blockposmax = new BlockPos(player.getEntityBoundingBox().maxX + 0.001D, player.getEntityBoundingBox().maxY + 0.001D, player.getEntityBoundingBox().maxZ + 0.001D);
-	    List<BlockPos> blocks = new ArrayList<BlockPos>();
-	    
-	    if (player.world.isAreaLoaded(blockposmin, blockposmax))
-	    {
-	        for (int i = blockposmin.getX(); i <= blockposmax.getX(); ++i)
-	        {
-	            for (int j = blockposmin.getY(); j <= blockposmax.getY(); ++j)
-	            {
-	                for (int k = blockposmin.getZ(); k <= blockposmax.getZ(); ++k)
-	                {
-	                    blocks.add(new BlockPos(i, j, k));
-	                }
-	            }
-	        }
-	    }
+	    TouchingBlocks touching = TouchingBlocks.get(player);
+	    List<BlockPos> blocks = new ArrayList<BlockPos>(touching.size());
+	    for (int i = 0; i < touching.size(); i++)
+	        blocks.add(touching.getPosition(i));
 	    return blocks;
 	}
 }
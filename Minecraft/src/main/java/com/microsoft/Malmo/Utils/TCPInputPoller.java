@@ -19,18 +19,28 @@
 
 package com.microsoft.Malmo.Utils;
 
-import java.io.BufferedReader;
 import java.io.DataOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
 import java.net.InetAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketException;
-import java.util.ArrayList;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 
+import net.minecraftforge.common.config.Configuration;
+
+import com.microsoft.Malmo.MalmoMod;
+
 /** Class which polls for TCP commands in the background, and makes them available via a thread-safe queue.<br>
+ * The queue is lock-free and bounded - if the consumer falls too far behind, further commands are dropped (and counted)
+ * until it catches up. Use drainCommands() to take everything that is pending in one go.<br>
  * Used for receiving control commands from the Malmo code. By default a client connection is used to service
  * multiple request / reply interaction which can lead to connections remaining open. Use constructor with
  * singleRequestReply set to false if only one interaction is to be served.
@@ -48,8 +58,15 @@ public class TCPInputPoller extends Thread
         }
     }
 
+    /** Default maximum number of commands held in the queue.*/
+    public static final int DEFAULT_MAX_QUEUED_COMMANDS = 4096;
+    private static int configuredMaxQueuedCommands = DEFAULT_MAX_QUEUED_COMMANDS;
+
     private boolean keepRunning = true;
-    private ArrayList<CommandAndIPAddress> commandQueue;
+    private final ConcurrentLinkedQueue<CommandAndIPAddress> commandQueue = new ConcurrentLinkedQueue<CommandAndIPAddress>();
+    private final AtomicInteger queueDepth = new AtomicInteger(0);
+    private final AtomicLong droppedCommands = new AtomicLong(0);
+    private volatile int maxQueuedCommands = DEFAULT_MAX_QUEUED_COMMANDS;
     private int requestedPortNumber;	// Can be 0, meaning allocate one dynamically.
     private int portRangeMin = -1;
     private int portRangeMax = -1;
@@ -68,10 +85,7 @@ public class TCPInputPoller extends Thread
      */
     public void addCommand(String s)
     {
-        synchronized(this)
-        {
-            this.commandQueue.add(new CommandAndIPAddress(s, ""));
-        }
+        enqueue(new CommandAndIPAddress(s, ""));
     }
 
     private void Log(Level level, String message)
@@ -91,7 +105,6 @@ public class TCPInputPoller extends Thread
     public TCPInputPoller(int port, String logname)
     {
         this.requestedPortNumber = port;
-        this.commandQueue = new ArrayList<CommandAndIPAddress>();
         this.logname = logname;
     }
 
@@ -107,7 +120,6 @@ public class TCPInputPoller extends Thread
         this.portRangeMax = portmax;
         this.portRangeMin = portmin;
         this.choosePortRandomly = choosePortRandomly;
-        this.commandQueue = new ArrayList<CommandAndIPAddress>();
         this.logname = logname;
     }
 
@@ -122,7 +134,6 @@ public class TCPInputPoller extends Thread
         this.requestedPortNumber = requestedPort;
         this.portRangeMax = Math.max(portmin,  portmax);
         this.portRangeMin = Math.min(portmin,  portmax);
-        this.commandQueue = new ArrayList<CommandAndIPAddress>();
         this.logname = logname;
     }
 
@@ -143,26 +154,18 @@ public class TCPInputPoller extends Thread
      */
     public String getCommand()
     {
-        String command = "";
-        synchronized(this)
-        {
-            if (commandQueue.size() > 0)
-            {
-                command = commandQueue.remove(0).command;
-            }
-        }
-        return command;
+        CommandAndIPAddress command = poll();
+        return (command != null) ? command.command : "";
     }
 
     /** Remove all commands from the queue.
      */
     public void clearCommands()
     {
-        synchronized(this)
-        {
-            System.out.println("JETTISONING " + commandQueue.size() + " COMMANDS");
-            commandQueue.clear();
-        }
+        int count = 0;
+        while (poll() != null)
+            count++;
+        System.out.println("JETTISONING " + count + " COMMANDS");
     }
 
     /** Pop the oldest command from our list and return it.
@@ -170,14 +173,74 @@ public class TCPInputPoller extends Thread
      */
     public CommandAndIPAddress getCommandAndIPAddress()
     {
-        CommandAndIPAddress command = null;
-        synchronized(this)
+        return poll();
+    }
+
+    /** Move all the commands currently in the queue, oldest first, into the given list.
+     * @param commands list to add the commands to.
+     * @return the number of commands added.
+     */
+    public int drainCommands(List<String> commands)
+    {
+        int count = 0;
+        CommandAndIPAddress command;
+        while ((command = poll()) != null)
         {
-            if (commandQueue.size() > 0)
-            {
-                command = commandQueue.remove(0);
-            }
+            commands.add(command.command);
+            count++;
+        }
+        return count;
+    }
+
+    /** @return the number of commands waiting in the queue.*/
+    public int getQueueDepth()
+    {
+        return this.queueDepth.get();
+    }
+
+    /** @return the number of commands dropped because the queue was full.*/
+    public long getDroppedCommandCount()
+    {
+        return this.droppedCommands.get();
+    }
+
+    /** Set the maximum number of commands to hold in the queue before dropping new ones.*/
+    public void setMaxQueuedCommands(int maxQueuedCommands)
+    {
+        this.maxQueuedCommands = Math.max(1, maxQueuedCommands);
+    }
+
+    /** Read the maximum command queue length for agent command pollers from our configs file.*/
+    public static void update(Configuration configs)
+    {
+        configuredMaxQueuedCommands = configs.get(MalmoMod.SOCKET_CONFIGS, "maxQueuedCommands", DEFAULT_MAX_QUEUED_COMMANDS).getInt();
+    }
+
+    /** @return the maximum command queue length set in the configs (or the default, if not set).*/
+    public static int getConfiguredMaxQueuedCommands()
+    {
+        return configuredMaxQueuedCommands;
+    }
+
+    private boolean enqueue(CommandAndIPAddress command)
+    {
+        if (this.queueDepth.incrementAndGet() > this.maxQueuedCommands)
+        {
+            this.queueDepth.decrementAndGet();
+            long dropped = this.droppedCommands.incrementAndGet();
+            if ((dropped & (dropped - 1)) == 0)  // Only log at powers of two, to avoid flooding the log during a burst.
+                Log(Level.WARNING, "Command queue full - " + dropped + " command(s) dropped so far.");
+            return false;
         }
+        this.commandQueue.offer(command);
+        return true;
+    }
+
+    private CommandAndIPAddress poll()
+    {
+        CommandAndIPAddress command = this.commandQueue.poll();
+        if (command != null)
+            this.queueDepth.decrementAndGet();
         return command;
     }
 
@@ -275,13 +338,14 @@ public class TCPInputPoller extends Thread
 
     public void commandReceived(String command, String ipOriginator, DataOutputStream dos)
     {
+        // Connection handlers are serialised through onCommand(), but never wait on whoever is taking commands off the queue.
         synchronized(this)
         {
             if (onCommand(command, ipOriginator, dos))
             {
                 // Add this command to our list - the calling thread will
-                // retrieve it via getCommand().
-                commandQueue.add(new CommandAndIPAddress(command, ipOriginator));
+                // retrieve it via getCommand() or drainCommands().
+                enqueue(new CommandAndIPAddress(command, ipOriginator));
             }
         }
     }
@@ -365,37 +429,58 @@ public class TCPInputPoller extends Thread
         public void run()
         {
             final int MAX_STR_LEN = 10000000;
+            final int INITIAL_BUFFER_SIZE = 8192;
             try
             {
                 Log(Level.INFO, "About to try reading inputstream...");
-                BufferedReader br = new BufferedReader(new InputStreamReader(this.socket.getInputStream()));
-                StringBuffer sb = new StringBuffer();
-                int intC;
-                while ((intC = br.read()) != -1)
+                InputStream in = this.socket.getInputStream();
+                DataOutputStream dos = new DataOutputStream(this.socket.getOutputStream());
+                // The originator can't change for the life of the connection, so only look it up once:
+                InetAddress address = this.socket.getInetAddress();
+                String originator = TCPUtils.getHostName(address);
+                Charset charset = Charset.defaultCharset();
+                // Read straight into a byte buffer and scan it for newlines, rather than reading a character at a time.
+                ByteBuffer buffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+                int scanned = 0;    // Number of bytes at the start of the buffer that are known not to contain a newline.
+                while (true)
                 {
-                    char c = (char) intC;
-                    if (c == '\n')
+                    if (!buffer.hasRemaining())
                     {
-                        String command = sb.toString();
-                        Log(Level.FINE, "Received this: " + command);
-                        InetAddress address = this.socket.getInetAddress();
-                        Log(Level.INFO, "Read line from " + this.socket.getRemoteSocketAddress() + "(remote), " + address.getHostName() + "(hostname) " + address.getHostAddress() + "(hostaddress)");
-                        String originator = address.getHostName();
-                        DataOutputStream dos = new DataOutputStream(this.socket.getOutputStream());
-                        poller.commandReceived(command, originator, dos);
-                        if (singleRequestReply) {
-                            // Stop handling the connection after one interaction.
-                            this.socket.close();
-                            return;
-                        }
-                        sb.setLength(0);
+                        ByteBuffer grown = ByteBuffer.allocate(Math.min(buffer.capacity() * 2, MAX_STR_LEN));
+                        buffer.flip();
+                        grown.put(buffer);
+                        buffer = grown;
                     }
-                    else
+                    int bytesRead = in.read(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+                    if (bytesRead == -1)
+                        break;
+                    buffer.position(buffer.position() + bytesRead);
+
+                    byte[] data = buffer.array();
+                    int lineStart = 0;
+                    for (int i = scanned; i < buffer.position(); i++)
                     {
-                        sb.append(c);
+                        if (data[i] == '\n')
+                        {
+                            String command = new String(data, lineStart, i - lineStart, charset);
+                            Log(Level.FINE, "Received this: " + command);
+                            Log(Level.INFO, "Read line from " + this.socket.getRemoteSocketAddress() + "(remote), " + originator + "(hostname) " + address.getHostAddress() + "(hostaddress)");
+                            poller.commandReceived(command, originator, dos);
+                            if (singleRequestReply) {
+                                // Stop handling the connection after one interaction.
+                                this.socket.close();
+                                return;
+                            }
+                            lineStart = i + 1;
+                        }
                     }
-                    if (sb.length() >= MAX_STR_LEN) {
-                        DataOutputStream dos = new DataOutputStream(this.socket.getOutputStream());
+                    // Keep hold of the start of the next line:
+                    buffer.limit(buffer.position());
+                    buffer.position(lineStart);
+                    buffer.compact();
+                    scanned = buffer.position();
+
+                    if (scanned >= MAX_STR_LEN) {
                         poller.onError("MALMOERROR Input too long", dos);
                         Log(Level.WARNING, "Input too long (greater than " + MAX_STR_LEN + ") - discarding.");
                         break; // discard anything else we received
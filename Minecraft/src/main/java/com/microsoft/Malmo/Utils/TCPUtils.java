@@ -2,10 +2,12 @@ package com.microsoft.Malmo.Utils;
 
 import java.io.File;
 import java.io.IOException;
+import java.net.InetAddress;
 import java.net.ServerSocket;
 import java.util.Date;
 import java.util.Random;
 import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.FileHandler;
 import java.util.logging.Formatter;
 import java.util.logging.Handler;
@@ -164,6 +166,26 @@ public class TCPUtils
         }
     }
 
+    private static ConcurrentHashMap<InetAddress, String> hostNames = new ConcurrentHashMap<InetAddress, String>();
+
+    /**
+     * Get the host name for an address, as InetAddress.getHostName() would.<br>
+     * The names are cached, since looking one up can mean a reverse DNS query - not something we want to do for every command.
+     *
+     * @param address the address to look up.
+     * @return the host name, or the textual IP address if the name couldn't be found.
+     */
+    public static String getHostName(InetAddress address)
+    {
+        String name = hostNames.get(address);
+        if (name == null)
+        {
+            name = address.getHostName();
+            hostNames.put(address, name);
+        }
+        return name;
+    }
+
     /**
      * Choose a port from the specified range - either sequentially, or at random.
      *
@@ -0,0 +1,115 @@
+// --------------------------------------------------------------------------------------------------
+//  Copyright (c) 2016 Microsoft Corporation
+//
+//  Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+//  associated documentation files (the "Software"), to deal in the Software without restriction,
+//  including without limitation the rights to use, copy, modify, merge, publish, distribute,
+//  sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+//  furnished to do so, subject to the following conditions:
+//
+//  The above copyright notice and this permission notice shall be included in all copies or
+//  substantial portions of the Software.
+//
+//  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+//  NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+//  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+//  DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+//  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+// --------------------------------------------------------------------------------------------------
+
+package com.microsoft.Malmo.Utils;
+
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.entity.player.EntityPlayer;
+import net.minecraft.util.math.AxisAlignedBB;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.World;
+
+/**
+ * The blocks the player is touching, and their states - worked out once per tick (or again if the player moves within
+ * the tick, eg during a discrete move) and shared by everything that wants to know, such as RewardForTouchingBlockType
+ * and AgentQuitFromTouchingBlockType.<br>
+ * Positions are held as BlockPos.toLong() keys.
+ * Call from the client thread only.
+ */
+public class TouchingBlocks
+{
+    private static final TouchingBlocks current = new TouchingBlocks();
+
+    private WeakReference<EntityPlayer> player = null;
+    private WeakReference<World> world = null;
+    private long worldTime = 0;
+    private AxisAlignedBB box = null;
+    private long[] positions = new long[32];
+    private IBlockState[] states = new IBlockState[32];
+    private int count = 0;
+    private final BlockPos.MutableBlockPos pos = new BlockPos.MutableBlockPos();
+
+    /** @return the blocks the player is touching right now. The object is shared, and only good until the next call.*/
+    public static TouchingBlocks get(EntityPlayer player)
+    {
+        current.update(player);
+        return current;
+    }
+
+    public int size()
+    {
+        return this.count;
+    }
+
+    /** @return the position of the i'th block, as a BlockPos.toLong() key.*/
+    public long getPositionKey(int i)
+    {
+        return this.positions[i];
+    }
+
+    public BlockPos getPosition(int i)
+    {
+        return BlockPos.fromLong(this.positions[i]);
+    }
+
+    public IBlockState getState(int i)
+    {
+        return this.states[i];
+    }
+
+    private void update(EntityPlayer player)
+    {
+        AxisAlignedBB box = player.getEntityBoundingBox();
+        long worldTime = player.world.getTotalWorldTime();
+        if (this.player != null && player == this.player.get() && player.world == this.world.get() && worldTime == this.worldTime && box == this.box)
+            return;     // Nothing has moved or ticked since we last looked.
+        this.player = new WeakReference<EntityPlayer>(player);
+        this.world = new WeakReference<World>(player.world);
+        this.worldTime = worldTime;
+        this.box = box;
+        this.count = 0;
+
+        // This code is adapted from Entity, where it is used to fire the Block.onEntityCollidedWithBlock methods.
+        BlockPos blockposmin = new BlockPos(box.minX - 0.001D, box.minY - 0.001D, box.minZ - 0.001D);
+        BlockPos blockposmax = new BlockPos(box.maxX + 0.001D, box.maxY + 0.001D, box.maxZ + 0.001D);
+        if (!player.world.isAreaLoaded(blockposmin, blockposmax))
+            return;
+        for (int i = blockposmin.getX(); i <= blockposmax.getX(); ++i)
+        {
+            for (int j = blockposmin.getY(); j <= blockposmax.getY(); ++j)
+            {
+                for (int k = blockposmin.getZ(); k <= blockposmax.getZ(); ++k)
+                {
+                    if (this.count == this.positions.length)
+                    {
+                        this.positions = Arrays.copyOf(this.positions, this.count * 2);
+                        this.states = Arrays.copyOf(this.states, this.count * 2);
+                    }
+                    this.pos.setPos(i, j, k);
+                    this.positions[this.count] = this.pos.toLong();
+                    this.states[this.count] = player.world.getBlockState(this.pos);
+                    this.count++;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,163 @@
+// --------------------------------------------------------------------------------------------------
+//  Copyright (c) 2016 Microsoft Corporation
+//
+//  Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+//  associated documentation files (the "Software"), to deal in the Software without restriction,
+//  including without limitation the rights to use, copy, modify, merge, publish, distribute,
+//  sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+//  furnished to do so, subject to the following conditions:
+//
+//  The above copyright notice and this permission notice shall be included in all copies or
+//  substantial portions of the Software.
+//
+//  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+//  NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+//  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+//  DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+//  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+// --------------------------------------------------------------------------------------------------
+
+package com.microsoft.Malmo.Utils;
+
+import java.io.UnsupportedEncodingException;
+import java.lang.ref.WeakReference;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Level;
+
+import javax.xml.bind.JAXBException;
+
+import net.minecraft.world.World;
+
+import com.microsoft.Malmo.Schemas.DefaultWorldGenerator;
+import com.microsoft.Malmo.Schemas.FileWorldGenerator;
+import com.microsoft.Malmo.Schemas.FlatWorldGenerator;
+import com.microsoft.Malmo.Schemas.MissionInit;
+import com.microsoft.Malmo.Schemas.ServerHandlers;
+
+/**
+ * Keeps a copy of the area a mission has decorated, so that a mission asking for a fresh world can instead have the
+ * current world put back the way it was - which is much quicker than starting a new integrated server.<br>
+ * The snapshot is taken once the world decorators have run, and covers every chunk they changed, plus the chunks around
+ * each agent's start position. It is keyed on the mission's ServerHandlers (world generator parameters and decorators),
+ * and is only valid for the world it was taken in.<br>
+ * Only one snapshot is kept - restoring one mission's area would not undo another mission's changes outside it, so a
+ * mission with a different key throws the snapshot away.<br>
+ * Capture and restore happen on the server thread; the client thread only asks whether a snapshot could be used.
+ */
+public class WorldSnapshotCache
+{
+    /** How far around each agent's start position to snapshot, in chunks.*/
+    public static final int AGENT_RADIUS_CHUNKS = 4;
+
+    private static String snapshotKey = null;
+    private static WeakReference<World> snapshotWorld = null;
+    private static List<ChunkSnapshot> chunks = null;
+
+    /** Does the mission's world generator want to be reset from a snapshot, rather than by creating a new world?*/
+    public static boolean isRequested(MissionInit missionInit)
+    {
+        Object gen = missionInit.getMission().getServerSection().getServerHandlers().getWorldGenerator();
+        if (gen instanceof FlatWorldGenerator)
+            return ((FlatWorldGenerator)gen).isForceReset() && ((FlatWorldGenerator)gen).isResetFromSnapshot();
+        if (gen instanceof DefaultWorldGenerator)
+            return ((DefaultWorldGenerator)gen).isForceReset() && ((DefaultWorldGenerator)gen).isResetFromSnapshot();
+        if (gen instanceof FileWorldGenerator)
+            return ((FileWorldGenerator)gen).isForceReset() && ((FileWorldGenerator)gen).isResetFromSnapshot();
+        return false;
+    }
+
+    /** Is there a snapshot for this mission, taken in this world?*/
+    public static synchronized boolean canRestore(MissionInit missionInit, World world)
+    {
+        if (world == null || snapshotKey == null || snapshotWorld == null || snapshotWorld.get() != world)
+            return false;
+        return snapshotKey.equals(getKey(missionInit));
+    }
+
+    /** Throw away the current snapshot.*/
+    public static synchronized void invalidate()
+    {
+        snapshotKey = null;
+        snapshotWorld = null;
+        chunks = null;
+    }
+
+    /** Put the snapshotted area back the way it was.
+     * @return true if there was a snapshot for this mission and world to restore.
+     */
+    public static synchronized boolean restore(MissionInit missionInit, World world)
+    {
+        if (!canRestore(missionInit, world))
+            return false;
+        long start = System.currentTimeMillis();
+        BulkBlockWriter writer = new BulkBlockWriter(world);
+        for (ChunkSnapshot chunk : chunks)
+            chunk.restore(world, writer);
+        writer.flush();
+        TCPUtils.Log(Level.INFO, "Restored " + chunks.size() + " chunks from world snapshot in " + (System.currentTimeMillis() - start) + "ms");
+        return true;
+    }
+
+    /** Take a snapshot of the mission's area, replacing any previous snapshot.
+     * @param missionInit the mission, after its decorators have run (so the agent start positions are final).
+     * @param world the world to snapshot.
+     * @param decorated the tracker that was listening while the decorators ran.
+     */
+    public static synchronized void capture(MissionInit missionInit, World world, ChunkChangeTracker decorated)
+    {
+        invalidate();
+        String key = getKey(missionInit);
+        if (key == null)
+            return;
+
+        long start = System.currentTimeMillis();
+        Set<Long> keys = new LinkedHashSet<Long>(decorated.getChangedChunks());
+        ChunkPreloadHelper.addChunksAroundAgents(keys, missionInit, world, AGENT_RADIUS_CHUNKS);
+
+        List<ChunkSnapshot> snapshots = new ArrayList<ChunkSnapshot>(keys.size());
+        for (Long chunkKey : keys)
+        {
+            // ChunkPos.asLong puts x in the low 32 bits and z in the high 32 bits:
+            int x = (int)(chunkKey & 0xFFFFFFFFL);
+            int z = (int)(chunkKey >>> 32);
+            snapshots.add(new ChunkSnapshot(world.getChunkFromChunkCoords(x, z), decorated.getAddedEntities()));
+        }
+        snapshotKey = key;
+        snapshotWorld = new WeakReference<World>(world);
+        chunks = snapshots;
+        TCPUtils.Log(Level.INFO, "Took world snapshot of " + snapshots.size() + " chunks in " + (System.currentTimeMillis() - start) + "ms");
+    }
+
+    /** The key is a digest of the mission's ServerHandlers, which hold the world generator and decorator parameters.*/
+    private static String getKey(MissionInit missionInit)
+    {
+        try
+        {
+            String xml = SchemaHelper.serialiseObject(missionInit.getMission().getServerSection().getServerHandlers(), ServerHandlers.class);
+            MessageDigest md = MessageDigest.getInstance("MD5");
+            byte[] digest = md.digest(xml.getBytes("UTF-8"));
+            StringBuffer sb = new StringBuffer();
+            for (int i = 0; i < digest.length; i++)
+                sb.append(Integer.toString((digest[i] & 0xff) + 0x100, 16).substring(1));
+            return sb.toString();
+        }
+        catch (JAXBException e)
+        {
+            TCPUtils.Log(Level.WARNING, "Could not serialise ServerHandlers for world snapshot: " + e.getMessage());
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            TCPUtils.Log(Level.WARNING, "Could not create world snapshot key: " + e.getMessage());
+        }
+        catch (UnsupportedEncodingException e)
+        {
+            TCPUtils.Log(Level.WARNING, "Could not create world snapshot key: " + e.getMessage());
+        }
+        return null;
+    }
+}